@@ -0,0 +1,202 @@
+package dht.chord.benchmarks;
+
+import dht.chord.ChordNode;
+import dht.chord.exceptions.NodeBusyException;
+import dht.chord.rpc.InMemoryTransport;
+import dht.chord.storage.StoredValue;
+import dht.chord.utils.ChordUtils;
+import dht.chord.utils.Clock;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the routing and storage paths of the nodes. Lookups are routed hop by hop, through
+ * the closest preceding finger of each node, in a ring of nodes connected by the in-memory
+ * transport. The nodes are not started: their routines are run by hand, round after round as in
+ * the simulator, until the ring is stable and every finger has been fixed, so that the routing
+ * state is frozen during the measurement. Stores and gets are resolved locally by a single-node
+ * ring, which owns every key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChordNodeBenchmark {
+    private static final int SIZE = 1024;
+    private static final int PORT = 7777;
+    private static final int MAX_ROUNDS = 1000;
+
+    @State(Scope.Benchmark)
+    public static class RoutingState {
+        @Param({"16", "32"})
+        public int m;
+
+        @Param({"16"})
+        public int nodes;
+
+        ChordNode[] ring;
+        BigInteger[] ids;
+
+        @Setup
+        public void setup() {
+            var random = new Random(42);
+            var transport = new InMemoryTransport(Clock.SYSTEM, 42);
+
+            this.ring = new ChordNode[this.nodes];
+            var addresses = new TreeMap<BigInteger, String>();
+            for (int i = 0; i < this.nodes; i++) {
+                var host = "10.0.0." + i;
+                var node = new ChordNode(host, PORT, this.m, 3, 1, transport, Clock.SYSTEM);
+
+                // Listen before joining: the nodes joining next may already be routed here
+                transport.listen(host, PORT, node);
+                if (i == 0) {
+                    node.dhtCreate();
+                } else {
+                    node.dhtJoin("10.0.0.0", PORT);
+                }
+                this.ring[i] = node;
+                addresses.put(ChordUtils.hostPortToChordID(host, PORT, this.m), node.getNodeAddress());
+            }
+            if (addresses.size() != this.nodes) {
+                throw new IllegalStateException("Two nodes have the same chord id, use another -p m=...");
+            }
+
+            this.ids = new BigInteger[SIZE];
+            for (int i = 0; i < SIZE; i++) this.ids[i] = new BigInteger(this.m, random);
+
+            // Stabilize the ring, then fix every finger once more on the stable ring
+            var rounds = 0;
+            while (!this.isStable(addresses)) {
+                if (++rounds > MAX_ROUNDS) {
+                    throw new IllegalStateException("The ring did not stabilize");
+                }
+                this.round(random);
+            }
+            for (int i = 0; i < this.m; i++) this.round(random);
+
+            // Every lookup must reach the owner of the key
+            for (int i = 0; i < SIZE; i++) {
+                var entry = addresses.ceilingEntry(this.ids[i]);
+                var owner = entry != null ? entry.getValue() : addresses.firstEntry().getValue();
+                var successor = this.ring[i % this.nodes].dhtFindSuccessor(this.ids[i]);
+                if (!owner.equals(successor)) {
+                    throw new IllegalStateException(String.format("Lookup of %s reached %s instead of %s",
+                            this.ids[i], successor, owner));
+                }
+            }
+        }
+
+        /**
+         * Run the routines of every node once, in a random order, each node sending as itself.
+         */
+        private void round(Random random) {
+            var order = new ArrayList<ChordNode>(this.ring.length);
+            Collections.addAll(order, this.ring);
+            Collections.shuffle(order, random);
+            for (var node : order) {
+                InMemoryTransport.runAs(ChordUtils.extractHost(node.getNodeAddress()), PORT, node::dhtMaintainRouting);
+            }
+        }
+
+        private boolean isStable(TreeMap<BigInteger, String> addresses) {
+            for (var node : this.ring) {
+                var id = ChordUtils.extractChordID(node.getNodeAddress());
+                var successor = addresses.higherEntry(id);
+                var predecessor = addresses.lowerEntry(id);
+                if (successor == null) successor = addresses.firstEntry();
+                if (predecessor == null) predecessor = addresses.lastEntry();
+                if (!successor.getValue().equals(node.getSuccessorList().get(0))
+                        || !predecessor.getValue().equals(node.getPredecessorAddress())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @TearDown
+        public void tearDown() {
+            for (var node : this.ring) node.dhtLeave();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class StoreState {
+        ChordNode node;
+        BigInteger[] ids;
+        String[] values;
+
+        @Setup
+        public void setup() throws NodeBusyException {
+            var m = 32;
+            var random = new Random(42);
+            this.node = new ChordNode("localhost", PORT, m, 3, 1, new InMemoryTransport(Clock.SYSTEM, 42), Clock.SYSTEM);
+            this.node.dhtCreate();
+
+            this.ids = new BigInteger[SIZE];
+            this.values = new String[SIZE];
+            for (int i = 0; i < SIZE; i++) {
+                this.ids[i] = new BigInteger(m, random);
+                var bytes = new byte[64];
+                random.nextBytes(bytes);
+                this.values[i] = Base64.getEncoder().encodeToString(bytes);
+                this.node.dhtStore(this.ids[i], StoredValue.of(this.values[i], 1, 0));
+            }
+
+            // Every get must hit a stored value
+            for (int i = 0; i < SIZE; i++) {
+                if (!this.values[i].equals(this.node.dhtGet(this.ids[i]))) {
+                    throw new IllegalStateException("Missing value for " + this.ids[i]);
+                }
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int i;
+        long version = 1;
+
+        int next() {
+            this.i = (this.i + 1) & (SIZE - 1);
+            return this.i;
+        }
+    }
+
+    @Benchmark
+    public String lookup(RoutingState state, Cursor cursor) {
+        var i = cursor.next();
+        return state.ring[i % state.nodes].dhtFindSuccessor(state.ids[i]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String lookupConcurrent(RoutingState state, Cursor cursor) {
+        var i = cursor.next();
+        return state.ring[i % state.nodes].dhtFindSuccessor(state.ids[i]);
+    }
+
+    /**
+     * Writes of a new version of a key, the writers racing on the same keys.
+     */
+    @Benchmark
+    @Threads(4)
+    public void store(StoreState state, Cursor cursor) {
+        var i = cursor.next();
+        state.node.dhtStore(state.ids[i], StoredValue.of(state.values[i], ++cursor.version, 0));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String get(StoreState state, Cursor cursor) throws NodeBusyException {
+        return state.node.dhtGet(state.ids[cursor.next()]);
+    }
+}
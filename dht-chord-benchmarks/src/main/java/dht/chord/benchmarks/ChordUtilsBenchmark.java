@@ -0,0 +1,86 @@
+package dht.chord.benchmarks;
+
+import dht.chord.utils.ChordUtils;
+import dht.chord.utils.KeyHasher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the id space arithmetic, of the key hashers (the non-cryptographic ones are capped
+ * at the size of their hash) and of the address parsing done on every lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChordUtilsBenchmark {
+    private static final int SIZE = 1024;
+
+    @Param({"6", "16", "32", "64", "160"})
+    public int m;
+
+    private BigInteger[] ids;
+    private String[] keys;
+    private String[] addresses;
+    private int i;
+
+    @Setup
+    public void setup() {
+        var random = new Random(42);
+        this.ids = new BigInteger[SIZE];
+        this.keys = new String[SIZE];
+        this.addresses = new String[SIZE];
+        for (int j = 0; j < SIZE; j++) {
+            this.ids[j] = new BigInteger(this.m, random);
+            this.keys[j] = new UUID(random.nextLong(), random.nextLong()).toString();
+            this.addresses[j] = ChordUtils.makeAddress(this.ids[j], "10.0.0." + random.nextInt(256), 7000 + random.nextInt(1000));
+        }
+    }
+
+    private int next() {
+        this.i = (this.i + 1) & (SIZE - 1);
+        return this.i;
+    }
+
+    @Benchmark
+    public boolean isInIntervalInclusive() {
+        var j = this.next();
+        return ChordUtils.isInIntervalInclusive(this.ids[j], this.ids[(j + 1) & (SIZE - 1)], this.ids[(j + 2) & (SIZE - 1)], this.m);
+    }
+
+    @Benchmark
+    public boolean isInIntervalExclusive() {
+        var j = this.next();
+        return ChordUtils.isInIntervalExclusive(this.ids[j], this.ids[(j + 1) & (SIZE - 1)], this.ids[(j + 2) & (SIZE - 1)], this.m);
+    }
+
+    @Benchmark
+    public BigInteger keyToChordID() {
+        return ChordUtils.keyToChordID(this.keys[this.next()], this.m);
+    }
+
+    @Benchmark
+    public BigInteger murmur3() {
+        return KeyHasher.MURMUR3.hash(this.keys[this.next()], Math.min(this.m, KeyHasher.MURMUR3.getBits()));
+    }
+
+    @Benchmark
+    public BigInteger xxHash() {
+        return KeyHasher.XXHASH.hash(this.keys[this.next()], Math.min(this.m, KeyHasher.XXHASH.getBits()));
+    }
+
+    @Benchmark
+    public void parseAddress(Blackhole blackhole) {
+        var address = this.addresses[this.next()];
+        blackhole.consume(ChordUtils.extractChordID(address));
+        blackhole.consume(ChordUtils.extractHost(address));
+        blackhole.consume(ChordUtils.extractPort(address));
+    }
+}
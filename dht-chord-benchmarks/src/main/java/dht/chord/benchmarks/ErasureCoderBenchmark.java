@@ -0,0 +1,107 @@
+package dht.chord.benchmarks;
+
+import dht.chord.storage.ErasureCoder;
+import dht.chord.storage.Fragment;
+import dht.chord.storage.StoredValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the erasure-coded storage against full copies: CPU cost of turning a written value
+ * into the bytes sent to the successors, as n + p fragments or as k = p + 1 copies (counted by
+ * "storedBytes"), and of rebuilding the value from n fragments when the p first data fragments are
+ * lost, i.e. the worst case for the decoding. The setup first checks that the value is rebuilt
+ * whichever p fragments are lost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ErasureCoderBenchmark {
+
+    @Param({"4"})
+    public int dataFragments;
+
+    @Param({"2"})
+    public int parityFragments;
+
+    @Param({"1024", "65536"})
+    public int valueSize;
+
+    private ErasureCoder coder;
+    private String stored;
+    private List<String> survivors;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long storedBytes;
+    }
+
+    @Setup
+    public void setup() {
+        var random = new Random(42);
+        this.coder = new ErasureCoder(this.dataFragments, this.parityFragments);
+        for (var size : new int[]{0, 1, this.dataFragments + 1, this.valueSize}) {
+            var value = new byte[size];
+            random.nextBytes(value);
+            this.check(StoredValue.of(Base64.getEncoder().encodeToString(value), 1L << 20, 0));
+        }
+
+        var value = new byte[this.valueSize];
+        random.nextBytes(value);
+        this.stored = StoredValue.of(Base64.getEncoder().encodeToString(value), 1L << 20, 0);
+        var fragments = Fragment.encode(this.coder, this.stored);
+        this.survivors = Arrays.asList(fragments).subList(this.parityFragments, fragments.length);
+    }
+
+    /**
+     * Encode a value, then decode it from every subset of n fragments, in which the value must be
+     * rebuilt, and of n - 1 fragments, in which it must not.
+     */
+    private void check(String stored) {
+        var fragments = Fragment.encode(this.coder, stored);
+        var total = this.dataFragments + this.parityFragments;
+        for (int kept = 0; kept < 1 << total; kept++) {
+            var count = Integer.bitCount(kept);
+            if (count != this.dataFragments && count != this.dataFragments - 1) continue;
+            var survivors = new ArrayList<String>(count);
+            for (int i = 0; i < total; i++) {
+                if ((kept & 1 << i) != 0) survivors.add(fragments[i]);
+            }
+            var decoded = Fragment.decode(this.coder, survivors);
+            if (count == this.dataFragments ? !stored.equals(decoded) : decoded != null) {
+                throw new IllegalStateException(String.format("Decoded %s from fragments %s of %s",
+                        decoded, Integer.toBinaryString(kept), stored));
+            }
+        }
+    }
+
+    @Benchmark
+    public void replicate(Bytes bytes) {
+        for (int i = 0; i <= this.parityFragments; i++) {
+            bytes.storedBytes += this.stored.getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    @Benchmark
+    public void encode(Bytes bytes) {
+        for (var fragment : Fragment.encode(this.coder, this.stored)) {
+            bytes.storedBytes += fragment.getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    @Benchmark
+    public String decode() {
+        return Fragment.decode(this.coder, this.survivors);
+    }
+}
@@ -0,0 +1,79 @@
+package dht.chord.benchmarks;
+
+import dht.chord.metrics.MetricsRegistry;
+import dht.chord.rpc.FrameCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the compression of the bulk messages: CPU cost of compressing and decompressing a
+ * TRANSFER response, against the bytes saved (reported per operation by the "rawBytes" and
+ * "wireBytes" counters). Text values compress well, random values barely survive the Base64 of
+ * the compressed frame and are sent uncompressed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameCodecBenchmark {
+
+    @Param({"text", "random"})
+    public String values;
+
+    @Param({"1", "100"})
+    public int entries;
+
+    private FrameCodec codec;
+    private String message;
+    private String frame;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long rawBytes;
+        public long wireBytes;
+    }
+
+    @Setup
+    public void setup() {
+        var random = new Random(42);
+        this.codec = new FrameCodec(1, new MetricsRegistry());
+
+        var builder = new StringBuilder();
+        for (int i = 0; i < this.entries; i++) {
+            byte[] value;
+            if (this.values.equals("text")) {
+                value = String.format("{\"user\":\"user%s\",\"visits\":%s,\"country\":\"%s\",\"active\":%s}",
+                        random.nextInt(100000), random.nextInt(1000), random.nextBoolean() ? "FR" : "US",
+                        random.nextBoolean()).getBytes(StandardCharsets.UTF_8);
+            } else {
+                value = new byte[64];
+                random.nextBytes(value);
+            }
+            if (i > 0) builder.append(' ');
+            builder.append(new BigInteger(32, random)).append(':').append(Base64.getEncoder().encodeToString(value));
+        }
+        this.message = builder.toString();
+        this.frame = this.codec.encode(this.message, true);
+    }
+
+    @Benchmark
+    public String encode(Bytes bytes) {
+        var frame = this.codec.encode(this.message, true);
+        bytes.rawBytes += this.message.length();
+        bytes.wireBytes += frame.length();
+        return frame;
+    }
+
+    @Benchmark
+    public String decode() {
+        return this.codec.decode(this.frame);
+    }
+}
@@ -0,0 +1,75 @@
+package dht.chord.benchmarks;
+
+import dht.chord.ChordNode;
+import dht.chord.exceptions.NodeFailException;
+import dht.chord.rpc.InMemoryTransport;
+import dht.chord.rpc.RPCMessage;
+import dht.chord.utils.Clock;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the text codec: encoding a request as done by the RPCClient, and decoding,
+ * dispatching and encoding the response as done by the RPCHandler. The messages are delivered by
+ * the in-memory transport, without latency, and all resolved locally by a single-node ring.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RPCHandlerBenchmark {
+    private static final String HOST = "localhost";
+    private static final int PORT = 7777;
+
+    private InMemoryTransport transport;
+    private BigInteger id;
+    private String value;
+    private String storeMessage;
+    private String findSuccessorMessage;
+
+    @Setup
+    public void setup() {
+        var random = new Random(42);
+        this.transport = new InMemoryTransport(Clock.SYSTEM, 42);
+        var node = new ChordNode(HOST, PORT, 32, 3, 1, this.transport, Clock.SYSTEM);
+        node.dhtCreate();
+        this.transport.listen(HOST, PORT, node);
+
+        this.id = new BigInteger(32, random);
+        var bytes = new byte[64];
+        random.nextBytes(bytes);
+        this.value = java.util.Base64.getEncoder().encodeToString(bytes);
+        this.storeMessage = String.format("%s %s %s", RPCMessage.STORE.name(), this.id, this.value);
+        this.findSuccessorMessage = String.format("%s %s", RPCMessage.FIND_SUCCESSOR, this.id);
+    }
+
+    @Benchmark
+    public String encodeStore() {
+        return String.format("%s %s %s", RPCMessage.STORE.name(), this.id, this.value);
+    }
+
+    @Benchmark
+    public String handlePing() throws NodeFailException {
+        return this.transport.send(HOST, PORT, RPCMessage.PING.name());
+    }
+
+    @Benchmark
+    public String handleStore() throws NodeFailException {
+        return this.transport.send(HOST, PORT, this.storeMessage);
+    }
+
+    @Benchmark
+    public String handleFindSuccessor() throws NodeFailException {
+        return this.transport.send(HOST, PORT, this.findSuccessorMessage);
+    }
+
+    @Benchmark
+    public String handleGetSuccessorList() throws NodeFailException {
+        return this.transport.send(HOST, PORT, RPCMessage.GET_SUCCESSOR_LIST.name());
+    }
+}
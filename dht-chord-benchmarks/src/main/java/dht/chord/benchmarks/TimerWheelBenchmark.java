@@ -0,0 +1,87 @@
+package dht.chord.benchmarks;
+
+import dht.chord.utils.TimerWheel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the expiration of the keys: cost per key of scheduling its expiration and of
+ * expiring it, with TTLs spread over all the wheels, as the expiration routine of a node does
+ * every tick. The setup first checks that every timer fires on time, including the ones moved
+ * down the wheels and the ones beyond their range.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimerWheelBenchmark {
+    private static final int SIZE = 1024;
+    private static final long TICK_MILLIS = 100;
+
+    @Param({"60000", "86400000"})
+    public long maxTtlMillis;
+
+    private TimerWheel<Integer> wheel;
+    private long[] ttls;
+    private long now;
+    private int i;
+
+    @Setup
+    public void setup() {
+        check(new Random(42));
+
+        var random = new Random(42);
+        this.now = System.currentTimeMillis();
+        this.wheel = new TimerWheel<>(TICK_MILLIS, this.now);
+        this.ttls = new long[SIZE];
+        for (int j = 0; j < SIZE; j++) this.ttls[j] = 1 + (long) (random.nextDouble() * this.maxTtlMillis);
+    }
+
+    /**
+     * Schedule timers over the range of the wheels and beyond, then advance by random steps: each
+     * timer must fire once, at the first step reaching its deadline.
+     */
+    private static void check(Random random) {
+        var start = random.nextInt(1 << 30);
+        var wheel = new TimerWheel<Integer>(1, start);
+        var deadlines = new long[100_000];
+        for (int j = 0; j < deadlines.length; j++) {
+            var range = j % 100 == 0 ? (1L << 24) + 100_000 : 1L << (6 * (1 + j % 3));
+            deadlines[j] = start + (long) (random.nextDouble() * range);
+            wheel.schedule(j, deadlines[j]);
+        }
+
+        var fired = new boolean[deadlines.length];
+        var previous = (long) start;
+        while (wheel.size() > 0) {
+            var now = previous + 1 + random.nextInt(5000);
+            for (var j : wheel.advance(now)) {
+                if (fired[j] || deadlines[j] > now || Math.max(deadlines[j], start + 1) <= previous) {
+                    throw new IllegalStateException(String.format("Timer %s of deadline %s fired in (%s, %s]",
+                            j, deadlines[j], previous, now));
+                }
+                fired[j] = true;
+            }
+            previous = now;
+        }
+        for (int j = 0; j < fired.length; j++) {
+            if (!fired[j]) throw new IllegalStateException("Timer " + j + " never fired");
+        }
+    }
+
+    /**
+     * Schedule the expiration of a written key, and move the wheel forward by a millisecond.
+     */
+    @Benchmark
+    public List<Integer> scheduleAndAdvance() {
+        this.i = (this.i + 1) & (SIZE - 1);
+        this.wheel.schedule(this.i, this.now + this.ttls[this.i]);
+        this.now++;
+        return this.wheel.advance(this.now);
+    }
+}
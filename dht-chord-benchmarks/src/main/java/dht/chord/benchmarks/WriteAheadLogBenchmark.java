@@ -0,0 +1,149 @@
+package dht.chord.benchmarks;
+
+import dht.chord.metrics.MetricsRegistry;
+import dht.chord.storage.WriteAheadLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the write-ahead log: throughput of concurrent writers (as the request handlers
+ * writing PUTs) with a sync per write, group commits, and periodic syncs. The logs are written in
+ * the temporary directory, whose disk determines the cost of a sync: waiting for larger groups
+ * (-p flushIntervalMicros=...) only pays off when a sync takes longer than the interval. The setup
+ * first checks that the log replays what was written, and stops at a truncated or corrupted tail.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class WriteAheadLogBenchmark {
+
+    @Param({"SYNC", "GROUP", "ASYNC"})
+    public WriteAheadLog.Durability durability;
+
+    @Param({"0"})
+    public long flushIntervalMicros;
+
+    @Param({"256"})
+    public int batchSize;
+
+    private Path directory;
+    private WriteAheadLog log;
+    private String value;
+
+    @Setup
+    public void setup() throws IOException {
+        this.check();
+
+        this.directory = Files.createTempDirectory("wal-benchmark");
+        this.log = new WriteAheadLog(this.directory, "benchmark", this.durability, this.flushIntervalMicros,
+                this.batchSize, new MetricsRegistry());
+        this.value = "x".repeat(100) + "~" + System.currentTimeMillis();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.log.close();
+        delete(this.directory);
+    }
+
+    /**
+     * Write records of every type over two segments, then replay them: intact, with the last record
+     * truncated, and with a byte of the last segment flipped, which must replay the records before
+     * the damaged one.
+     */
+    private void check() throws IOException {
+        var directory = Files.createTempDirectory("wal-check");
+        try {
+            var written = new ArrayList<String>();
+            var log = new WriteAheadLog(directory, "check", this.durability, this.flushIntervalMicros, this.batchSize,
+                    new MetricsRegistry());
+            for (int i = 0; i < 1000; i++) {
+                if (i == 500) log.rotate();
+                var id = BigInteger.valueOf(i);
+                if (i % 10 == 9) {
+                    log.deleted(id, i);
+                    written.add("D " + id + " " + i);
+                } else {
+                    var value = "v".repeat(i % 50) + "~" + i;
+                    log.stored(id, value, i % 3 == 0);
+                    written.add((i % 3 == 0 ? "R " : "S ") + id + " " + value);
+                }
+            }
+            log.close();
+            Path last;
+            try (var paths = Files.list(directory)) {
+                last = paths.max(Comparator.comparing(Path::toString)).orElseThrow();
+            }
+
+            checkReplay(directory, written, written.size());
+            try (var file = new RandomAccessFile(last.toFile(), "rw")) {
+                file.setLength(file.length() - 3);
+            }
+            checkReplay(directory, written, written.size() - 1);
+            try (var file = new RandomAccessFile(last.toFile(), "rw")) {
+                var position = file.length() / 2;
+                file.seek(position);
+                var b = file.read();
+                file.seek(position);
+                file.write(b ^ 0x01);
+            }
+            var replayed = checkReplay(directory, written, -1);
+            if (replayed <= 500 || replayed >= written.size() - 1) {
+                throw new IllegalStateException("Replayed " + replayed + " records of a log corrupted in its middle");
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * @return The number of records replayed, which must be the first ones written, and as many as
+     * expected unless -1
+     */
+    private static int checkReplay(Path directory, List<String> written, int expected) throws IOException {
+        var replayed = new ArrayList<String>();
+        try (var log = new WriteAheadLog(directory, "check", WriteAheadLog.Durability.SYNC, 0, 1, new MetricsRegistry())) {
+            log.replay(new WriteAheadLog.Replayer() {
+                @Override
+                public void stored(BigInteger id, String value, boolean replica) {
+                    replayed.add((replica ? "R " : "S ") + id + " " + value);
+                }
+
+                @Override
+                public void deleted(BigInteger id, long deletedAt) {
+                    replayed.add("D " + id + " " + deletedAt);
+                }
+            });
+        }
+        if ((expected >= 0 && replayed.size() != expected) || !replayed.equals(written.subList(0, replayed.size()))) {
+            throw new IllegalStateException(String.format("Replayed %s records instead of the %s first ones written",
+                    replayed.size(), expected));
+        }
+        return replayed.size();
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (var paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void put() throws IOException {
+        this.log.stored(BigInteger.valueOf(ThreadLocalRandom.current().nextLong(1L << 32)), this.value, false);
+    }
+}
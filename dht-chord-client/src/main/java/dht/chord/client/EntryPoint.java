@@ -1,11 +1,13 @@
 package dht.chord.client;
 
+import dht.chord.exceptions.NodeBusyException;
 import dht.chord.exceptions.NodeFailException;
 import dht.chord.rpc.RPCClient;
-import dht.chord.utils.ChordUtils;
+import dht.chord.utils.KeyHasher;
 import org.apache.commons.codec.binary.Base64;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Scanner;
 import java.util.UUID;
 
@@ -13,9 +15,18 @@ public class EntryPoint {
     private static String host = "localhost";
     private static int port = 7777;
     private static int m = dht.chord.EntryPoint.M_DEFAULT;
-    private static RPCClient rpcClient = new RPCClient();
+    private static KeyHasher keyHasher = KeyHasher.DEFAULT;
+    private static boolean configured = false;
+    private static RPCClient rpcClient;
+    private static SmartClient smartClient = null;
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 0 && args[0].equals("bench")) {
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
 
-    public static void main(String[] args) {
+        rpcClient = new RPCClient();
         System.out.println("================");
         System.out.println("DHT Chord Client");
         System.out.println("================");
@@ -61,6 +72,22 @@ public class EntryPoint {
                         handleDelete(inputArgs);
                         break;
 
+                    case "scan":
+                        handleScan(inputArgs);
+                        break;
+
+                    case "smart":
+                        handleSmart(inputArgs);
+                        break;
+
+                    case "ring":
+                        handleRing(inputArgs);
+                        break;
+
+                    case "shutdown":
+                        handleShutDown(inputArgs);
+                        break;
+
                     case "exit":
                         handleExit(inputArgs);
                         break;
@@ -69,6 +96,8 @@ public class EntryPoint {
                         throw new Exception("Unknown command");
                 }
 
+            } catch (NodeBusyException e) {
+                System.out.println("ERROR: Node busy " + e.getMessage());
             } catch (NodeFailException e) {
                 System.out.println("ERROR: Node failed " + e.getMessage());
             } catch (Exception e) {
@@ -80,21 +109,28 @@ public class EntryPoint {
     private static void handleHost(String[] args) throws Exception {
         if (args.length != 2) throw new Exception();
         host = args[1];
+        configured = false;
+        configure();
+        if (smartClient != null) smartClient = new SmartClient(host, port, m, rpcClient);
         printSelectedNode();
     }
 
     private static void handlePort(String[] args) throws Exception {
         if (args.length != 2) throw new Exception();
         port = Integer.parseInt(args[1]);
+        configured = false;
+        configure();
+        if (smartClient != null) smartClient = new SmartClient(host, port, m, rpcClient);
         printSelectedNode();
     }
 
     private static void handlePut(String[] args) throws Exception {
-        if (args.length != 3) throw new Exception();
-        var keyID = ChordUtils.keyToChordID(args[1], m);
+        if (args.length != 3 && args.length != 4) throw new Exception();
+        var keyID = keyID(args[1]);
         var value = Base64.encodeBase64String(args[2].getBytes());
+        var ttlMillis = args.length == 4 ? Long.parseLong(args[3]) * 1000 : 0;
         System.out.println(String.format("PUT %s:%s -> %s:%s", keyID, value, host, port));
-        rpcClient.put(host, port, keyID, value);
+        put(keyID, value, ttlMillis);
         System.out.println("OK");
     }
 
@@ -102,18 +138,18 @@ public class EntryPoint {
         if (args.length != 2) throw new Exception();
         var n = Integer.parseInt(args[1]);
         for (int i = 0; i < n; i++) {
-            var keyID = ChordUtils.keyToChordID(UUID.randomUUID().toString(), m);
+            var keyID = keyID(UUID.randomUUID().toString());
             var value = Base64.encodeBase64String(UUID.randomUUID().toString().getBytes());
             System.out.println(String.format("PUT %s:%s -> %s:%s", keyID, value, host, port));
-            rpcClient.put(host, port, keyID, value);
+            put(keyID, value, 0);
         }
         System.out.println("OK");
     }
 
     private static void handleGet(String[] args) throws Exception {
         if (args.length != 2) throw new Exception();
-        var keyID = ChordUtils.keyToChordID(args[1], m);
-        var value = new String(Base64.decodeBase64(rpcClient.get(host, port, keyID)));
+        var keyID = keyID(args[1]);
+        var value = new String(Base64.decodeBase64(get(keyID)));
         System.out.println("OK");
         System.out.println(value);
     }
@@ -121,15 +157,46 @@ public class EntryPoint {
     private static void handleGetID(String[] args) throws Exception {
         if (args.length != 2) throw new Exception();
         var keyID = new BigInteger(args[1]);
-        var value = new String(Base64.decodeBase64(rpcClient.get(host, port, keyID)));
+        var value = new String(Base64.decodeBase64(get(keyID)));
         System.out.println("OK");
         System.out.println(value);
     }
 
     private static void handleDelete(String[] args) throws Exception {
         if (args.length != 2) throw new Exception();
-        var keyID = ChordUtils.keyToChordID(args[1], m);
-        rpcClient.delete(host, port, keyID);
+        var keyID = keyID(args[1]);
+        delete(keyID);
+        System.out.println("OK");
+    }
+
+    private static void handleScan(String[] args) throws Exception {
+        if (args.length != 3 && args.length != 4) throw new Exception();
+        var limit = args.length == 4 ? Long.parseLong(args[3]) : 0;
+        var scan = rpcClient.scan(host, port, new BigInteger(args[1]), new BigInteger(args[2]), limit);
+        while (scan.hasNext()) {
+            var entry = scan.next();
+            System.out.println(String.format("%s %s", entry.getKey(), new String(Base64.decodeBase64(entry.getValue()))));
+        }
+        System.out.println("OK");
+        if (scan.getCursor() != null) System.out.println(String.format("Cursor: %s", scan.getCursor()));
+    }
+
+    private static void handleSmart(String[] args) throws Exception {
+        if (args.length != 2 || !(args[1].equals("on") || args[1].equals("off"))) throw new Exception();
+        configure();
+        smartClient = args[1].equals("on") ? new SmartClient(host, port, m, rpcClient) : null;
+        System.out.println("OK");
+    }
+
+    private static void handleRing(String[] args) throws Exception {
+        if (args.length != 1 || smartClient == null) throw new Exception();
+        smartClient.refresh();
+        smartClient.getRing().values().forEach(System.out::println);
+    }
+
+    private static void handleShutDown(String[] args) throws Exception {
+        if (args.length != 1) throw new Exception();
+        rpcClient.shutDown(host, port);
         System.out.println("OK");
     }
 
@@ -139,6 +206,43 @@ public class EntryPoint {
         System.exit(0);
     }
 
+    /**
+     * Get the configuration of the ring from the selected node, once per selected node. The
+     * defaults are kept while the node cannot be reached.
+     */
+    private static void configure() {
+        if (configured) return;
+        try {
+            var config = rpcClient.getConfig(host, port);
+            if (config != null) {
+                m = config.getM();
+                keyHasher = config.getKeyHasher();
+            }
+            configured = true;
+        } catch (NodeFailException e) {
+            // Configured on the next request
+        }
+    }
+
+    private static BigInteger keyID(String key) {
+        configure();
+        return keyHasher.hash(key, m);
+    }
+
+    private static void put(BigInteger keyID, String value, long ttlMillis) throws NodeFailException {
+        if (smartClient != null) smartClient.put(keyID, value, ttlMillis);
+        else rpcClient.put(host, port, keyID, value, ttlMillis);
+    }
+
+    private static String get(BigInteger keyID) throws NodeFailException {
+        return smartClient != null ? smartClient.get(keyID) : rpcClient.get(host, port, keyID);
+    }
+
+    private static void delete(BigInteger keyID) throws NodeFailException {
+        if (smartClient != null) smartClient.delete(keyID);
+        else rpcClient.delete(host, port, keyID);
+    }
+
     private static void printSelectedNode() {
         System.out.println(String.format("Selected node: %s:%s", host, port));
     }
@@ -0,0 +1,97 @@
+package dht.chord.client;
+
+import java.util.Random;
+
+/**
+ * Distribution of the keys picked by the load generator. Keys are identified by their index in
+ * [0, keyCount).
+ */
+public interface KeyDistribution {
+
+    int next(Random random);
+
+    /**
+     * Create a distribution by name.
+     *
+     * @param name     One of "uniform", "zipfian" or "hotset"
+     * @param keyCount The number of keys
+     * @return The distribution
+     */
+    static KeyDistribution of(String name, int keyCount) {
+        switch (name) {
+            case "uniform":
+                return random -> random.nextInt(keyCount);
+            case "zipfian":
+                return new Zipfian(keyCount, Zipfian.THETA_DEFAULT);
+            case "hotset":
+                return new HotSet(keyCount, HotSet.HOT_FRACTION_DEFAULT, HotSet.HOT_PROBABILITY_DEFAULT);
+            default:
+                throw new IllegalArgumentException("Unknown distribution " + name);
+        }
+    }
+
+    /**
+     * Zipfian distribution where key 0 is the most popular, computed as in YCSB (Gray et al.,
+     * "Quickly Generating Billion-Record Synthetic Databases").
+     */
+    class Zipfian implements KeyDistribution {
+        static final double THETA_DEFAULT = 0.99;
+
+        private final int keyCount;
+        private final double theta;
+        private final double alpha;
+        private final double zetaN;
+        private final double eta;
+
+        Zipfian(int keyCount, double theta) {
+            this.keyCount = keyCount;
+            this.theta = theta;
+            this.alpha = 1 / (1 - theta);
+            this.zetaN = zeta(keyCount, theta);
+            this.eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta(2, theta) / this.zetaN);
+        }
+
+        @Override
+        public int next(Random random) {
+            var u = random.nextDouble();
+            var uz = u * this.zetaN;
+            if (uz < 1) return 0;
+            if (uz < 1 + Math.pow(0.5, this.theta)) return Math.min(1, this.keyCount - 1);
+            var index = (int) (this.keyCount * Math.pow(this.eta * u - this.eta + 1, this.alpha));
+            return Math.min(index, this.keyCount - 1);
+        }
+
+        private static double zeta(int n, double theta) {
+            var sum = 0.0;
+            for (int i = 1; i <= n; i++) sum += 1 / Math.pow(i, theta);
+            return sum;
+        }
+    }
+
+    /**
+     * Distribution where a small set of hot keys receives most of the requests, the rest being
+     * spread uniformly over the cold keys.
+     */
+    class HotSet implements KeyDistribution {
+        static final double HOT_FRACTION_DEFAULT = 0.01;
+        static final double HOT_PROBABILITY_DEFAULT = 0.9;
+
+        private final int keyCount;
+        private final int hotCount;
+        private final double hotProbability;
+
+        HotSet(int keyCount, double hotFraction, double hotProbability) {
+            this.keyCount = keyCount;
+            this.hotCount = Math.max(1, (int) (keyCount * hotFraction));
+            this.hotProbability = hotProbability;
+        }
+
+        @Override
+        public int next(Random random) {
+            if (this.hotCount >= this.keyCount || random.nextDouble() < this.hotProbability) {
+                return random.nextInt(this.hotCount);
+            }
+            return this.hotCount + random.nextInt(this.keyCount - this.hotCount);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package dht.chord.client;
+
+import dht.chord.exceptions.NodeFailException;
+import dht.chord.metrics.Histogram;
+import dht.chord.rpc.RPCClient;
+import dht.chord.rpc.RingConfig;
+import dht.chord.utils.KeyHasher;
+import org.apache.commons.cli.*;
+import org.apache.commons.codec.binary.Base64;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load generator. Requests are scheduled open-loop at a fixed rate: the latency of a
+ * request is measured from the time it was supposed to start, so that a slow cluster cannot hide
+ * its queueing delay by slowing the generator down (coordinated omission). The requests are
+ * executed by a fixed number of threads; if they cannot keep up, the backlog shows up in the
+ * latencies rather than in a lower offered rate.
+ */
+public class LoadGenerator {
+    private static final String HOST = "h";
+    private static final String HOST_DEFAULT = "localhost";
+    private static final String PORT = "p";
+    private static final int PORT_DEFAULT = 7777;
+    private static final String M = "m";
+    private static final String CONCURRENCY = "c";
+    private static final int CONCURRENCY_DEFAULT = 16;
+    private static final String DURATION = "d";
+    private static final int DURATION_DEFAULT = 30;
+    private static final String RATE = "q";
+    private static final int RATE_DEFAULT = 1000;
+    private static final String WRITE_RATIO = "w";
+    private static final double WRITE_RATIO_DEFAULT = 0.1;
+    private static final String VALUE_SIZE = "v";
+    private static final int VALUE_SIZE_DEFAULT = 100;
+    private static final String KEY_COUNT = "n";
+    private static final int KEY_COUNT_DEFAULT = 10000;
+    private static final String DISTRIBUTION = "x";
+    private static final String DISTRIBUTION_DEFAULT = "uniform";
+    private static final String SMART = "smart";
+    private static final String SEED = "seed";
+    private static final long SEED_DEFAULT = 42;
+
+    private final String host;
+    private final int port;
+    private final int concurrency;
+    private final long durationNanos;
+    private final long intervalNanos;
+    private final double writeRatio;
+    private final long seed;
+    private final BigInteger[] keyIDs;
+    private final String[] values;
+    private final KeyDistribution distribution;
+    private final RPCClient rpcClient = new RPCClient();
+    private final SmartClient smartClient;
+
+    private final AtomicLong next = new AtomicLong();
+    private final Histogram readLatency = new Histogram();
+    private final Histogram writeLatency = new Histogram();
+    private final LongAdder errors = new LongAdder();
+
+    public LoadGenerator(String host, int port, int m, KeyHasher keyHasher, int concurrency, int duration, int rate, double writeRatio,
+                         int valueSize, int keyCount, String distribution, boolean smart, long seed) {
+        if (rate <= 0 || concurrency <= 0 || keyCount <= 0) {
+            throw new IllegalArgumentException("Rate, concurrency and key count must be positive");
+        }
+        this.host = host;
+        this.port = port;
+        this.concurrency = concurrency;
+        this.durationNanos = duration * 1_000_000_000L;
+        this.intervalNanos = 1_000_000_000L / rate;
+        this.writeRatio = writeRatio;
+        this.seed = seed;
+        this.distribution = KeyDistribution.of(distribution, keyCount);
+        this.smartClient = smart ? new SmartClient(host, port, m, this.rpcClient) : null;
+
+        var random = new Random(seed);
+        this.keyIDs = new BigInteger[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            this.keyIDs[i] = keyHasher.hash("key" + i, m);
+        }
+        this.values = new String[16];
+        for (int i = 0; i < this.values.length; i++) {
+            var bytes = new byte[valueSize];
+            random.nextBytes(bytes);
+            this.values[i] = Base64.encodeBase64String(bytes);
+        }
+    }
+
+    /**
+     * Run the load and print the report.
+     *
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public void run() throws InterruptedException {
+        var start = System.nanoTime();
+        var workers = new ArrayList<Thread>();
+        for (int i = 0; i < this.concurrency; i++) {
+            var random = new Random(this.seed + i + 1);
+            var worker = new Thread(() -> this.work(start, random), "load-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (var worker : workers) worker.join();
+        this.report(System.nanoTime() - start);
+    }
+
+    private void work(long start, Random random) {
+        while (true) {
+            var intended = start + this.next.getAndIncrement() * this.intervalNanos;
+            if (intended - start >= this.durationNanos) return;
+
+            var delay = intended - System.nanoTime();
+            if (delay > 0) LockSupport.parkNanos(delay);
+
+            var keyID = this.keyIDs[this.distribution.next(random)];
+            var write = random.nextDouble() < this.writeRatio;
+            try {
+                if (write) {
+                    this.put(keyID, this.values[random.nextInt(this.values.length)]);
+                } else {
+                    this.get(keyID);
+                }
+            } catch (NodeFailException e) {
+                this.errors.increment();
+            }
+            (write ? this.writeLatency : this.readLatency).record((System.nanoTime() - intended) / 1000);
+        }
+    }
+
+    private void put(BigInteger keyID, String value) throws NodeFailException {
+        if (this.smartClient != null) this.smartClient.put(keyID, value);
+        else this.rpcClient.put(this.host, this.port, keyID, value);
+    }
+
+    private void get(BigInteger keyID) throws NodeFailException {
+        if (this.smartClient != null) this.smartClient.get(keyID);
+        else this.rpcClient.get(this.host, this.port, keyID);
+    }
+
+    private void report(long elapsedNanos) {
+        var total = this.readLatency.getCount() + this.writeLatency.getCount();
+        var seconds = elapsedNanos / 1e9;
+        print("duration=%.1fs ops=%s errors=%s", seconds, total, this.errors.sum());
+        print("throughput=%.1f ops/s (offered=%.1f ops/s)", total / seconds, 1e9 / this.intervalNanos);
+        print("read  %s", summary(this.readLatency));
+        print("write %s", summary(this.writeLatency));
+    }
+
+    private static String summary(Histogram histogram) {
+        return String.format("count=%s mean=%.0fus p50=%sus p90=%sus p99=%sus p999=%sus max=%sus",
+                histogram.getCount(), histogram.getMean(), histogram.getPercentile(50),
+                histogram.getPercentile(90), histogram.getPercentile(99), histogram.getPercentile(99.9),
+                histogram.getMax());
+    }
+
+    private static void print(String format, Object... args) {
+        System.out.println(String.format(format, args));
+    }
+
+    // ========================================
+    // Main
+    // ========================================
+
+    public static void main(String[] args) throws InterruptedException {
+
+        // Failed requests are counted in the report, logging each of them would slow the generator down
+        System.setProperty("log4j.configurationFile", "log4j2-simulator.properties");
+
+        var parser = new DefaultParser();
+        var options = prepareOptions();
+        try {
+            var commandLine = parser.parse(options, args);
+            var host = commandLine.getOptionValue(HOST, HOST_DEFAULT);
+            var port = commandLine.hasOption(PORT) ? ((Number) commandLine.getParsedOptionValue(PORT)).intValue() : PORT_DEFAULT;
+            var config = getConfig(host, port);
+            var m = commandLine.hasOption(M) ? ((Number) commandLine.getParsedOptionValue(M)).intValue()
+                    : config != null ? config.getM() : dht.chord.EntryPoint.M_DEFAULT;
+            var keyHasher = config != null ? config.getKeyHasher() : KeyHasher.DEFAULT;
+            var concurrency = commandLine.hasOption(CONCURRENCY) ? ((Number) commandLine.getParsedOptionValue(CONCURRENCY)).intValue() : CONCURRENCY_DEFAULT;
+            var duration = commandLine.hasOption(DURATION) ? ((Number) commandLine.getParsedOptionValue(DURATION)).intValue() : DURATION_DEFAULT;
+            var rate = commandLine.hasOption(RATE) ? ((Number) commandLine.getParsedOptionValue(RATE)).intValue() : RATE_DEFAULT;
+            var writeRatio = commandLine.hasOption(WRITE_RATIO) ? ((Number) commandLine.getParsedOptionValue(WRITE_RATIO)).doubleValue() : WRITE_RATIO_DEFAULT;
+            var valueSize = commandLine.hasOption(VALUE_SIZE) ? ((Number) commandLine.getParsedOptionValue(VALUE_SIZE)).intValue() : VALUE_SIZE_DEFAULT;
+            var keyCount = commandLine.hasOption(KEY_COUNT) ? ((Number) commandLine.getParsedOptionValue(KEY_COUNT)).intValue() : KEY_COUNT_DEFAULT;
+            var distribution = commandLine.getOptionValue(DISTRIBUTION, DISTRIBUTION_DEFAULT);
+            var seed = commandLine.hasOption(SEED) ? ((Number) commandLine.getParsedOptionValue(SEED)).longValue() : SEED_DEFAULT;
+
+            new LoadGenerator(host, port, m, keyHasher, concurrency, duration, rate, writeRatio, valueSize, keyCount,
+                    distribution, commandLine.hasOption(SMART), seed).run();
+        } catch (ParseException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            new HelpFormatter().printHelp("dht-chord-load", options);
+        }
+    }
+
+    private static RingConfig getConfig(String host, int port) {
+        try {
+            return new RPCClient().getConfig(host, port);
+        } catch (NodeFailException e) {
+            return null;
+        }
+    }
+
+    private static Options prepareOptions() {
+        var options = new Options();
+        options.addOption(Option.builder(HOST).desc(String.format("Host of the contact node. (default=%s)", HOST_DEFAULT)).hasArg().build());
+        options.addOption(Option.builder(PORT).desc(String.format("Port of the contact node. (default=%s)", PORT_DEFAULT)).type(Number.class).hasArg().build());
+        options.addOption(Option.builder(M).desc(String.format("Size (in bits) of the Chord id space. (default=the ring's, or %s)", dht.chord.EntryPoint.M_DEFAULT)).type(Number.class).hasArg().build());
+        options.addOption(Option.builder(CONCURRENCY).desc(String.format("Number of threads issuing requests. (default=%s)", CONCURRENCY_DEFAULT)).type(Number.class).hasArg().build());
+        options.addOption(Option.builder(DURATION).desc(String.format("Duration in seconds. (default=%s)", DURATION_DEFAULT)).type(Number.class).hasArg().build());
+        options.addOption(Option.builder(RATE).desc(String.format("Target rate in requests per second. (default=%s)", RATE_DEFAULT)).type(Number.class).hasArg().build());
+        options.addOption(Option.builder(WRITE_RATIO).desc(String.format("Fraction of the requests which are PUTs. (default=%s)", WRITE_RATIO_DEFAULT)).type(Number.class).hasArg().build());
+        options.addOption(Option.builder(VALUE_SIZE).desc(String.format("Size of the values in bytes. (default=%s)", VALUE_SIZE_DEFAULT)).type(Number.class).hasArg().build());
+        options.addOption(Option.builder(KEY_COUNT).desc(String.format("Number of distinct keys. (default=%s)", KEY_COUNT_DEFAULT)).type(Number.class).hasArg().build());
+        options.addOption(Option.builder(DISTRIBUTION).desc(String.format("Key distribution: uniform, zipfian or hotset. (default=%s)", DISTRIBUTION_DEFAULT)).hasArg().build());
+        options.addOption(Option.builder(SMART).desc("Send the requests directly to the owners of the keys.").build());
+        options.addOption(Option.builder(SEED).desc(String.format("Random seed. (default=%s)", SEED_DEFAULT)).type(Number.class).hasArg().build());
+        return options;
+    }
+}
@@ -0,0 +1,190 @@
+package dht.chord.client;
+
+import dht.chord.exceptions.KeyMovedException;
+import dht.chord.exceptions.NodeBusyException;
+import dht.chord.exceptions.NodeFailException;
+import dht.chord.rpc.RPCClient;
+import dht.chord.utils.ChordUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Client which caches the ring membership and sends every request directly to the owner of the
+ * key, saving the routing done by the contact node. The membership is crawled from the successor
+ * lists, starting from a seed node, and refreshed periodically. In between, the entry of a node is
+ * removed when it fails, and the node named by a MOVED answer is added, without crawling the ring
+ * again. If the owner cannot be reached the request is routed through the seed node, as done by
+ * the plain client. An owner which keeps shedding the request is alive: it stays in the membership
+ * and the request fails with a {@link NodeBusyException}.
+ */
+public class SmartClient {
+    public static final int MAX_ATTEMPTS = 3;
+    public static final long REFRESH_PERIOD_MILLIS = 30000;
+
+    private final String seedHost;
+    private final int seedPort;
+    private final int m;
+    private final RPCClient rpcClient;
+    private volatile ConcurrentSkipListMap<BigInteger, String> ring = new ConcurrentSkipListMap<>();
+    private volatile long lastRefresh;
+
+    private final Logger logger = LogManager.getLogger(SmartClient.class);
+
+    public SmartClient(String seedHost, int seedPort, int m, RPCClient rpcClient) {
+        this.seedHost = seedHost;
+        this.seedPort = seedPort;
+        this.m = m;
+        this.rpcClient = rpcClient;
+    }
+
+    // ==============================
+    // User interface
+    // ==============================
+
+    public void put(BigInteger keyID, String value) throws NodeFailException {
+        this.put(keyID, value, 0);
+    }
+
+    public void put(BigInteger keyID, String value, long ttlMillis) throws NodeFailException {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            var owner = this.ownerOf(keyID);
+            if (owner == null) break;
+            try {
+                this.rpcClient.putDirect(ChordUtils.extractHost(owner), ChordUtils.extractPort(owner), keyID, value, ttlMillis);
+                return;
+            } catch (KeyMovedException e) {
+                this.moved(owner, e.getOwnerAddress());
+            } catch (NodeBusyException e) {
+                throw e;
+            } catch (NodeFailException e) {
+                this.failed(owner);
+            }
+        }
+        this.rpcClient.put(this.seedHost, this.seedPort, keyID, value, ttlMillis);
+    }
+
+    public String get(BigInteger keyID) throws NodeFailException {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            var owner = this.ownerOf(keyID);
+            if (owner == null) break;
+            try {
+                return this.rpcClient.getDirect(ChordUtils.extractHost(owner), ChordUtils.extractPort(owner), keyID);
+            } catch (KeyMovedException e) {
+                this.moved(owner, e.getOwnerAddress());
+            } catch (NodeBusyException e) {
+                throw e;
+            } catch (NodeFailException e) {
+                this.failed(owner);
+            }
+        }
+        return this.rpcClient.get(this.seedHost, this.seedPort, keyID);
+    }
+
+    public void delete(BigInteger keyID) throws NodeFailException {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            var owner = this.ownerOf(keyID);
+            if (owner == null) break;
+            try {
+                this.rpcClient.deleteDirect(ChordUtils.extractHost(owner), ChordUtils.extractPort(owner), keyID);
+                return;
+            } catch (KeyMovedException e) {
+                this.moved(owner, e.getOwnerAddress());
+            } catch (NodeBusyException e) {
+                throw e;
+            } catch (NodeFailException e) {
+                this.failed(owner);
+            }
+        }
+        this.rpcClient.delete(this.seedHost, this.seedPort, keyID);
+    }
+
+    // ==============================
+    // Ring cache
+    // ==============================
+
+    /**
+     * Compute the owner of a key from the cached membership, which is the first node whose id
+     * follows the key id on the ring.
+     *
+     * @param keyID The key id
+     * @return The address of the owner or null if no node is known
+     */
+    String ownerOf(BigInteger keyID) {
+        if (this.isStale()) {
+            synchronized (this) {
+                if (this.isStale()) this.refresh();
+            }
+        }
+        var ring = this.ring;
+        var entry = ring.ceilingEntry(keyID);
+        if (entry == null) entry = ring.firstEntry();
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Rebuild the membership by walking the ring through the successor lists, starting from the
+     * seed node and from its predecessor, until the walk wraps around.
+     */
+    public synchronized void refresh() {
+        logger.debug("Refreshing the ring from {}:{}", this.seedHost, this.seedPort);
+
+        var seedAddress = ChordUtils.makeAddress(
+                ChordUtils.hostPortToChordID(this.seedHost, this.seedPort, this.m), this.seedHost, this.seedPort);
+        var discovered = new ConcurrentSkipListMap<BigInteger, String>();
+        discovered.put(ChordUtils.extractChordID(seedAddress), seedAddress);
+
+        try {
+            var predecessor = this.rpcClient.getPredecessor(this.seedHost, this.seedPort);
+            if (predecessor != null) {
+                discovered.put(ChordUtils.extractChordID(predecessor), predecessor);
+            }
+        } catch (NodeFailException e) {
+            logger.warn("Seed node {}:{} has failed", this.seedHost, this.seedPort);
+            this.lastRefresh = System.currentTimeMillis();
+            return;
+        }
+
+        var current = seedAddress;
+        while (current != null) {
+            String next = null;
+            try {
+                var successors = this.rpcClient.getSuccessorList(
+                        ChordUtils.extractHost(current), ChordUtils.extractPort(current));
+                if (successors == null) break;
+                for (var successor : successors) {
+                    if (discovered.putIfAbsent(ChordUtils.extractChordID(successor), successor) == null) {
+                        next = successor;
+                    }
+                }
+            } catch (NodeFailException e) {
+                logger.debug("Node {} has failed while crawling the ring", current);
+            }
+            current = next;
+        }
+
+        this.ring = discovered;
+        this.lastRefresh = System.currentTimeMillis();
+    }
+
+    private boolean isStale() {
+        return this.ring.isEmpty() || System.currentTimeMillis() - this.lastRefresh > REFRESH_PERIOD_MILLIS;
+    }
+
+    public Map<BigInteger, String> getRing() {
+        return this.ring;
+    }
+
+    private void moved(String address, String ownerAddress) {
+        logger.debug("Key moved from {} to {}", address, ownerAddress);
+        this.ring.put(ChordUtils.extractChordID(ownerAddress), ownerAddress);
+    }
+
+    private void failed(String address) {
+        logger.debug("Node {} has failed", address);
+        this.ring.remove(ChordUtils.extractChordID(address));
+    }
+}
@@ -1,68 +1,260 @@
 package dht.chord;
 
+import dht.chord.exceptions.NodeBusyException;
 import dht.chord.exceptions.NodeFailException;
+import dht.chord.metrics.Histogram;
+import dht.chord.metrics.LookupTrace;
+import dht.chord.metrics.MetricsHttpServer;
+import dht.chord.metrics.MetricsMBean;
+import dht.chord.metrics.MetricsRegistry;
+import dht.chord.rpc.FrameCodec;
 import dht.chord.rpc.RPCClient;
-import dht.chord.rpc.RPCServer;
+import dht.chord.rpc.ReplicationOutbox;
+import dht.chord.rpc.RingConfig;
+import dht.chord.rpc.ScanPage;
+import dht.chord.rpc.TcpTransport;
+import dht.chord.rpc.Transport;
+import dht.chord.storage.StoredValue;
+import dht.chord.storage.ErasureCoder;
+import dht.chord.storage.Fragment;
+import dht.chord.storage.ModificationTracker;
+import dht.chord.storage.ReadCache;
+import dht.chord.storage.ReaderTracker;
+import dht.chord.storage.Snapshot;
+import dht.chord.storage.WriteAheadLog;
+import dht.chord.utils.BackgroundThrottle;
 import dht.chord.utils.ChordUtils;
-import org.apache.commons.codec.digest.DigestUtils;
+import dht.chord.utils.Clock;
+import dht.chord.utils.HybridClock;
+import dht.chord.utils.KeyHasher;
+import dht.chord.utils.PhiAccrualFailureDetector;
+import dht.chord.utils.SingleFlight;
+import dht.chord.utils.TimerWheel;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public class ChordNode extends Thread {
+    public static final long READ_CACHE_TTL_DEFAULT = 1000;
+    private static final long SNAPSHOT_PERIOD_SECONDS = 30;
+    private static final long CLOCK_SKEW_MARGIN_MILLIS = 5000;
+    private static final long EXPIRATION_TICK_MILLIS = 100;
+    private static final int DIGEST_BATCH_SIZE = 512;
+    private static final long FAILURE_CHECK_PERIOD_MILLIS = 250;
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 1000;
+    private static final long HEARTBEAT_PAUSE_MILLIS = 200;
+    private static final double PROBE_PHI = 1;
+    private static final int PULL_PAGE_SIZE = 256;
+    private static final long PULL_RETRY_DELAY_MILLIS = 1000;
+    private static final long PULL_RETRY_MAX_DELAY_MILLIS = 30_000;
+    private static final int PULL_MAX_FAILURES = 3;
+    private static final long SINGLE_FLIGHT_WAIT_MILLIS = 1000;
+    private static final int FRAGMENT_READ_QUEUE_CAPACITY = 64;
+
     private String host;
     private int port;
 
     private int m;
     private int r;
     private int k;
-    private int next;
+    private KeyHasher keyHasher;
+    private AtomicInteger next;
     private BigInteger chordID;
     private String nodeAddress;
 
-    private List<String> finger;
+    private AtomicReference<RoutingTable> routing;
     private AtomicReference<String> predecessorAddress;
-    private List<String> successorList;
-    private String successorListHash;
-    private Map<BigInteger, String> db;
-    private Map<BigInteger, String> dbReplicas;
+    private volatile List<String> replicatedSuccessors;
+    private ConcurrentNavigableMap<BigInteger, String> db;
+    private ConcurrentNavigableMap<BigInteger, String> dbReplicas;
+    private Set<BigInteger> handedOff;
+    private ModificationTracker modifications;
+    private TimerWheel<BigInteger> expirations;
+    private HybridClock hybridClock;
+    private PhiAccrualFailureDetector failureDetector;
+    private Map<String, Long> probes;
+    private boolean backgroundJoin;
+    private boolean chainReplication;
+    private ErasureCoder erasureCoder;
+    private AtomicReference<String> pullSource;
+    private volatile BigInteger pulledUpTo;
+    private int pullFailures;
+    private long pullRetryAt;
+    private Set<BigInteger> writtenWhilePulling;
+    private Path dataDirectory;
+    private WriteAheadLog writeAheadLog;
+    private long snapshotWatermark;
+    private ReadCache readCache;
+    private ReaderTracker readerTracker;
+    private SingleFlight<BigInteger, String> getFlights;
+    private SingleFlight<BigInteger, String> lookupFlights;
 
     private RPCClient rpcClient;
+    private ReplicationOutbox replicationOutbox;
+    private FrameCodec frameCodec;
+    private Transport transport;
+    private Clock clock;
+    private ScheduledExecutorService routines;
+    private ThreadPoolExecutor fragmentReads;
+    private AtomicBoolean leaving;
+    private CountDownLatch left;
+
+    private MetricsRegistry metrics;
+    private LongAdder retries;
+    private LongAdder expired;
+    private LongAdder staleWrites;
+    private LongAdder digestSkipped;
+    private LongAdder digestShipped;
+    private LongAdder probesSent;
+    private LongAdder checks;
+    private LongAdder suspected;
+    private LongAdder pulledKeys;
+    private LongAdder forwardedReads;
+    private LongAdder relayedWrites;
+    private LongAdder reconstructions;
+    private LongAdder reconstructionFailures;
+    private LongAdder repairedFragments;
+    private Histogram lookupHops;
+    private Histogram traceHops;
+    private Histogram traceHopLatency;
+    private Histogram traceLatency;
+    private Histogram snapshotDuration;
+    private double traceSampleRate;
+    private AtomicLong replicationBacklog;
+    private BackgroundThrottle backgroundThrottle;
+    private int metricsPort;
 
     private final Logger logger = LogManager.getLogger(ChordNode.class);
 
     ChordNode(String host, int port, int m, int r, int k) {
+        this(host, port, m, r, k, new TcpTransport(), Clock.SYSTEM);
+    }
+
+    public ChordNode(String host, int port, int m, int r, int k, Transport transport, Clock clock) {
         this.host = host;
         this.port = port;
         this.m = m;
         this.r = r;
         this.k = k > r ? r : k;
-        this.next = 0;
+        this.keyHasher = KeyHasher.DEFAULT;
+        this.next = new AtomicInteger();
         this.chordID = ChordUtils.hostPortToChordID(host, port, m);
         this.nodeAddress = ChordUtils.makeAddress(this.chordID, host, port);
-        this.finger = Collections.synchronizedList(new ArrayList<>(m));
-        for (int i = 0; i < m; i++) this.finger.add(null);
+        this.routing = new AtomicReference<>(RoutingTable.empty(m));
         this.predecessorAddress = new AtomicReference<>(null);
-        this.successorList = Collections.synchronizedList(new ArrayList<>(this.r));
-        this.successorListHash = DigestUtils.sha1Hex(this.successorList.toString());
-        this.db = new ConcurrentHashMap<>();
-        this.dbReplicas = new ConcurrentHashMap<>();
-        this.rpcClient = new RPCClient();
+        this.replicatedSuccessors = List.of();
+        this.db = new ConcurrentSkipListMap<>();
+        this.dbReplicas = new ConcurrentSkipListMap<>();
+        this.handedOff = ConcurrentHashMap.newKeySet();
+        this.modifications = new ModificationTracker(clock);
+        this.expirations = new TimerWheel<>(EXPIRATION_TICK_MILLIS, clock.currentTimeMillis());
+        this.hybridClock = new HybridClock(clock);
+        this.failureDetector = new PhiAccrualFailureDetector(clock, PhiAccrualFailureDetector.THRESHOLD_DEFAULT,
+                HEARTBEAT_INTERVAL_MILLIS, HEARTBEAT_PAUSE_MILLIS);
+        this.probes = new ConcurrentHashMap<>();
+        this.pullSource = new AtomicReference<>(null);
+        this.writtenWhilePulling = ConcurrentHashMap.newKeySet();
+        this.dataDirectory = null;
+        this.snapshotWatermark = -1;
+        this.readCache = null;
+        this.readerTracker = new ReaderTracker(READ_CACHE_TTL_DEFAULT, clock);
+        this.metrics = new MetricsRegistry();
+        this.retries = this.metrics.counter("chord.retries");
+        this.expired = this.metrics.counter("store.expired");
+        this.staleWrites = this.metrics.counter("store.stale.writes");
+        this.digestSkipped = this.metrics.counter("replication.digest.skipped");
+        this.digestShipped = this.metrics.counter("replication.digest.shipped");
+        this.probesSent = this.metrics.counter("failure.detector.probes.sent");
+        this.checks = this.metrics.counter("failure.detector.checks");
+        this.suspected = this.metrics.counter("failure.detector.suspected");
+        this.pulledKeys = this.metrics.counter("join.pulled.keys");
+        this.forwardedReads = this.metrics.counter("join.forwarded.reads");
+        this.relayedWrites = this.metrics.counter("join.relayed.writes");
+        this.reconstructions = this.metrics.counter("erasure.reconstructions");
+        this.reconstructionFailures = this.metrics.counter("erasure.reconstructions.failed");
+        this.repairedFragments = this.metrics.counter("erasure.repaired");
+        this.getFlights = new SingleFlight<>(SINGLE_FLIGHT_WAIT_MILLIS, this.metrics.counter("singleflight.get.shared"));
+        this.lookupFlights = new SingleFlight<>(SINGLE_FLIGHT_WAIT_MILLIS, this.metrics.counter("singleflight.lookup.shared"));
+        this.lookupHops = this.metrics.histogram("lookup.hops");
+        this.traceHops = this.metrics.histogram("lookup.trace.hops");
+        this.traceHopLatency = this.metrics.histogram("lookup.trace.hop.latency");
+        this.traceLatency = this.metrics.histogram("lookup.trace.latency");
+        this.snapshotDuration = this.metrics.histogram("snapshot.duration");
+        this.traceSampleRate = 0;
+        this.replicationBacklog = new AtomicLong();
+        this.metricsPort = -1;
+        this.metrics.gauge("store.db.size", () -> this.db.size());
+        this.metrics.gauge("store.replicas.size", () -> this.dbReplicas.size());
+        this.metrics.gauge("store.expirations.scheduled", () -> this.expirations.size());
+        this.metrics.gauge("replication.backlog", this.replicationBacklog::get);
+        this.metrics.gauge("cache.readers.keys", () -> this.readerTracker.getSize());
+        this.metrics.gauge("join.pulling", () -> this.pullSource.get() == null ? 0 : 1);
+        this.transport = transport;
+        this.clock = clock;
+        this.leaving = new AtomicBoolean();
+        this.left = new CountDownLatch(1);
+        this.frameCodec = new FrameCodec(FrameCodec.THRESHOLD_DEFAULT, this.metrics);
+        this.rpcClient = new RPCClient(this.metrics, transport, this.frameCodec);
+        this.rpcClient.setResponseListener(endpoint -> this.failureDetector.heartbeat(endpoint));
+        this.replicationOutbox = new ReplicationOutbox(this.rpcClient, ReplicationOutbox.LINGER_DEFAULT_MICROS,
+                ReplicationOutbox.BATCH_SIZE_DEFAULT, this.metrics);
+        this.backgroundThrottle = new BackgroundThrottle(clock, this.metrics);
     }
 
     // ========================================
     // User interface
     // ========================================
 
-    public void dhtPut(BigInteger id, String value) {
+    /**
+     * Store a value which expires after a TTL. The expiration time is stored with the value (see
+     * {@link StoredValue}), so that the replicas and the nodes the key moves to expire it as well.
+     *
+     * @param id        The key id
+     * @param value     The value
+     * @param ttlMillis The time to live of the value, or 0 if it does not expire
+     * @throws NodeBusyException if the owner is overloaded and keeps shedding the request
+     */
+    public void dhtPut(BigInteger id, String value, long ttlMillis) throws NodeBusyException {
+        if (ttlMillis > 0) {
+            value = StoredValue.withExpiration(value, this.clock.currentTimeMillis() + ttlMillis);
+        }
+        this.dhtPut(id, value);
+    }
+
+    /**
+     * Store a value on the owner of its key, retrying while the ring stabilizes.
+     *
+     * @param id    The key id
+     * @param value The value
+     * @throws NodeBusyException if the owner is overloaded and keeps shedding the request
+     */
+    public void dhtPut(BigInteger id, String value) throws NodeBusyException {
         logger.debug("PUT {} {}", id, value);
 
         var attempts = 20;
@@ -70,10 +262,17 @@ public class ChordNode extends Thread {
             try {
                 var successorAddress = this.dhtFindSuccessor(id);
                 if (successorAddress.equals(ChordUtils.makeAddress(this.chordID, this.host, this.port))) {
-                    this.dhtStore(id, value);
-                    this.dhtStoreReplicas(id, value);
+
+                    // The owner gives the value its version
+                    var relay = this.dhtWrittenWhilePulling(id);
+                    var stored = StoredValue.of(StoredValue.valueOf(value), this.hybridClock.now(), StoredValue.expiresAt(value));
+                    this.dhtStore(id, stored);
+                    this.dhtStoreReplicas(id, stored);
+                    if (relay) this.dhtRelay(id, stored);
+                    this.dhtInvalidateReaders(id);
                     break;
                 } else {
+                    this.dhtInvalidate(id);
                     this.rpcClient.put(
                             ChordUtils.extractHost(successorAddress),
                             ChordUtils.extractPort(successorAddress),
@@ -82,12 +281,15 @@ public class ChordNode extends Thread {
                     );
                     break;
                 }
+            } catch (NodeBusyException e) {
+                throw e;
             } catch (NodeFailException e) {
                 logger.warn("Node failed: {}", e.getMessage());
                 logger.info("Waiting for stabilization. Retrying in 5 seconds");
                 attempts = attempts - 1;
+                this.retries.increment();
                 try {
-                    Thread.sleep(5000);
+                    this.clock.sleep(5000);
                 } catch (InterruptedException e2) {
                     logger.error(e2.getMessage());
                 }
@@ -98,29 +300,78 @@ public class ChordNode extends Thread {
         }
     }
 
-    public String dhtGet(BigInteger id) {
+    public String dhtGet(BigInteger id) throws NodeBusyException {
+        return this.dhtGet(id, null);
+    }
+
+    /**
+     * Get the value of a key. Values owned by other nodes are served from the read cache when
+     * enabled (see {@link #setReadCache}), and cached once fetched.
+     *
+     * @param id            The key id
+     * @param readerAddress The address of the node which will cache the value, or null if the
+     *                      request does not come from a caching node
+     * @return The value or null if the key does not exist
+     * @throws NodeBusyException if the owner is overloaded and keeps shedding the request
+     */
+    public String dhtGet(BigInteger id, String readerAddress) throws NodeBusyException {
         logger.info("GET {}", id);
 
+        var cache = readerAddress == null ? this.readCache : null;
+        if (cache != null) {
+            var value = cache.get(id);
+            if (value != null) return value;
+        }
+
         var attempts = 20;
         while (attempts > 0) {
 
             try {
                 var successorAddress = this.dhtFindSuccessor(id);
                 if (successorAddress.equals(ChordUtils.makeAddress(this.chordID, this.host, this.port))) {
-                    return this.db.get(id);
+                    if (readerAddress != null) this.readerTracker.record(id, readerAddress);
+                    var value = this.db.get(id);
+                    if (value == null) value = this.dhtFetchNotPulled(id);
+                    if (Fragment.isFragment(value)) value = this.dhtReconstruct(id, value);
+                    return StoredValue.liveValueOf(value, this.clock.currentTimeMillis());
+                } else if (readerAddress == null && cache == null) {
+
+                    // Concurrent reads of a hot key share one request to its owner
+                    return this.getFlights.execute(id, () -> this.rpcClient.get(
+                            ChordUtils.extractHost(successorAddress),
+                            ChordUtils.extractPort(successorAddress),
+                            id
+                    ));
+                } else if (readerAddress == null) {
+                    return this.getFlights.execute(id, () -> {
+                        var value = this.rpcClient.get(
+                                ChordUtils.extractHost(successorAddress),
+                                ChordUtils.extractPort(successorAddress),
+                                id,
+                                this.nodeAddress
+                        );
+                        if (value != null) cache.put(id, value);
+                        return value;
+                    });
                 } else {
+
+                    // Keep the address of the caching node when forwarding on its behalf
                     return this.rpcClient.get(
                             ChordUtils.extractHost(successorAddress),
                             ChordUtils.extractPort(successorAddress),
-                            id
+                            id,
+                            readerAddress
                     );
                 }
+            } catch (NodeBusyException e) {
+                throw e;
             } catch (NodeFailException e) {
                 logger.warn("Node failed: {}", e.getMessage());
                 logger.info("Waiting for stabilization. Retrying in 5 seconds");
                 attempts = attempts - 1;
+                this.retries.increment();
                 try {
-                    Thread.sleep(5000);
+                    this.clock.sleep(5000);
                 } catch (InterruptedException e2) {
                     logger.error(e2.getMessage());
                 }
@@ -132,7 +383,7 @@ public class ChordNode extends Thread {
         return null;
     }
 
-    public void dhtDelete(BigInteger id) {
+    public void dhtDelete(BigInteger id) throws NodeBusyException {
         logger.debug("DELETE {}", id);
 
         var attempts = 20;
@@ -140,9 +391,15 @@ public class ChordNode extends Thread {
             try {
                 var successorAddress = this.dhtFindSuccessor(id);
                 if (successorAddress.equals(ChordUtils.makeAddress(this.chordID, this.host, this.port))) {
+                    this.dhtWrittenWhilePulling(id);
                     this.db.remove(id);
+                    this.modifications.deleted(id);
+                    this.dhtLogDelete(id, this.modifications.getModifiedAt(id));
+                    this.dhtRelayDelete(id);
+                    this.dhtInvalidateReaders(id);
                     break;
                 } else {
+                    this.dhtInvalidate(id);
                     this.rpcClient.delete(
                             ChordUtils.extractHost(successorAddress),
                             ChordUtils.extractPort(successorAddress),
@@ -150,12 +407,15 @@ public class ChordNode extends Thread {
                     );
                     break;
                 }
+            } catch (NodeBusyException e) {
+                throw e;
             } catch (NodeFailException e) {
                 logger.warn("Node failed: {}", e.getMessage());
                 logger.info("Waiting for stabilization. Retrying in 5 seconds");
                 attempts = attempts - 1;
+                this.retries.increment();
                 try {
-                    Thread.sleep(5000);
+                    this.clock.sleep(5000);
                 } catch (InterruptedException e2) {
                     logger.error(e2.getMessage());
                 }
@@ -166,30 +426,342 @@ public class ChordNode extends Thread {
         }
     }
 
+    /**
+     * Read a page of the keys owned by this node in an id range, in ring order. The db is sorted by
+     * id, so the page is read without going through the other keys. The keys of which only a
+     * fragment is held here, until the repair after the failure of their owner, are rebuilt as done
+     * for a GET; a key which cannot be rebuilt is left out of the page, and counted in
+     * erasure.reconstructions.failed.
+     *
+     * @param from  The first id to scan, owned by this node
+     * @param end   The last id of the range (inclusive)
+     * @param limit The maximum number of keys in the page
+     * @return The page, continuing at the next key of this node if it is full, at the successor
+     * otherwise, or ending if this node owns the end of the range
+     */
+    public ScanPage dhtScan(BigInteger from, BigInteger end, int limit) {
+        logger.debug("SCAN {} {}", from, end);
+
+        // The segment of the range owned by this node: [from, end] or [from, chordID]
+        var reachesEnd = end.equals(from)
+                || (!from.equals(this.chordID) && ChordUtils.isInIntervalInclusive(from, end, this.chordID, this.m));
+        var segmentEnd = reachesEnd ? end : this.chordID;
+        this.dhtPullPage(from, segmentEnd, limit);
+        var segment = from.compareTo(segmentEnd) <= 0
+                ? List.of(this.db.subMap(from, true, segmentEnd, true))
+                : List.of(this.db.tailMap(from, true), this.db.headMap(segmentEnd, true));
+
+        var now = this.clock.currentTimeMillis();
+        var entries = new ArrayList<Map.Entry<BigInteger, String>>(Math.min(limit, 1024));
+        BigInteger last = null;
+        for (var part : segment) {
+            for (var entry : part.entrySet()) {
+                if (entries.size() >= limit) break;
+                var stored = entry.getValue();
+                if (Fragment.isFragment(stored)) {
+                    try {
+                        stored = this.dhtReconstruct(entry.getKey(), stored);
+                    } catch (NodeFailException e) {
+                        logger.warn("Leaving {} out of the scan: {}", entry.getKey(), e.getMessage());
+                        continue;
+                    }
+                }
+                var value = StoredValue.liveValueOf(stored, now);
+                if (value == null) continue;
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), value));
+                last = entry.getKey();
+            }
+        }
+
+        var ringSize = BigInteger.TWO.pow(this.m);
+        if (entries.size() >= limit && last != null && !last.equals(segmentEnd)) {
+            return new ScanPage(entries, last.add(BigInteger.ONE).mod(ringSize), this.nodeAddress);
+        }
+        if (reachesEnd) {
+            return new ScanPage(entries, null, null);
+        }
+        return new ScanPage(entries, this.chordID.add(BigInteger.ONE).mod(ringSize), this.routing.get().getSuccessor());
+    }
+
     // ========================================
     // DHT interface
     // ========================================
 
+    /**
+     * Collect the keys a joining node becomes responsible for, and remove them from this node.
+     * The transfer is throttled as background data movement, one operation per key: each key is
+     * only removed once it is allowed to proceed, so that it remains readable here in the
+     * meantime. A key written while throttled is removed and transferred with its new value.
+     *
+     * @param id The id of the joining node
+     * @return The keys and values to transfer
+     */
     public Map<BigInteger, String> dhtGetKeysToTransfer(BigInteger id) {
         logger.debug("Transfer to {}", id);
 
         var toTransfer = new HashMap<BigInteger, String>();
-        var keys = this.db.keySet();
-        for (var key : keys) {
-            if (!ChordUtils.isInIntervalInclusive(id, key, this.chordID, this.m)) {
-                toTransfer.put(key, this.db.get(key));
-                this.db.remove(key);
-            }
+        var throttled = true;
+        var now = this.clock.currentTimeMillis();
+        for (var key : this.db.keySet()) {
+            if (ChordUtils.isInIntervalInclusive(id, key, this.chordID, this.m)) continue;
+            var value = this.db.get(key);
+            if (value == null || StoredValue.isExpired(value, now)) continue;
+            throttled = throttled && this.dhtThrottle(value.length());
+
+            var removed = this.dhtRemoveRead(key, value);
+            if (removed != null) toTransfer.put(key, removed);
+            this.modifications.forget(key);
         }
         return toTransfer;
     }
 
+    /**
+     * Collect the changes a node rejoining with a snapshot needs to catch up on the keys it becomes
+     * responsible for, and remove those keys from this node. Like {@link #dhtGetKeysToTransfer}, the
+     * transfer is throttled.
+     *
+     * @param id        The id of the joining node
+     * @param watermark The time (in milliseconds) since which the changes are needed
+     * @return The keys written since the watermark, deleted keys having a null value, or null if the
+     * changes since the watermark are not known
+     */
+    public Map<BigInteger, String> dhtGetChangesToTransfer(BigInteger id, long watermark) {
+        logger.debug("Transfer to {} since {}", id, watermark);
+
+        if (!this.modifications.isKnownSince(watermark)) {
+            logger.info("Changes since {} are not known (horizon={})", watermark, this.modifications.getHorizon());
+            return null;
+        }
+
+        var changes = new HashMap<BigInteger, String>();
+        var throttled = true;
+        var now = this.clock.currentTimeMillis();
+        for (var key : this.modifications.getDeleted()) {
+            if (!ChordUtils.isInIntervalInclusive(id, key, this.chordID, this.m)
+                    && this.modifications.getModifiedAt(key) >= watermark) {
+                throttled = throttled && this.dhtThrottle(0);
+                changes.put(key, null);
+            }
+        }
+        for (var key : this.db.keySet()) {
+            if (ChordUtils.isInIntervalInclusive(id, key, this.chordID, this.m)) continue;
+            var value = this.db.get(key);
+            if (value == null) continue;
+            var changed = this.modifications.getModifiedAt(key) >= watermark && !StoredValue.isExpired(value, now);
+            if (changed) throttled = throttled && this.dhtThrottle(value.length());
+
+            // A key written or deleted while throttled has changed in any case
+            var removed = this.dhtRemoveRead(key, value);
+            if (changed || !value.equals(removed)) changes.put(key, removed);
+            this.modifications.forget(key);
+        }
+        return changes;
+    }
+
+    /**
+     * Remove a key read from the db, or the value a concurrent write has replaced it with, so
+     * that the value removed is the one sent to the new owner.
+     *
+     * @param key   The key id
+     * @param value The value read
+     * @return The value removed, or null if the key has been deleted meanwhile
+     */
+    private String dhtRemoveRead(BigInteger key, String value) {
+        while (value != null && !this.db.remove(key, value)) {
+            value = this.db.get(key);
+        }
+        return value;
+    }
+
+    /**
+     * Wait until a background operation is allowed to move the given amount of data.
+     *
+     * @param bytes The number of bytes moved by the operation
+     * @return false if interrupted, the operations left then running without throttling
+     */
+    private boolean dhtThrottle(long bytes) {
+        try {
+            this.backgroundThrottle.acquire(bytes);
+            return true;
+        } catch (InterruptedException e) {
+            logger.error(e.getMessage());
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Read a page of the copies stored here in an id range, in ring order, for a node which joined
+     * without waiting for the transfer (see {@link #setBackgroundJoin}). The keys are read from the
+     * db and from the replicas, since they move to the replicas once this node notices its new
+     * predecessor, and are left in place: they stay here as the replicas of the new owner.
+     *
+     * @param start The first id of the range
+     * @param end   The last id of the range (inclusive), equal to the start for a single key
+     * @param limit The maximum number of keys in the page
+     * @return The page, with the values and their metadata, continuing after its last key if it is
+     * full
+     */
+    public ScanPage dhtFetch(BigInteger start, BigInteger end, int limit) {
+        logger.debug("Fetch {} {}", start, end);
+
+        var wraps = start.compareTo(end) > 0;
+        var now = this.clock.currentTimeMillis();
+        var entries = new ArrayList<Map.Entry<BigInteger, String>>(Math.min(limit, 1024));
+        for (int part = 0; part < (wraps ? 2 : 1); part++) {
+
+            // The first keys of the part in both maps, keeping the newest copy of each
+            var page = new TreeMap<BigInteger, String>();
+            for (var map : List.of(this.db, this.dbReplicas)) {
+                var view = !wraps ? map.subMap(start, true, end, true)
+                        : part == 0 ? map.tailMap(start, true) : map.headMap(end, true);
+                var count = 0;
+                for (var entry : view.entrySet()) {
+                    if (count >= limit - entries.size()) break;
+                    if (StoredValue.isExpired(entry.getValue(), now)) continue;
+                    page.merge(entry.getKey(), entry.getValue(), (current, incoming) -> StoredValue.isNewer(incoming, current) ? incoming : current);
+                    count++;
+                }
+            }
+            for (var entry : page.entrySet()) {
+                if (entries.size() >= limit) break;
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+            }
+            if (entries.size() >= limit) break;
+        }
+
+        var last = entries.isEmpty() ? null : entries.get(entries.size() - 1).getKey();
+        if (entries.size() >= limit && !last.equals(end)) {
+            return new ScanPage(entries, last.add(BigInteger.ONE).mod(BigInteger.TWO.pow(this.m)), null);
+        }
+        return new ScanPage(entries, null, null);
+    }
+
+    /**
+     * Find the successor of an id. A fraction of the lookups (see {@link #setTraceSampleRate}) is
+     * traced and recorded in the lookup.trace.* metrics.
+     *
+     * @param id The id to look up
+     * @return The successor address or null if the lookup has failed
+     */
     public String dhtFindSuccessor(BigInteger id) {
+        if (this.traceSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < this.traceSampleRate) {
+            var trace = this.dhtTraceSuccessor(id);
+            if (trace == null) {
+                return null;
+            }
+            this.traceHops.record(trace.getHopCount());
+            this.traceLatency.record(trace.getTotalMicros());
+            for (int i = 0; i < trace.getHopIDs().size(); i++) {
+                this.traceHopLatency.record(trace.getHopMicros(i));
+            }
+            logger.debug("Lookup trace of id {}: {}", id, trace);
+            return trace.getAddress();
+        }
+        return this.dhtResolveSuccessor(id);
+    }
+
+    /**
+     * Find the successor of an id without sampling it for tracing, and record the number of hops
+     * of the lookup in lookup.hops.
+     *
+     * @param id The id to look up
+     * @return The successor address or null if the lookup has failed
+     */
+    public String dhtResolveSuccessor(BigInteger id) {
+        var lookup = this.dhtLookupSuccessor(id);
+        if (lookup == null) {
+            return null;
+        }
+        var separator = lookup.indexOf(' ');
+        this.lookupHops.record(Long.parseLong(lookup.substring(separator + 1)));
+        return lookup.substring(0, separator);
+    }
+
+    /**
+     * Find the successor of an id without sampling it for tracing. Used when the lookup has been
+     * forwarded by another node, which gets the number of hops along with the successor.
+     *
+     * @param id The id to look up
+     * @return The successor address followed by the number of nodes the lookup has been forwarded
+     * to from this one, as "<id>@<host>:<port> <hops>", or null if the lookup has failed
+     */
+    public String dhtLookupSuccessor(BigInteger id) {
         logger.debug("Finding successor of id: {}", id);
 
+        var localSuccessorAddress = this.dhtLocalSuccessor(id);
+        if (localSuccessorAddress != null) {
+            return localSuccessorAddress + " 0";
+        }
+
+        // Query closest preceding node for successor, sharing the query with the concurrent
+        // lookups of the same id
+        var closestPrecedingAddress = this.dhtClosestPrecedingNode(id);
+        String response;
+        try {
+            response = this.lookupFlights.execute(id, () -> this.rpcClient.findSuccessorWithHops(
+                    ChordUtils.extractHost(closestPrecedingAddress),
+                    ChordUtils.extractPort(closestPrecedingAddress),
+                    id
+            ));
+        } catch (NodeFailException e) {
+            logger.warn("Node failed: {}", e.getMessage());
+            return null;
+        }
+        if (response == null) {
+            return null;
+        }
+        var separator = response.indexOf(' ');
+        var hops = separator < 0 ? 0 : Long.parseLong(response.substring(separator + 1));
+        return String.format("%s %s", separator < 0 ? response : response.substring(0, separator), hops + 1);
+    }
+
+    /**
+     * Find the successor of an id and record the path followed by the lookup.
+     *
+     * @param id The id to look up
+     * @return The lookup trace or null if the lookup has failed
+     */
+    public LookupTrace dhtTraceSuccessor(BigInteger id) {
+        logger.debug("Tracing successor of id: {}", id);
+
+        var start = this.clock.nanoTime();
+        LookupTrace trace;
+        var localSuccessorAddress = this.dhtLocalSuccessor(id);
+        if (localSuccessorAddress != null) {
+            trace = new LookupTrace(localSuccessorAddress);
+        } else {
+            var closestPrecedingAddress = this.dhtClosestPrecedingNode(id);
+            try {
+                trace = this.rpcClient.findSuccessorTraced(
+                        ChordUtils.extractHost(closestPrecedingAddress),
+                        ChordUtils.extractPort(closestPrecedingAddress),
+                        id
+                );
+            } catch (NodeFailException e) {
+                logger.warn("Node failed: {}", e.getMessage());
+                return null;
+            }
+            if (trace == null) {
+                return null;
+            }
+        }
+        trace.prependHop(this.chordID, (this.clock.nanoTime() - start) / 1000);
+        return trace;
+    }
+
+    /**
+     * Resolve the successor of an id using only the local state.
+     *
+     * @param id The id to look up
+     * @return The successor address or null if a remote lookup is needed
+     */
+    private String dhtLocalSuccessor(BigInteger id) {
+
         // If this.pred.id < id <= this.id : this is the successor
-        if (this.predecessorAddress.get() != null && ChordUtils.isInIntervalInclusive(
-                ChordUtils.extractChordID(this.predecessorAddress.get()),
+        var predecessorAddress = this.predecessorAddress.get();
+        if (predecessorAddress != null && ChordUtils.isInIntervalInclusive(
+                ChordUtils.extractChordID(predecessorAddress),
                 id,
                 this.chordID,
                 this.m
@@ -198,32 +770,25 @@ public class ChordNode extends Thread {
         }
 
         // If this.id < id < this.succ.id : this.succ is the successor
+        var successorAddress = this.routing.get().getSuccessor();
         if (ChordUtils.isInIntervalInclusive(
                 this.chordID,
                 id,
-                ChordUtils.extractChordID(this.successorList.get(0)),
+                ChordUtils.extractChordID(successorAddress),
                 this.m
         )) {
-            return this.successorList.get(0);
+            return successorAddress;
         }
 
-        // Query closest preceding node for successor
-        var closestPrecedingAddress = this.dhtClosestPrecedingNode(id);
-        try {
-            return this.rpcClient.findSuccessor(
-                    ChordUtils.extractHost(closestPrecedingAddress),
-                    ChordUtils.extractPort(closestPrecedingAddress),
-                    id
-            );
-        } catch (NodeFailException e) {
-            logger.warn("Node failed: {}", e.getMessage());
-            return null;
-        }
+        return null;
     }
 
     public void dhtNotify(String nodeAddress) {
         logger.debug("Notified by: {}", nodeAddress);
 
+        // The notifications of the predecessor are its heartbeats
+        this.failureDetector.heartbeat(endpointOf(nodeAddress));
+
         if (this.predecessorAddress.get() == null || ChordUtils.isInIntervalExclusive(
                 ChordUtils.extractChordID(this.predecessorAddress.get()),
                 ChordUtils.extractChordID(nodeAddress),
@@ -234,44 +799,200 @@ public class ChordNode extends Thread {
         }
     }
 
+    /**
+     * Store a copy of a key, keeping the copy with the highest version if the key is already
+     * stored (last writer wins), so that storing the same copy again or an older one is a no-op.
+     *
+     * @param id    The key id
+     * @param value The stored value, with its version
+     */
     public void dhtStore(BigInteger id, String value) {
-        logger.debug("Store: {} {}", id, value);
-
-        if (this.predecessorAddress.get() != null && !ChordUtils.isInIntervalInclusive(
+        var target = this.predecessorAddress.get() != null && !ChordUtils.isInIntervalInclusive(
                 ChordUtils.extractChordID(this.predecessorAddress.get()),
                 id,
                 this.chordID,
                 this.m
-        )) {
-            this.dbReplicas.put(id, value);
-        } else {
-            this.db.put(id, value);
+        ) ? this.dbReplicas : this.db;
+        this.dhtStore(target, id, value);
+    }
+
+    /**
+     * Store a copy of a key in the db or in the replicas, keeping the copy with the highest
+     * version (see {@link #dhtStore(BigInteger, String)}).
+     *
+     * @param target The db or the replicas
+     * @param id     The key id
+     * @param value  The stored value, with its version
+     */
+    private void dhtStore(ConcurrentNavigableMap<BigInteger, String> target, BigInteger id, String value) {
+        logger.debug("Store: {} {}", id, value);
+
+        if (StoredValue.isExpired(value, this.clock.currentTimeMillis())) {
+            return;
+        }
+        var version = StoredValue.versionOf(value);
+        this.hybridClock.update(version);
+
+        // A copy older than a delete seen here would bring the key back
+        if (this.modifications.isDeleted(id)
+                && this.modifications.getModifiedAt(id) > HybridClock.physicalTimeOf(version)) {
+            this.staleWrites.increment();
+            return;
+        }
+        var stored = target.merge(id, value, (current, incoming) -> StoredValue.isNewer(incoming, current) ? incoming : current);
+
+        // Not the same instance: the current copy is at least as recent
+        if (stored != value) {
+            this.staleWrites.increment();
+            return;
+        }
+        this.modifications.written(id);
+        this.dhtScheduleExpiration(id, value);
+        this.dhtLogStore(id, value, target == this.dbReplicas);
+    }
+
+    /**
+     * Log a stored value in the write-ahead log, if enabled, returning once it is durable.
+     *
+     * @param id    The key id
+     * @param value The stored value
+     * @throws UncheckedIOException if the log cannot be written, so that the write is not acknowledged
+     */
+    private void dhtLogStore(BigInteger id, String value, boolean replica) {
+        var log = this.writeAheadLog;
+        if (log == null) return;
+        try {
+            log.stored(id, value, replica);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void dhtLogDelete(BigInteger id, long deletedAt) {
+        var log = this.writeAheadLog;
+        if (log == null) return;
+        try {
+            log.deleted(id, deletedAt);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Schedule the expiration of a key, if its value expires.
+     *
+     * @param id    The key id
+     * @param value The stored value
+     */
+    private void dhtScheduleExpiration(BigInteger id, String value) {
+        var expiresAt = StoredValue.expiresAt(value);
+        if (expiresAt > 0) {
+            this.expirations.schedule(id, expiresAt);
+        }
+    }
+
+    /**
+     * Remove the copy of a key stored here, owned or replica, as requested by its owner when it
+     * deletes the key while pulling it from this node (see {@link #dhtRelayDelete}). The delete is
+     * recorded, so that an older copy of the key is not stored again.
+     *
+     * @param id The key id
+     */
+    public void dhtRemove(BigInteger id) {
+        logger.debug("Remove: {}", id);
+
+        this.db.remove(id);
+        this.dbReplicas.remove(id);
+        this.modifications.deleted(id);
+        this.dhtLogDelete(id, this.modifications.getModifiedAt(id));
+        this.dhtInvalidate(id);
+    }
+
+    /**
+     * Drop a key from the read cache, as requested by its owner when it is written.
+     *
+     * @param id The key id
+     */
+    public void dhtInvalidate(BigInteger id) {
+        var cache = this.readCache;
+        if (cache != null) cache.invalidate(id);
+
+        // A read in flight may have been answered before the write
+        this.getFlights.forget(id);
+    }
+
+    /**
+     * Invalidate a key on the nodes which may have cached it. Lost invalidations are not retried:
+     * the cached copies expire anyway.
+     *
+     * @param id The key id
+     */
+    void dhtInvalidateReaders(BigInteger id) {
+        for (var readerAddress : this.readerTracker.drain(id)) {
+            try {
+                this.rpcClient.invalidate(
+                        ChordUtils.extractHost(readerAddress),
+                        ChordUtils.extractPort(readerAddress),
+                        id
+                );
+            } catch (NodeFailException e) {
+                logger.debug("Cannot invalidate {} at {}: {}", id, readerAddress, e.getMessage());
+            }
         }
     }
 
-    public void dhtStoreReplicas(BigInteger id, String value) {
+    /**
+     * Store the copies of a key on the k first successors, through the replication outbox which
+     * batches the stores sent concurrently to the same successor. With chain replication (see
+     * {@link #setChainReplication}), only the first successor is sent the copy, and forwards it.
+     * With erasure coding (see {@link #setErasureCoding}), the n + p first successors are sent a
+     * fragment each instead.
+     *
+     * @param id    The key id
+     * @param value The stored value
+     * @throws NodeBusyException if a successor is overloaded and keeps shedding the stores
+     */
+    public void dhtStoreReplicas(BigInteger id, String value) throws NodeBusyException {
         logger.debug("Storing replicas for id: {} (k={})", id, this.k);
 
         var attempts = 20;
         while (attempts > 0) {
             try {
-                for (int i = 0; i < this.k; i++) {
-                    var nodeAddress = this.successorList.get(0);
-                    this.rpcClient.store(
-                            ChordUtils.extractHost(nodeAddress),
-                            ChordUtils.extractPort(nodeAddress),
-                            id,
-                            value
-                    );
+                var holders = this.dhtFragmentHolders();
+                var fragments = holders == null ? null : Fragment.encode(this.erasureCoder, value);
+                if (fragments != null) {
+                    for (int i = 0; i < fragments.length; i++) {
+                        this.replicationOutbox.store(holders.get(i), id, fragments[i]);
+                    }
+                    break;
+                }
+                if (this.chainReplication) {
+                    var successorAddress = this.routing.get().getSuccessor();
+                    if (this.k > 0 && !successorAddress.equals(this.nodeAddress)) {
+                        this.replicationOutbox.store(successorAddress, this.k - 1, List.of(Map.entry(id, value)));
+                    }
+                    break;
+                }
+                var targets = new LinkedHashSet<String>();
+                var successors = this.routing.get().getSuccessors();
+                for (int i = 0; i < Math.min(this.k, successors.size()); i++) {
+                    targets.add(successors.get(i));
+                }
+                targets.remove(this.nodeAddress);
+                for (var target : targets) {
+                    this.replicationOutbox.store(target, id, value);
                 }
                 break;
 
+            } catch (NodeBusyException e) {
+                throw e;
             } catch (NodeFailException e) {
                 logger.warn("Node failed: {}", e.getMessage());
                 logger.info("Waiting for stabilization. Retrying in 5 seconds");
                 attempts = attempts - 1;
+                this.retries.increment();
                 try {
-                    Thread.sleep(5000);
+                    this.clock.sleep(5000);
                 } catch (InterruptedException e2) {
                     logger.error(e2.getMessage());
                 }
@@ -282,15 +1003,39 @@ public class ChordNode extends Thread {
         }
     }
 
+    /**
+     * Store copies received along a replication chain, and forward them to the next successors
+     * of the chain. The chain stops before reaching the owner of a key again, when the ring has
+     * fewer than k + 1 nodes. Returns once the last successor of the chain has stored them.
+     *
+     * @param hops    The number of successors of this node the copies are forwarded to
+     * @param entries The key ids and their stored values, in order
+     * @throws NodeFailException if a successor of the chain has failed
+     */
+    public void dhtChainStore(int hops, List<Map.Entry<BigInteger, String>> entries) throws NodeFailException {
+        for (var entry : entries) {
+            this.dhtStore(entry.getKey(), entry.getValue());
+        }
+        if (hops <= 0) return;
+
+        // The successor of this node owns the keys in (this node, successor]
+        var successorAddress = this.routing.get().getSuccessor();
+        if (successorAddress.equals(this.nodeAddress)) return;
+        var successorID = ChordUtils.extractChordID(successorAddress);
+        var forwarded = entries.stream()
+                .filter(x -> !ChordUtils.isInIntervalInclusive(this.chordID, x.getKey(), successorID, this.m))
+                .collect(Collectors.toList());
+        this.replicationOutbox.store(successorAddress, hops - 1, forwarded);
+    }
+
     public void dhtCreate() {
         logger.info("Creating a new Chord ring");
 
         // Initialize successor list
-        for (int i = 0; i < this.r; i++)
-            this.successorList.add(ChordUtils.makeAddress(this.chordID, this.host, this.port));
+        this.routing.updateAndGet(x -> x.withSuccessors(Collections.nCopies(this.r, this.nodeAddress)));
 
         // Set predecessor to null
-        this.predecessorAddress = new AtomicReference<>(null);
+        this.predecessorAddress.set(null);
     }
 
     public void dhtJoin(String bootstrapHost, int bootstrapPort) {
@@ -298,42 +1043,14 @@ public class ChordNode extends Thread {
 
         while (true) {
             try {
-
-                // Query bootstrap node for successor of this node
-                var newSuccessorAddress = this.rpcClient.findSuccessor(
-                        bootstrapHost,
-                        bootstrapPort,
-                        this.chordID);
-
-                // Query new successor for successor list
-                var newSuccessorList = this.rpcClient.getSuccessorList(
-                        ChordUtils.extractHost(newSuccessorAddress),
-                        ChordUtils.extractPort(newSuccessorAddress));
-
-                // Update successor list
-                this.successorList.add(newSuccessorAddress);
-                newSuccessorList.remove(newSuccessorList.size() - 1);
-                this.successorList.addAll(newSuccessorList);
-
-                // Set predecessor to null
-                this.predecessorAddress = new AtomicReference<>(null);
-
-                // Get and store keys from successor
-                var map = this.rpcClient.transfer(
-                        ChordUtils.extractHost(newSuccessorAddress),
-                        ChordUtils.extractPort(newSuccessorAddress),
-                        ChordUtils.hostPortToChordID(this.host, this.port, this.m));
-                for (var entry : map.entrySet()) {
-                    this.dhtStore(entry.getKey(), entry.getValue());
-                }
-
+                this.dhtTryJoin(bootstrapHost, bootstrapPort);
                 break;
 
             } catch (NodeFailException e1) {
                 logger.warn("Node failed: {}", e1.getMessage());
                 logger.info("Retrying in 5 seconds");
                 try {
-                    Thread.sleep(5000);
+                    this.clock.sleep(5000);
                 } catch (InterruptedException e2) {
                     logger.error(e2.getMessage());
                 }
@@ -341,11 +1058,476 @@ public class ChordNode extends Thread {
         }
     }
 
+    /**
+     * Make a single attempt to join a Chord ring.
+     *
+     * @param bootstrapHost The host of a node of the ring
+     * @param bootstrapPort The port of a node of the ring
+     * @throws NodeFailException if a node has failed or the lookup of the successor has failed
+     */
+    void dhtTryJoin(String bootstrapHost, int bootstrapPort) throws NodeFailException {
+
+        // The clients hash the keys as the ring says: a node configured otherwise would own the wrong keys
+        var config = this.rpcClient.getConfig(bootstrapHost, bootstrapPort);
+        if (config != null && (config.getM() != this.m || config.getKeyHasher() != this.keyHasher)) {
+            throw new IllegalStateException(String.format("Cannot join a ring configured as \"%s\" with \"%s\"",
+                    config, this.getRingConfig()));
+        }
+
+        // Query bootstrap node for successor of this node
+        var newSuccessorAddress = this.rpcClient.findSuccessor(
+                bootstrapHost,
+                bootstrapPort,
+                this.chordID);
+        if (newSuccessorAddress == null) {
+            throw new NodeFailException(String.format("Lookup failed at %s:%s", bootstrapHost, bootstrapPort));
+        }
+
+        // Query new successor for successor list
+        var newSuccessorList = this.rpcClient.getSuccessorList(
+                ChordUtils.extractHost(newSuccessorAddress),
+                ChordUtils.extractPort(newSuccessorAddress));
+
+        // Update successor list
+        newSuccessorList.remove(newSuccessorList.size() - 1);
+        newSuccessorList.add(0, newSuccessorAddress);
+        this.routing.updateAndGet(x -> x.withSuccessors(newSuccessorList));
+
+        // Set predecessor to null
+        this.predecessorAddress.set(null);
+
+        // Rejoining with a snapshot: only get the changes made since the snapshot, allowing for the
+        // clock skew between this node and the successor
+        if (this.snapshotWatermark >= 0) {
+            var changes = this.rpcClient.transferSince(
+                    ChordUtils.extractHost(newSuccessorAddress),
+                    ChordUtils.extractPort(newSuccessorAddress),
+                    this.chordID,
+                    this.snapshotWatermark - CLOCK_SKEW_MARGIN_MILLIS);
+            if (changes != null) {
+                logger.info("Catching up on {} changes since the snapshot", changes.size());
+                for (var entry : changes.entrySet()) {
+                    if (entry.getValue() == null) {
+                        this.db.remove(entry.getKey());
+                        this.dbReplicas.remove(entry.getKey());
+                        this.modifications.deleted(entry.getKey());
+                    } else {
+                        this.dhtStore(entry.getKey(), entry.getValue());
+                    }
+                }
+                return;
+            }
+
+            // The snapshot is too old: drop it and get the whole range. The replicas and the
+            // tombstones of the snapshot are as old, the replicas are rebuilt by their owners
+            logger.info("Snapshot is too old, transferring the whole range");
+            this.db.clear();
+            this.dbReplicas.clear();
+            this.modifications.clear();
+        }
+
+        // Joining at once: the range of this node, the part of the range of the successor after its
+        // predecessor, is pulled in the background
+        if (this.backgroundJoin) {
+            var previousAddress = this.rpcClient.getPredecessor(
+                    ChordUtils.extractHost(newSuccessorAddress),
+                    ChordUtils.extractPort(newSuccessorAddress));
+            this.pulledUpTo = ChordUtils.extractChordID(previousAddress == null ? newSuccessorAddress : previousAddress);
+            this.pullSource.set(newSuccessorAddress);
+            logger.info("Pulling the range ({}, {}] from {} in the background", this.pulledUpTo, this.chordID, newSuccessorAddress);
+            return;
+        }
+
+        // Get and store keys from successor
+        var map = this.rpcClient.transfer(
+                ChordUtils.extractHost(newSuccessorAddress),
+                ChordUtils.extractPort(newSuccessorAddress),
+                ChordUtils.hostPortToChordID(this.host, this.port, this.m));
+        for (var entry : map.entrySet()) {
+            this.dhtStore(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Pull the range of this node from the previous owner page by page, after joining without
+     * waiting for the transfer (see {@link #setBackgroundJoin}). The pull waits for a predecessor,
+     * so that the ring routes the range here, and the previous owner no longer takes writes for
+     * it, before going through it. The keys written here in the meantime are skipped: the local
+     * copies are more recent, whatever the clocks of the two nodes say.
+     * <p>
+     * If the previous owner fails, the pull resumes later from where it stopped (see
+     * {@link #dhtPullFailed}).
+     */
+    void dhtPull() {
+        var sourceAddress = this.pullSource.get();
+        if (sourceAddress == null || this.predecessorAddress.get() == null) return;
+        if (this.clock.currentTimeMillis() < this.pullRetryAt) return;
+
+        var ringSize = BigInteger.TWO.pow(this.m);
+        var count = 0;
+        while (!this.leaving.get()) {
+            ScanPage page;
+            try {
+                page = this.rpcClient.fetch(
+                        ChordUtils.extractHost(sourceAddress),
+                        ChordUtils.extractPort(sourceAddress),
+                        this.pulledUpTo.add(BigInteger.ONE).mod(ringSize),
+                        this.chordID,
+                        PULL_PAGE_SIZE);
+            } catch (NodeFailException e) {
+                logger.warn("Cannot pull the range from {}: {}", sourceAddress, e.getMessage());
+                this.dhtPullFailed(sourceAddress);
+                return;
+            }
+            this.pullFailures = 0;
+
+            try {
+                for (var entry : page.getEntries()) {
+                    this.backgroundThrottle.acquire(entry.getValue().length());
+                    if (!this.writtenWhilePulling.contains(entry.getKey())) {
+                        this.dhtStore(entry.getKey(), entry.getValue());
+                    }
+                    this.pulledUpTo = entry.getKey();
+                    this.pulledKeys.increment();
+                    count++;
+                }
+            } catch (InterruptedException e) {
+                logger.error(e.getMessage());
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (page.getCursor() == null) break;
+            this.pulledUpTo = page.getCursor().subtract(BigInteger.ONE).mod(ringSize);
+        }
+        this.pullSource.set(null);
+        this.writtenWhilePulling.clear();
+        logger.info("Pulled {} keys from {}", count, sourceAddress);
+    }
+
+    /**
+     * Retry a failed pull later, backing off exponentially, from the cursor it stopped at: the
+     * keys not pulled yet are owned by this node, and are only stored by the previous owner and
+     * its replicas. Once the previous owner has failed a few times in a row, the pull goes on from
+     * its successor, which holds the replicas of its keys.
+     *
+     * @param sourceAddress The node the pull has failed on
+     */
+    private void dhtPullFailed(String sourceAddress) {
+        this.pullFailures++;
+        this.pullRetryAt = this.clock.currentTimeMillis()
+                + Math.min(PULL_RETRY_MAX_DELAY_MILLIS, PULL_RETRY_DELAY_MILLIS << Math.min(this.pullFailures, 16));
+        if (this.pullFailures < PULL_MAX_FAILURES || this.k == 0) return;
+
+        var selfAddress = ChordUtils.makeAddress(this.chordID, this.host, this.port);
+        for (var successor : this.routing.get().getSuccessors()) {
+            if (!successor.equals(sourceAddress) && !successor.equals(selfAddress)) {
+                logger.info("Pulling the range from {} instead of {}", successor, sourceAddress);
+                this.pullSource.compareAndSet(sourceAddress, successor);
+                this.pullFailures = 0;
+                this.pullRetryAt = 0;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Pull a page of a range, e.g. before scanning it, if this node is still pulling its range.
+     *
+     * @param start The first id of the range
+     * @param end   The last id of the range (inclusive)
+     * @param limit The maximum number of keys in the page
+     */
+    private void dhtPullPage(BigInteger start, BigInteger end, int limit) {
+        var sourceAddress = this.pullSource.get();
+        if (sourceAddress == null) return;
+        try {
+            var page = this.rpcClient.fetch(
+                    ChordUtils.extractHost(sourceAddress),
+                    ChordUtils.extractPort(sourceAddress),
+                    start, end, limit);
+            this.forwardedReads.increment();
+            for (var entry : page.getEntries()) {
+                if (!this.writtenWhilePulling.contains(entry.getKey())) {
+                    this.dhtStore(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (NodeFailException e) {
+            logger.warn("Cannot fetch from {}: {}", sourceAddress, e.getMessage());
+        }
+    }
+
+    /**
+     * Read a key owned by this node from the previous owner, if it has not been pulled yet, and
+     * store it here.
+     *
+     * @param id The key id
+     * @return The stored value, or null if the key is not stored by the previous owner either
+     */
+    private String dhtFetchNotPulled(BigInteger id) {
+        var sourceAddress = this.pullSource.get();
+        var pulledUpTo = this.pulledUpTo;
+        if (sourceAddress == null || this.writtenWhilePulling.contains(id)
+                || !ChordUtils.isInIntervalInclusive(pulledUpTo, id, this.chordID, this.m)) {
+            return null;
+        }
+        try {
+            var page = this.rpcClient.fetch(
+                    ChordUtils.extractHost(sourceAddress),
+                    ChordUtils.extractPort(sourceAddress),
+                    id, id, 1);
+            this.forwardedReads.increment();
+            if (page.getEntries().isEmpty()) return null;
+            var value = page.getEntries().get(0).getValue();
+            this.dhtStore(id, value);
+            return value;
+        } catch (NodeFailException e) {
+            logger.warn("Cannot fetch {} from {}: {}", id, sourceAddress, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Record a write of a key owned by this node, if it is still pulling its range, so that the
+     * pull does not overwrite it.
+     *
+     * @param id The key id
+     * @return Whether the key has not been pulled yet
+     */
+    private boolean dhtWrittenWhilePulling(BigInteger id) {
+        if (this.pullSource.get() == null) return false;
+        this.writtenWhilePulling.add(id);
+        return ChordUtils.isInIntervalInclusive(this.pulledUpTo, id, this.chordID, this.m);
+    }
+
+    /**
+     * Relay a write of a key not pulled yet to the previous owner, so that its copy, which is the
+     * one read by the requests still routed there and by the replicas if this node fails during
+     * the pull, stays up to date. It is already relayed when the previous owner is the first
+     * replica.
+     *
+     * @param id    The key id
+     * @param value The stored value
+     */
+    private void dhtRelay(BigInteger id, String value) {
+        var sourceAddress = this.pullSource.get();
+        if (sourceAddress == null) return;
+        this.relayedWrites.increment();
+        if (this.k > 0 && sourceAddress.equals(this.routing.get().getSuccessor())) return;
+        try {
+            this.rpcClient.store(
+                    ChordUtils.extractHost(sourceAddress),
+                    ChordUtils.extractPort(sourceAddress),
+                    id,
+                    value
+            );
+        } catch (NodeFailException e) {
+            logger.warn("Cannot relay {} to {}: {}", id, sourceAddress, e.getMessage());
+        }
+    }
+
+    /**
+     * Relay a delete to the node the range is pulled from, so that its copy does not bring the key
+     * back if this node fails during the pull. Deletes are not replicated, so a delete is relayed
+     * whether the key has been pulled or not.
+     *
+     * @param id The key id
+     */
+    private void dhtRelayDelete(BigInteger id) {
+        var sourceAddress = this.pullSource.get();
+        if (sourceAddress == null) return;
+        this.relayedWrites.increment();
+        try {
+            this.rpcClient.remove(
+                    ChordUtils.extractHost(sourceAddress),
+                    ChordUtils.extractPort(sourceAddress),
+                    id
+            );
+        } catch (NodeFailException e) {
+            logger.warn("Cannot relay the delete of {} to {}: {}", id, sourceAddress, e.getMessage());
+        }
+    }
+
+    /**
+     * Leave the ring gracefully. The owned keys are handed over to the successor in bulk, then both
+     * neighbours are told to splice this node out, so that they neither wait for their failure
+     * detection nor rebuild the replicas key by key. The requests being handled are answered before
+     * the node stops serving, and the keys they wrote are handed over last.
+     */
+    public void dhtLeave() {
+        if (this.leaving.getAndSet(true)) {
+            return;
+        }
+        logger.info("Leaving the Chord ring");
+
+        if (this.routines != null) {
+            this.routines.shutdownNow();
+        }
+        if (this.fragmentReads != null) {
+            this.fragmentReads.shutdownNow();
+        }
+
+        var predecessorAddress = this.predecessorAddress.get();
+        var handedOff = new HashMap<>(this.db);
+        var successorAddress = this.dhtHandoffToSuccessor(handedOff);
+        if (successorAddress != null) {
+
+            // Splice the successor first: it owns the keys from now on
+            this.dhtSendSplice(successorAddress, predecessorAddress, successorAddress);
+            if (predecessorAddress != null && !predecessorAddress.equals(successorAddress)) {
+                this.dhtSendSplice(predecessorAddress, predecessorAddress, successorAddress);
+            }
+        }
+
+        // Drain the requests being handled, then hand over what they changed
+        this.transport.close(this.host, this.port);
+        if (successorAddress != null) {
+            var changed = new HashMap<BigInteger, String>();
+            for (var entry : this.db.entrySet()) {
+                if (!entry.getValue().equals(handedOff.get(entry.getKey()))) {
+                    changed.put(entry.getKey(), entry.getValue());
+                }
+            }
+            try {
+                if (!changed.isEmpty()) {
+                    this.rpcClient.handoff(
+                            ChordUtils.extractHost(successorAddress),
+                            ChordUtils.extractPort(successorAddress),
+                            changed);
+                }
+                for (var id : handedOff.keySet()) {
+                    if (!this.db.containsKey(id)) {
+                        this.rpcClient.delete(
+                                ChordUtils.extractHost(successorAddress),
+                                ChordUtils.extractPort(successorAddress),
+                                id);
+                    }
+                }
+            } catch (NodeFailException e) {
+                logger.error("Cannot hand over the last changes: {}", e.getMessage());
+            }
+        }
+
+        this.dhtSnapshot();
+        if (this.writeAheadLog != null) {
+            try {
+                this.writeAheadLog.close();
+            } catch (IOException e) {
+                logger.error("Cannot close the write-ahead log: {}", e.getMessage());
+            }
+        }
+        logger.info("Left the Chord ring");
+        this.left.countDown();
+    }
+
+    /**
+     * Hand the given keys over to the first successor which accepts them.
+     *
+     * @param entries The keys to hand over
+     * @return The address of the successor which took the keys or null if there is none
+     */
+    private String dhtHandoffToSuccessor(Map<BigInteger, String> entries) {
+        var successors = this.routing.get().getSuccessors().stream().distinct().collect(Collectors.toList());
+        for (var successorAddress : successors) {
+            if (successorAddress.equals(this.nodeAddress)) {
+                continue;
+            }
+            try {
+                logger.info("Handing {} keys over to {}", entries.size(), successorAddress);
+                this.rpcClient.handoff(
+                        ChordUtils.extractHost(successorAddress),
+                        ChordUtils.extractPort(successorAddress),
+                        entries);
+                return successorAddress;
+            } catch (NodeFailException e) {
+                logger.warn("Node failed: {}", e.getMessage());
+            }
+        }
+        logger.warn("No successor to hand the keys over to");
+        return null;
+    }
+
+    private void dhtSendSplice(String nodeAddress, String predecessorAddress, String successorAddress) {
+        try {
+            this.rpcClient.splice(
+                    ChordUtils.extractHost(nodeAddress),
+                    ChordUtils.extractPort(nodeAddress),
+                    this.nodeAddress,
+                    predecessorAddress,
+                    successorAddress);
+        } catch (NodeFailException e) {
+            logger.warn("Cannot splice out of {}: {}", nodeAddress, e.getMessage());
+        }
+    }
+
+    /**
+     * Remove a leaving node from the routing state, replacing it by its predecessor or successor.
+     *
+     * @param leavingAddress     The address of the leaving node
+     * @param predecessorAddress The predecessor of the leaving node, or null if unknown
+     * @param successorAddress   The successor of the leaving node
+     */
+    public void dhtSplice(String leavingAddress, String predecessorAddress, String successorAddress) {
+        logger.info("Splicing out leaving node {}", leavingAddress);
+
+        var newPredecessorAddress = this.nodeAddress.equals(predecessorAddress) ? null : predecessorAddress;
+        this.predecessorAddress.updateAndGet(x -> leavingAddress.equals(x) ? newPredecessorAddress : x);
+
+        this.routing.updateAndGet(x -> {
+            var successors = new ArrayList<>(x.getSuccessors());
+            if (successors.removeIf(leavingAddress::equals)) {
+                if (successors.isEmpty()) {
+                    successors.add(successorAddress);
+                }
+                while (successors.size() < this.r) {
+                    successors.add(successors.get(successors.size() - 1));
+                }
+                x = x.withSuccessors(successors);
+            }
+            return x.withFingers(y -> leavingAddress.equals(y) ? successorAddress : y);
+        });
+    }
+
+    /**
+     * Take over the keys of a leaving predecessor. Their replicas are pushed by the next run of the
+     * fix replication routine, which only re-replicates everything if the successor list changed.
+     *
+     * @param entries The keys handed over
+     */
+    public void dhtHandoff(Map<BigInteger, String> entries) {
+        logger.info("Taking over {} keys", entries.size());
+
+        var now = this.clock.currentTimeMillis();
+        for (var entry : entries.entrySet()) {
+            if (StoredValue.isExpired(entry.getValue(), now)) continue;
+            this.hybridClock.update(StoredValue.versionOf(entry.getValue()));
+
+            // The replica kept here may be more recent than the copy of the leaving node
+            var value = entry.getValue();
+            var replica = this.dbReplicas.remove(entry.getKey());
+            if (replica != null && StoredValue.isNewer(replica, value)) value = replica;
+            this.db.merge(entry.getKey(), value, (current, incoming) -> StoredValue.isNewer(incoming, current) ? incoming : current);
+            this.modifications.written(entry.getKey());
+            this.dhtScheduleExpiration(entry.getKey(), value);
+            this.dhtLogStore(entry.getKey(), this.db.get(entry.getKey()), false);
+            this.handedOff.add(entry.getKey());
+        }
+    }
+
+    /**
+     * Wait until the node has left the ring.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitLeave() throws InterruptedException {
+        this.left.await();
+    }
+
     private String dhtClosestPrecedingNode(BigInteger id) {
         logger.debug("Finding closest preceding node of id: {}", id);
 
+        var routing = this.routing.get();
         for (int i = this.m - 1; i >= 0; i--) {
-            var nodeAddress = this.finger.get(i);
+            var nodeAddress = routing.getFinger(i);
 
             // If this.id < node.id < id : node is the closest node preceding id
             if (nodeAddress != null && ChordUtils.isInIntervalExclusive(
@@ -357,18 +1539,32 @@ public class ChordNode extends Thread {
                 return nodeAddress;
             }
         }
-        return ChordUtils.makeAddress(this.chordID, this.host, this.port);
+
+        // No finger precedes id (e.g. fingers not fixed yet): forwarding the lookup to this node
+        // would loop forever, while the successor always brings it closer to id
+        return routing.getSuccessor();
     }
 
     // ========================================
     // DHT routines
     // ========================================
 
-    private void dhtStabilize() {
+    /**
+     * Run once, on the calling thread, the routines which build the routing state: stabilize, fix
+     * the successor list and fix the next finger. Drives a node which is not started, as done by
+     * the benchmarks, whose ring then stays frozen once every finger has been fixed.
+     */
+    public void dhtMaintainRouting() {
+        this.dhtStabilize();
+        this.dhtFixSuccessorList();
+        this.dhtFixFingers();
+    }
+
+    void dhtStabilize() {
         logger.debug("Stabilizing");
 
         try {
-            var successorAddress = this.successorList.get(0);
+            var successorAddress = this.routing.get().getSuccessor();
 
             // Get successor's predecessor
             var successorPredecessorAddress = this.rpcClient.getPredecessor(
@@ -391,12 +1587,7 @@ public class ChordNode extends Thread {
                     ChordUtils.extractPort(successorAddress));
 
             // Update successor list
-            synchronized (this.successorList) {
-                this.successorList.set(0, successorAddress);
-                for (int i = 1; i < this.r; i++) {
-                    this.successorList.set(i, successorSuccessorList.get(i - 1));
-                }
-            }
+            this.dhtUpdateSuccessors(successorAddress, successorSuccessorList);
 
             // Notify successor
             this.rpcClient.notify(
@@ -412,60 +1603,135 @@ public class ChordNode extends Thread {
         }
     }
 
-    private void dhtCheckPredecessor() {
+    /**
+     * Check whether the predecessor has failed (see {@link #dhtIsFailed}). Its heartbeats are its
+     * notifications and its responses to this node.
+     */
+    void dhtCheckPredecessor() {
         logger.debug("Checking predecessor");
 
         var address = this.predecessorAddress.get();
-        if (address != null) {
-            try {
-                this.rpcClient.ping(
-                        ChordUtils.extractHost(address),
-                        ChordUtils.extractPort(address)
-                );
-            } catch (NodeFailException e) {
-                logger.warn("Predecessor has failed: {}", e.getMessage());
-                this.predecessorAddress.set(null);
-            }
+        if (address != null && !address.equals(this.nodeAddress) && this.dhtIsFailed(address)) {
+            logger.warn("Predecessor has failed: {}", address);
+            this.predecessorAddress.compareAndSet(address, null);
         }
     }
 
-    private void dhtCheckSuccessor() {
+    /**
+     * Check whether the successor has failed (see {@link #dhtIsFailed}). Its heartbeats are its
+     * responses to the stabilization and to the other requests of this node.
+     */
+    void dhtCheckSuccessor() {
         logger.debug("Checking successor");
 
-        var address = this.successorList.get(0);
-        if (address != null) {
+        var address = this.routing.get().getSuccessor();
+        if (address != null && !address.equals(this.nodeAddress) && this.dhtIsFailed(address)) {
+            logger.warn("Successor has failed: {}", address);
+
+            // Replace successor with next successor, shifting the whole list so that the
+            // next failure moves on to the following successor
+            this.routing.updateAndGet(x -> {
+                var successors = new ArrayList<>(x.getSuccessors());
+                if (successors.size() <= 1 || !address.equals(successors.get(0))) return x;
+                successors.remove(0);
+                successors.add(successors.get(successors.size() - 1));
+                return x.withSuccessors(successors);
+            });
+        }
+    }
+
+    /**
+     * Check a neighbour with the failure detector. A neighbour is pinged once its silence starts
+     * being unusual, and is considered failed when its suspicion level is above the threshold
+     * and the ping has not been answered, so that a slow neighbour which still responds is never
+     * dropped. The ping runs in the background, so that a neighbour which hangs instead of
+     * refusing the connection does not block the checks.
+     *
+     * @param address The address of the predecessor or the successor
+     * @return Whether the neighbour has failed
+     */
+    private boolean dhtIsFailed(String address) {
+        var endpoint = endpointOf(address);
+        this.dhtWatchNeighbours();
+        this.failureDetector.watch(endpoint);
+
+        this.checks.increment();
+        var phi = this.failureDetector.phi(endpoint);
+        if (phi > PROBE_PHI && !this.dhtIsProbeUnanswered(endpoint)) {
+            this.dhtProbe(address, endpoint);
+            phi = this.failureDetector.phi(endpoint);
+        }
+
+        if (phi > this.failureDetector.getThreshold() && this.dhtIsProbeUnanswered(endpoint)) {
+            logger.debug("Suspecting {} (phi={})", address, phi);
+            this.suspected.increment();
+            this.failureDetector.remove(endpoint);
+            this.probes.remove(endpoint);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Monitor the current neighbours only, forgetting the nodes which are no longer the
+     * predecessor or the successor.
+     */
+    private void dhtWatchNeighbours() {
+        var neighbours = new HashSet<String>();
+        var predecessor = this.predecessorAddress.get();
+        var successor = this.routing.get().getSuccessor();
+        if (predecessor != null) neighbours.add(endpointOf(predecessor));
+        if (successor != null) neighbours.add(endpointOf(successor));
+        this.failureDetector.retainAll(neighbours);
+        this.probes.keySet().retainAll(neighbours);
+    }
+
+    /**
+     * @param endpoint The host:port of a neighbour
+     * @return Whether a ping was sent to the neighbour after its last heartbeat, i.e. it failed
+     * or is still waiting for the response
+     */
+    private boolean dhtIsProbeUnanswered(String endpoint) {
+        var sentAt = this.probes.get(endpoint);
+        return sentAt != null
+                && (this.clock.nanoTime() - sentAt) / 1_000_000 <= this.failureDetector.silenceMillis(endpoint);
+    }
+
+    private void dhtProbe(String address, String endpoint) {
+        this.probesSent.increment();
+        this.probes.put(endpoint, this.clock.nanoTime());
+        Runnable probe = () -> {
             try {
-                this.rpcClient.ping(
-                        ChordUtils.extractHost(address),
-                        ChordUtils.extractPort(address)
-                );
+                this.rpcClient.ping(ChordUtils.extractHost(address), ChordUtils.extractPort(address));
             } catch (NodeFailException e) {
-                logger.warn("Successor has failed: {}", e.getMessage());
-
-                // Replace successor with next successor
-                synchronized (this.successorList) {
-                    if (this.successorList.size() > 1) {
-                        var newSuccessorAddress = this.successorList.get(1);
-                        this.successorList.set(0, newSuccessorAddress);
-                    }
-                }
+                logger.debug("No response to probe: {}", e.getMessage());
             }
+        };
+        if (this.routines != null) {
+            this.routines.execute(probe);
+        } else {
+            probe.run();
         }
     }
 
-    private void dhtFixFingers() {
-        logger.debug("Fixing fingers (next={})", this.next);
+    private static String endpointOf(String address) {
+        return ChordUtils.extractHost(address) + ":" + ChordUtils.extractPort(address);
+    }
+
+    void dhtFixFingers() {
+        var next = this.next.getAndUpdate(x -> (x + 1) % this.m);
+        logger.debug("Fixing fingers (next={})", next);
 
         // fingerId = (id + 2^next) mod 2^m
-        var fingerId = this.chordID.add(BigInteger.valueOf(2).pow(this.next)).mod(BigInteger.valueOf(2).pow(this.m));
-        this.finger.set(this.next, this.dhtFindSuccessor(fingerId));
-        this.next = (this.next + 1) % this.m;
+        var fingerId = this.chordID.add(BigInteger.valueOf(2).pow(next)).mod(BigInteger.valueOf(2).pow(this.m));
+        var fingerAddress = this.dhtFindSuccessor(fingerId);
+        this.routing.updateAndGet(x -> x.withFinger(next, fingerAddress));
     }
 
-    private void dhtFixSuccessorList() {
+    void dhtFixSuccessorList() {
         logger.debug("Fixing successor list");
 
-        var successorAddress = this.successorList.get(0);
+        var successorAddress = this.routing.get().getSuccessor();
         try {
 
             // Get successor's successor list
@@ -474,21 +1740,33 @@ public class ChordNode extends Thread {
                     ChordUtils.extractPort(successorAddress));
 
             // Update successor list
-            synchronized (this.successorList) {
-                this.successorList.set(0, successorAddress);
-                for (int i = 1; i < this.r; i++) {
-                    this.successorList.set(i, successorSuccessorList.get(i - 1));
-                }
-            }
+            this.dhtUpdateSuccessors(successorAddress, successorSuccessorList);
 
         } catch (NodeFailException e1) {
             logger.warn("Fixing successor list failed: {}", e1.getMessage());
         }
     }
 
-    private void dhtFixReplication() {
+    /**
+     * Publish a new successor list: the successor followed by its own successors.
+     *
+     * @param successorAddress       The successor
+     * @param successorSuccessorList The successor list of the successor
+     */
+    private void dhtUpdateSuccessors(String successorAddress, List<String> successorSuccessorList) {
+        var successors = new ArrayList<String>(this.r);
+        successors.add(successorAddress);
+        for (int i = 1; i < this.r; i++) {
+            successors.add(successorSuccessorList.get(i - 1));
+        }
+        this.routing.updateAndGet(x -> x.withSuccessors(successors));
+    }
+
+    void dhtFixReplication() {
         logger.debug("Fixing replication");
 
+        this.modifications.prune();
+
         // Clean DB from replicas
         for (var key : this.db.keySet()) {
             if (this.predecessorAddress.get() != null && !ChordUtils.isInIntervalInclusive(
@@ -515,20 +1793,322 @@ public class ChordNode extends Thread {
             }
         }
 
+        // Rebuild the values whose owner has failed from their fragments
+        if (this.erasureCoder != null) {
+            this.dhtRepairFragments();
+        }
+
         // Re-replicate data when successor list changes
-        var newSuccessorListHash = DigestUtils.sha1Hex(this.successorList.toString());
-        if (!newSuccessorListHash.equals(this.successorListHash)) {
+        var successors = this.routing.get().getSuccessors();
+        if (!successors.equals(this.replicatedSuccessors)) {
             logger.info("Successor list has changed");
-            this.successorListHash = newSuccessorListHash;
-            for (var entry : this.db.entrySet()) {
-                this.dhtStoreReplicas(entry.getKey(), entry.getValue());
+            this.replicatedSuccessors = successors;
+            this.handedOff.clear();
+            var entries = new HashMap<BigInteger, String>(this.db);
+            if (this.dhtFragmentHolders() == null) entries.putAll(this.dbReplicas);
+            try {
+                this.dhtReplicate(entries);
+            } catch (InterruptedException e) {
+                logger.error(e.getMessage());
+            }
+            this.replicationBacklog.set(0);
+        }
+
+        // Replicate the keys handed over by a leaving predecessor
+        if (!this.handedOff.isEmpty()) {
+            logger.info("Replicating {} keys handed over", this.handedOff.size());
+            var entries = new HashMap<BigInteger, String>();
+            for (var iterator = this.handedOff.iterator(); iterator.hasNext(); ) {
+                var id = iterator.next();
+                iterator.remove();
+                var value = this.db.get(id);
+                if (value != null) entries.put(id, value);
+            }
+            try {
+                this.dhtReplicate(entries);
+            } catch (InterruptedException e) {
+                logger.error(e.getMessage());
+            }
+            this.replicationBacklog.set(0);
+        }
+    }
+
+    /**
+     * Push copies of keys to the k first successors, or their fragments to the n + p first ones
+     * with erasure coding. The versions are sent first, in batches, and only the values a
+     * successor is missing or holds an older version of are shipped, so that re-replicating after
+     * a change of the successor list mostly sends digests. The fragments held here are never
+     * pushed: they are only rebuilt once this node owns their key.
+     *
+     * @param entries The keys and their stored values
+     * @throws InterruptedException if interrupted while throttled
+     */
+    private void dhtReplicate(Map<BigInteger, String> entries) throws InterruptedException {
+        var targets = new LinkedHashSet<String>();
+        var holders = this.dhtFragmentHolders();
+        if (holders != null) {
+            targets.addAll(holders);
+        } else {
+            var successors = this.routing.get().getSuccessors();
+            for (int i = 0; i < Math.min(this.k, successors.size()); i++) {
+                targets.add(successors.get(i));
+            }
+            targets.remove(this.nodeAddress);
+        }
+        var fragments = new HashMap<BigInteger, String[]>();
+
+        var ids = new ArrayList<>(entries.keySet());
+        this.replicationBacklog.set((long) ids.size() * targets.size());
+        for (var target : targets) {
+            var host = ChordUtils.extractHost(target);
+            var port = ChordUtils.extractPort(target);
+            var index = holders == null ? -1 : holders.indexOf(target);
+            try {
+                for (int from = 0; from < ids.size(); from += DIGEST_BATCH_SIZE) {
+                    var now = this.clock.currentTimeMillis();
+                    var versions = new HashMap<BigInteger, Long>();
+                    for (var id : ids.subList(from, Math.min(from + DIGEST_BATCH_SIZE, ids.size()))) {
+                        var value = entries.get(id);
+                        if (StoredValue.isExpired(value, now) || Fragment.isFragment(value)) continue;
+                        versions.put(id, StoredValue.versionOf(value));
+                    }
+                    if (versions.isEmpty()) continue;
+                    this.backgroundThrottle.acquire(versions.size() * 32L);
+                    var stale = this.rpcClient.digest(host, port, versions, index);
+                    var values = new ArrayList<Map.Entry<BigInteger, String>>(stale.size());
+                    for (var id : stale) {
+                        var value = entries.get(id);
+                        if (value == null) continue;
+                        if (index >= 0) {
+                            var encoded = fragments.computeIfAbsent(id, x -> Fragment.encode(this.erasureCoder, entries.get(x)));
+                            if (encoded != null) value = encoded[index];
+                        }
+                        this.backgroundThrottle.acquire(value.length());
+                        values.add(Map.entry(id, value));
+                    }
+                    if (!values.isEmpty()) this.rpcClient.storeBatch(host, port, values);
+                    this.digestShipped.add(stale.size());
+                    this.digestSkipped.add(versions.size() - stale.size());
+                    this.replicationBacklog.addAndGet(-versions.size());
+                }
+            } catch (NodeFailException e) {
+                logger.warn("Cannot replicate to {}: {}", target, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return The n + p first successors, which hold the fragments of the values owned by this
+     * node in order, or null if erasure coding is disabled or if the ring is too small for each
+     * fragment to be on a distinct node (the values are then copied in full to k successors)
+     */
+    private List<String> dhtFragmentHolders() {
+        var coder = this.erasureCoder;
+        if (coder == null) return null;
+        var count = coder.getDataFragments() + coder.getParityFragments();
+        var successors = this.routing.get().getSuccessors();
+        if (successors.size() < count) return null;
+        var holders = successors.subList(0, count);
+        if (holders.contains(this.nodeAddress) || new HashSet<>(holders).size() < count) return null;
+        return holders;
+    }
+
+    /**
+     * Rebuild the values whose fragments are owned here, i.e. since their owner has failed, and
+     * spread their fragments again. A rebuilt value gets a new version, so that each successor
+     * replaces the fragment it holds, whose index may not be the one of its position anymore.
+     */
+    private void dhtRepairFragments() {
+        var predecessorAddress = this.predecessorAddress.get();
+        if (predecessorAddress == null) return;
+
+        var predecessorID = ChordUtils.extractChordID(predecessorAddress);
+        var repaired = new HashMap<BigInteger, String>();
+        for (var entry : this.db.entrySet()) {
+            var id = entry.getKey();
+            var fragment = entry.getValue();
+            if (!Fragment.isFragment(fragment) || !ChordUtils.isInIntervalInclusive(predecessorID, id, this.chordID, this.m)) continue;
+            try {
+                var value = this.dhtReconstruct(id, fragment);
+                var stored = StoredValue.of(StoredValue.valueOf(value), this.hybridClock.now(), StoredValue.expiresAt(value));
+
+                // Unless written in the meantime
+                if (this.db.replace(id, fragment, stored)) {
+                    this.modifications.written(id);
+                    this.dhtScheduleExpiration(id, stored);
+                    this.dhtLogStore(id, stored, false);
+                    repaired.put(id, stored);
+                }
+            } catch (NodeFailException | UncheckedIOException e) {
+                logger.warn("Cannot rebuild {}: {}", id, e.getMessage());
+            }
+        }
+        if (repaired.isEmpty()) return;
+
+        logger.info("Rebuilt {} values from their fragments", repaired.size());
+        this.repairedFragments.add(repaired.size());
+        try {
+            this.dhtReplicate(repaired);
+        } catch (InterruptedException e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuild a value from its fragments, held here and by the successors of this node. The
+     * fragments are read from every successor in parallel, and the newest version of which there
+     * is a full copy or n fragments wins: all of them are waited for, since a version acknowledged
+     * to a client may be among the last to answer.
+     *
+     * @param id    The key id
+     * @param local The fragment of the key held here
+     * @return The stored value
+     * @throws NodeFailException if fewer than n fragments of the value can be read
+     */
+    private String dhtReconstruct(BigInteger id, String local) throws NodeFailException {
+        var coder = this.erasureCoder;
+        if (coder == null) throw new NodeFailException(String.format("Cannot rebuild %s: erasure coding is disabled", id));
+
+        var holders = new LinkedHashSet<>(this.routing.get().getSuccessors());
+        holders.remove(this.nodeAddress);
+        var reads = new ArrayList<CompletableFuture<String>>(holders.size());
+        for (var holder : holders) {
+            Supplier<String> read = () -> {
+                try {
+                    return this.rpcClient.fragment(ChordUtils.extractHost(holder), ChordUtils.extractPort(holder), id);
+                } catch (NodeFailException e) {
+                    logger.debug("Cannot read the fragment of {} at {}: {}", id, holder, e.getMessage());
+                    return null;
+                }
+            };
+            reads.add(this.fragmentReads != null
+                    ? CompletableFuture.supplyAsync(read, this.fragmentReads)
+                    : CompletableFuture.completedFuture(read.get()));
+        }
+        var copies = new ArrayList<String>(holders.size() + 1);
+        copies.add(local);
+        for (var read : reads) {
+            var copy = read.join();
+            if (copy != null) copies.add(copy);
+        }
+
+        // Newest version first
+        copies.sort(Comparator.comparingLong(StoredValue::versionOf).reversed());
+        for (int from = 0, to; from < copies.size(); from = to) {
+            var version = StoredValue.versionOf(copies.get(from));
+            for (to = from; to < copies.size() && StoredValue.versionOf(copies.get(to)) == version; to++) {
+                if (!Fragment.isFragment(copies.get(to))) return copies.get(to);
+            }
+            var value = Fragment.decode(coder, copies.subList(from, to));
+            if (value != null) {
+                this.reconstructions.increment();
+                return value;
+            }
+        }
+        this.reconstructionFailures.increment();
+        throw new NodeFailException(String.format("Not enough fragments of %s (%s read)", id, copies.size()));
+    }
+
+    /**
+     * Compare the versions of keys sent by a node replicating them here with the local copies.
+     * With erasure coding, a fragment of the same version but of another index, left by a shift
+     * of the successor list of the owner, is dropped so that the expected one replaces it.
+     *
+     * @param versions The key ids and their versions
+     * @param fragment The index of the fragments this node is to hold, or -1 for full copies
+     * @return The ids of the keys missing here, stored with an older version, or as another fragment
+     */
+    public List<BigInteger> dhtGetStale(Map<BigInteger, Long> versions, int fragment) {
+        var stale = new ArrayList<BigInteger>();
+        for (var entry : versions.entrySet()) {
+            var id = entry.getKey();
+            var copies = this.db.containsKey(id) ? this.db : this.dbReplicas;
+            var current = copies.get(id);
+            if (fragment >= 0 && Fragment.isFragment(current) && Fragment.indexOf(current) != fragment
+                    && StoredValue.versionOf(current) == entry.getValue() && copies.remove(id, current)) {
+                current = null;
+            }
+            if (current == null) {
+                var deleted = this.modifications.isDeleted(id)
+                        && this.modifications.getModifiedAt(id) > HybridClock.physicalTimeOf(entry.getValue());
+                if (!deleted) stale.add(id);
+            } else if (StoredValue.versionOf(current) < entry.getValue()) {
+                stale.add(id);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * @param id The key id
+     * @return The newest copy of the key stored here, owned or replica, or null if there is none
+     */
+    public String dhtGetCopy(BigInteger id) {
+        var value = this.db.get(id);
+        var replica = this.dbReplicas.get(id);
+        if (value == null) return replica;
+        if (replica == null) return value;
+        return StoredValue.isNewer(replica, value) ? replica : value;
+    }
+
+    /**
+     * Drop the keys whose value has expired, as scheduled in the timer wheel. Keys written again
+     * since their timer was scheduled are kept. Expired keys are not recorded as deleted: every
+     * copy of a value carries its expiration time and expires on its own.
+     */
+    void dhtExpire() {
+        var now = this.clock.currentTimeMillis();
+        for (var id : this.expirations.advance(now)) {
+            var value = this.db.get(id);
+            if (StoredValue.isExpired(value, now) && this.db.remove(id, value)) {
+                this.modifications.forget(id);
+                this.expired.increment();
             }
-            for (var entry : this.dbReplicas.entrySet()) {
-                this.dhtStoreReplicas(entry.getKey(), entry.getValue());
+            var replica = this.dbReplicas.get(id);
+            if (StoredValue.isExpired(replica, now) && this.dbReplicas.remove(id, replica)) {
+                this.expired.increment();
             }
         }
     }
 
+    /**
+     * Write a snapshot of the data of the node in the data directory, if any.
+     */
+    void dhtSnapshot() {
+        if (this.dataDirectory == null) {
+            return;
+        }
+        logger.debug("Writing snapshot");
+
+        // Writes are applied before being logged: the ones logged before the rotation are in the copy
+        var start = this.clock.nanoTime();
+        var log = this.writeAheadLog;
+        var segment = -1L;
+        try {
+            if (log != null) segment = log.rotate();
+        } catch (IOException e) {
+            logger.error("Cannot rotate the write-ahead log: {}", e.getMessage());
+        }
+        var snapshot = new Snapshot(
+                this.clock.currentTimeMillis(),
+                this.modifications.getHorizon(),
+                new HashMap<>(this.db),
+                new HashMap<>(this.dbReplicas),
+                new HashMap<>(this.modifications.getModified()),
+                new HashSet<>(this.modifications.getDeleted()));
+        try {
+            snapshot.write(this.snapshotPath());
+            if (segment >= 0) log.deleteSegmentsBefore(segment);
+            this.snapshotDuration.record((this.clock.nanoTime() - start) / 1000);
+        } catch (IOException e) {
+            logger.error("Cannot write snapshot: {}", e.getMessage());
+        }
+    }
+
+    private Path snapshotPath() {
+        return this.dataDirectory.resolve(String.format("%s_%s.snapshot", this.host, this.port));
+    }
+
     // ========================================
     // Getters / Setters
     // ========================================
@@ -538,7 +2118,240 @@ public class ChordNode extends Thread {
     }
 
     public List<String> getSuccessorList() {
-        return successorList;
+        return routing.get().getSuccessors();
+    }
+
+    BigInteger getChordID() {
+        return chordID;
+    }
+
+    public String getNodeAddress() {
+        return nodeAddress;
+    }
+
+    Map<BigInteger, String> getDb() {
+        return db;
+    }
+
+    Map<BigInteger, String> getDbReplicas() {
+        return dbReplicas;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public FrameCodec getFrameCodec() {
+        return frameCodec;
+    }
+
+    public RingConfig getRingConfig() {
+        return new RingConfig(m, keyHasher);
+    }
+
+    /**
+     * Set the port of the local HTTP metrics endpoint. Must be called before starting the node.
+     *
+     * @param metricsPort The port number, or a negative value to disable the endpoint
+     */
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * Set the fraction of the lookups originated by this node that are traced.
+     *
+     * @param traceSampleRate The sampling rate in [0, 1]
+     */
+    public void setTraceSampleRate(double traceSampleRate) {
+        this.traceSampleRate = traceSampleRate;
+    }
+
+    /**
+     * Enable the read cache of the values owned by other nodes. Must be called before starting the
+     * node, with the same TTL on every node of the ring since owners track the readers for their
+     * own TTL.
+     *
+     * @param maxBytes  The maximum (estimated) memory used by the cache, or 0 to disable it
+     * @param ttlMillis The time to live of the cached values
+     */
+    public void setReadCache(long maxBytes, long ttlMillis) {
+        this.readCache = maxBytes > 0 ? new ReadCache(maxBytes, ttlMillis, this.clock, this.metrics) : null;
+        this.readerTracker = new ReaderTracker(ttlMillis, this.clock);
+    }
+
+    /**
+     * Set the directory where the node periodically writes a snapshot of its data, and load the
+     * snapshot left by a previous run, if any. Must be called before joining or creating the ring:
+     * a node rejoining with a snapshot only gets from its successor the changes made since then.
+     *
+     * @param dataDirectory The path of the directory
+     */
+    public void setDataDirectory(String dataDirectory) {
+        this.dataDirectory = Paths.get(dataDirectory);
+        try {
+            Files.createDirectories(this.dataDirectory);
+            var path = this.snapshotPath();
+            if (Files.exists(path)) {
+                var snapshot = Snapshot.read(path);
+                this.db.putAll(snapshot.getDb());
+                this.dbReplicas.putAll(snapshot.getDbReplicas());
+                this.db.forEach(this::dhtScheduleExpiration);
+                this.dbReplicas.forEach(this::dhtScheduleExpiration);
+                this.modifications.restore(snapshot.getModified(), snapshot.getDeleted(), snapshot.getHorizon());
+                this.snapshotWatermark = snapshot.getWatermark();
+                logger.info("Loaded snapshot of {} keys and {} replicas", this.db.size(), this.dbReplicas.size());
+            }
+        } catch (IOException e) {
+            logger.error("Cannot load snapshot: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Log the writes to a write-ahead log in the data directory before acknowledging them, so that
+     * they survive a crash of the node (see {@link WriteAheadLog}). The log left by a previous run
+     * is replayed on top of the snapshot. Must be called after {@link #setDataDirectory}.
+     *
+     * @param durability          The durability mode
+     * @param flushIntervalMicros The maximum time a write waits for its group commit (GROUP) or
+     *                            for the sync (ASYNC)
+     * @param batchSize           The maximum number of writes in a group commit
+     * @throws IllegalStateException if there is no data directory, or if the log cannot be opened or replayed
+     */
+    public void setWriteAheadLog(WriteAheadLog.Durability durability, long flushIntervalMicros, int batchSize) {
+        if (this.dataDirectory == null) {
+            throw new IllegalStateException("The write-ahead log needs a data directory");
+        }
+        try {
+            var log = new WriteAheadLog(this.dataDirectory, String.format("%s_%s", this.host, this.port),
+                    durability, flushIntervalMicros, batchSize, this.metrics);
+            var count = log.replay(new WriteAheadLog.Replayer() {
+                @Override
+                public void stored(BigInteger id, String value, boolean replica) {
+                    dhtStore(replica ? dbReplicas : db, id, value);
+                }
+
+                @Override
+                public void deleted(BigInteger id, long deletedAt) {
+                    db.remove(id);
+                    dbReplicas.remove(id);
+                    modifications.deleted(id, deletedAt);
+                }
+            });
+            logger.info("Replayed {} writes from the write-ahead log", count);
+            this.writeAheadLog = log;
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Cannot open the write-ahead log: %s", e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Set the suspicion level above which the predecessor or the successor is considered failed
+     * (see {@link PhiAccrualFailureDetector}). A lower threshold detects failures sooner, at the
+     * cost of more false positives when a neighbour is slow.
+     *
+     * @param threshold The phi threshold
+     */
+    public void setFailureThreshold(double threshold) {
+        this.failureDetector = new PhiAccrualFailureDetector(this.clock, threshold, HEARTBEAT_INTERVAL_MILLIS,
+                HEARTBEAT_PAUSE_MILLIS);
+    }
+
+    /**
+     * Set how the keys are hashed into ids in this ring (see {@link KeyHasher}). The clients get
+     * it with GET_CONFIG, and a node refuses to join a ring whose hasher is not its own. Must be
+     * called before joining or creating the ring.
+     *
+     * @param keyHasher The hasher of the keys
+     */
+    public void setKeyHasher(KeyHasher keyHasher) {
+        if (this.m > keyHasher.getBits()) {
+            throw new IllegalArgumentException(String.format("%s supports id spaces of at most %s bits",
+                    keyHasher.getName(), keyHasher.getBits()));
+        }
+        this.keyHasher = keyHasher;
+    }
+
+    /**
+     * Join the ring at once and pull the range of this node from its successor in the background,
+     * instead of waiting for the whole transfer, so that the node takes its share of the requests
+     * right away: the reads of the keys not pulled yet are forwarded to the previous owner, and
+     * the writes are applied here and relayed to it. Must be called before joining the ring.
+     *
+     * @param backgroundJoin Whether to pull the range in the background
+     */
+    public void setBackgroundJoin(boolean backgroundJoin) {
+        this.backgroundJoin = backgroundJoin;
+    }
+
+    /**
+     * Set the size above which the bulk messages (transfers, handoffs and replica stores) sent by
+     * this node are compressed.
+     *
+     * @param threshold The size in characters, or 0 to disable the compression
+     */
+    public void setCompressionThreshold(int threshold) {
+        this.frameCodec.setThreshold(threshold);
+    }
+
+    /**
+     * Set how the replica stores sent concurrently to the same successor are batched (see
+     * {@link ReplicationOutbox}). Must be called before starting the node.
+     *
+     * @param lingerMicros The maximum time a replica store waits for others to the same successor
+     * @param batchSize    The maximum number of replica stores in a batch
+     */
+    public void setReplicationBatching(long lingerMicros, int batchSize) {
+        this.replicationOutbox = new ReplicationOutbox(this.rpcClient, lingerMicros, batchSize, this.metrics);
+    }
+
+    /**
+     * Replicate the writes along the successor list instead of sending every copy from the owner:
+     * the owner sends a write to its successor, which stores it and forwards it to its own, until
+     * k copies exist, and the write is acknowledged once the last one has stored it. The bandwidth
+     * of the replication is spread along the successor list, at the cost of a latency growing
+     * with k.
+     *
+     * @param chainReplication Whether to replicate along the successor list
+     */
+    public void setChainReplication(boolean chainReplication) {
+        this.chainReplication = chainReplication;
+    }
+
+    /**
+     * Store erasure-coded fragments of the values on the successors instead of k full copies (see
+     * {@link ErasureCoder}): the owner keeps the value, and its n + p first successors hold one
+     * fragment each, from which any n rebuild the value once the owner has failed. A value then
+     * survives the failure of p + 1 of the nodes holding it, for (n + p) / n times its size on the
+     * successors instead of k times. While the ring is too small for every fragment to be on a
+     * distinct node, the values are copied in full. Must be called before starting the node, with
+     * the same code on every node of the ring.
+     *
+     * @param dataFragments   The number n of data fragments, or 0 to copy the values in full
+     * @param parityFragments The number p of parity fragments
+     */
+    public void setErasureCoding(int dataFragments, int parityFragments) {
+        if (dataFragments == 0) {
+            this.erasureCoder = null;
+            return;
+        }
+        if (dataFragments + parityFragments > this.r) {
+            throw new IllegalArgumentException(String.format("%s fragments need r >= %s, got r=%s",
+                    dataFragments + parityFragments, dataFragments + parityFragments, this.r));
+        }
+        this.erasureCoder = new ErasureCoder(dataFragments, parityFragments);
+    }
+
+    /**
+     * Limit the background data movement (transfers to joining nodes and re-replication).
+     *
+     * @param maxBytesPerSecond      The maximum number of bytes per second, or 0 for no limit
+     * @param maxOpsPerSecond        The maximum number of operations per second, or 0 for no limit
+     * @param foregroundTargetMicros The mean latency of the user requests above which the data
+     *                               movement backs off, or 0 to disable the adaptive backoff
+     */
+    public void setBackgroundRateLimit(long maxBytesPerSecond, long maxOpsPerSecond, long foregroundTargetMicros) {
+        this.backgroundThrottle.setLimits(maxBytesPerSecond, maxOpsPerSecond, foregroundTargetMicros);
     }
 
     // ========================================
@@ -549,12 +2362,25 @@ public class ChordNode extends Thread {
     public void run() {
         logger.info("Started node {}:{} [chordID={}]", this.host, this.port, this.chordID);
 
-        var serverExecutor = Executors.newSingleThreadExecutor();
+        // Export metrics
+        try {
+            MetricsMBean.register(this.metrics, this.nodeAddress);
+            if (this.metricsPort >= 0) {
+                new MetricsHttpServer(this.metrics, this.host, this.metricsPort).start();
+            }
+        } catch (Exception e) {
+            logger.error("Cannot export metrics: {}", e.getMessage());
+        }
 
         // Run RPC server routine
-        serverExecutor.execute(new RPCServer(this.port, 10, this));
+        this.transport.listen(this.host, this.port, this);
+
+        // Reads of the fragments to rebuild, apart from the routines: the caller reads itself once the queue is full
+        this.fragmentReads = new ThreadPoolExecutor(this.r, this.r, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(FRAGMENT_READ_QUEUE_CAPACITY), new ThreadPoolExecutor.CallerRunsPolicy());
 
         var scheduledExecutor = Executors.newScheduledThreadPool(6);
+        this.routines = scheduledExecutor;
 
         var routineDelay = 1;
 
@@ -586,7 +2412,7 @@ public class ChordNode extends Thread {
             } catch (Exception e) {
                 e.printStackTrace();
             }
-        }, 3, routineDelay, TimeUnit.SECONDS);
+        }, 3000, FAILURE_CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
 
         // Run check successor routine
         // scheduledExecutor.scheduleWithFixedDelay(this::dhtCheckSuccessor, 4, 2, TimeUnit.SECONDS);
@@ -596,7 +2422,7 @@ public class ChordNode extends Thread {
             } catch (Exception e) {
                 e.printStackTrace();
             }
-        }, 4, routineDelay, TimeUnit.SECONDS);
+        }, 4000, FAILURE_CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
 
         // Run fix successor list routine
         // scheduledExecutor.scheduleWithFixedDelay(this::dhtFixSuccessorList, 5, 2, TimeUnit.SECONDS);
@@ -618,6 +2444,37 @@ public class ChordNode extends Thread {
             }
         }, 6, 5, TimeUnit.SECONDS);
 
+        // Run background join routine
+        if (this.pullSource.get() != null) {
+            scheduledExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    this.dhtPull();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, 1, routineDelay, TimeUnit.SECONDS);
+        }
+
+        // Run expiration routine
+        scheduledExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                this.dhtExpire();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, EXPIRATION_TICK_MILLIS, EXPIRATION_TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Run snapshot routine
+        if (this.dataDirectory != null) {
+            scheduledExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    this.dhtSnapshot();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }, SNAPSHOT_PERIOD_SECONDS, SNAPSHOT_PERIOD_SECONDS, TimeUnit.SECONDS);
+        }
+
         // dump
         scheduledExecutor.scheduleWithFixedDelay(() -> {
             try {
@@ -637,11 +2494,12 @@ public class ChordNode extends Thread {
         var header = String.format("[NODE %s@%s:%s]", this.chordID, this.host, this.port);
         var line = "-".repeat(header.length());
         var pred = String.format("Predecessor: %s", this.predecessorAddress);
-        var succ = String.format("Successors: %s", this.successorList);
+        var routing = this.routing.get();
+        var succ = String.format("Successors: %s", routing.getSuccessors());
         var fingers = String.format("Fingers:\n%s",
                 IntStream.range(0, this.m).mapToObj(i -> {
                     var fingerIndex = this.chordID.add(BigInteger.valueOf(2).pow(i)).mod(BigInteger.valueOf(2).pow(this.m));
-                    var fingerAddress = this.finger.get(i);
+                    var fingerAddress = routing.getFinger(i);
                     return String.format("|%3d --> %s |", fingerIndex, fingerAddress);
                 }).collect(Collectors.joining("\n"))
         );
@@ -1,5 +1,10 @@
 package dht.chord;
 
+import dht.chord.rpc.FrameCodec;
+import dht.chord.rpc.ReplicationOutbox;
+import dht.chord.storage.WriteAheadLog;
+import dht.chord.utils.KeyHasher;
+import dht.chord.utils.PhiAccrualFailureDetector;
 import org.apache.commons.cli.*;
 
 public class EntryPoint {
@@ -14,6 +19,28 @@ public class EntryPoint {
     private static final String PORT = "p";
     private static final int PORT_DEFAULT = 7777;
     private static final String BOOTSTRAP_ADDRESS = "b";
+    private static final String METRICS_PORT = "s";
+    private static final String TRACE_SAMPLE_RATE = "t";
+    private static final double TRACE_SAMPLE_RATE_DEFAULT = 0.01;
+    private static final String READ_CACHE_SIZE = "c";
+    private static final int READ_CACHE_SIZE_DEFAULT = 0;
+    private static final String READ_CACHE_TTL = "l";
+    private static final String BACKGROUND_BYTES = "w";
+    private static final int BACKGROUND_BYTES_DEFAULT = 4096;
+    private static final String BACKGROUND_OPS = "o";
+    private static final int BACKGROUND_OPS_DEFAULT = 2000;
+    private static final String DATA_DIRECTORY = "d";
+    private static final String COMPRESSION_THRESHOLD = "z";
+    private static final String DURABILITY = "a";
+    private static final String FLUSH_INTERVAL = "i";
+    private static final String BATCH_SIZE = "g";
+    private static final String FAILURE_THRESHOLD = "f";
+    private static final String BACKGROUND_JOIN = "j";
+    private static final String KEY_HASHER = "x";
+    private static final String REPLICATION_LINGER = "e";
+    private static final String CHAIN_REPLICATION = "n";
+    private static final String ERASURE_CODING = "u";
+    private static final long FOREGROUND_LATENCY_TARGET_MICROS = 20000;
 
     public static void main(String[] args) {
         var parser = new DefaultParser();
@@ -46,6 +73,93 @@ public class EntryPoint {
                 port = ((Number) commandLine.getParsedOptionValue(PORT)).intValue();
             }
 
+            var metricsPort = -1;
+            if (commandLine.hasOption(METRICS_PORT)) {
+                metricsPort = ((Number) commandLine.getParsedOptionValue(METRICS_PORT)).intValue();
+            }
+
+            var traceSampleRate = TRACE_SAMPLE_RATE_DEFAULT;
+            if (commandLine.hasOption(TRACE_SAMPLE_RATE)) {
+                traceSampleRate = ((Number) commandLine.getParsedOptionValue(TRACE_SAMPLE_RATE)).doubleValue();
+            }
+
+            var readCacheSize = READ_CACHE_SIZE_DEFAULT;
+            if (commandLine.hasOption(READ_CACHE_SIZE)) {
+                readCacheSize = ((Number) commandLine.getParsedOptionValue(READ_CACHE_SIZE)).intValue();
+            }
+
+            var readCacheTtl = ChordNode.READ_CACHE_TTL_DEFAULT;
+            if (commandLine.hasOption(READ_CACHE_TTL)) {
+                readCacheTtl = ((Number) commandLine.getParsedOptionValue(READ_CACHE_TTL)).longValue();
+            }
+
+            var backgroundBytes = BACKGROUND_BYTES_DEFAULT;
+            if (commandLine.hasOption(BACKGROUND_BYTES)) {
+                backgroundBytes = ((Number) commandLine.getParsedOptionValue(BACKGROUND_BYTES)).intValue();
+            }
+
+            var backgroundOps = BACKGROUND_OPS_DEFAULT;
+            if (commandLine.hasOption(BACKGROUND_OPS)) {
+                backgroundOps = ((Number) commandLine.getParsedOptionValue(BACKGROUND_OPS)).intValue();
+            }
+
+            var dataDirectory = commandLine.getOptionValue(DATA_DIRECTORY);
+
+            var compressionThreshold = FrameCodec.THRESHOLD_DEFAULT;
+            if (commandLine.hasOption(COMPRESSION_THRESHOLD)) {
+                compressionThreshold = ((Number) commandLine.getParsedOptionValue(COMPRESSION_THRESHOLD)).intValue();
+            }
+
+            WriteAheadLog.Durability durability = null;
+            if (commandLine.hasOption(DURABILITY)) {
+                try {
+                    durability = WriteAheadLog.Durability.valueOf(commandLine.getOptionValue(DURABILITY).toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new ParseException("Unknown durability: " + commandLine.getOptionValue(DURABILITY));
+                }
+            }
+
+            var flushInterval = WriteAheadLog.FLUSH_INTERVAL_DEFAULT_MICROS;
+            if (commandLine.hasOption(FLUSH_INTERVAL)) {
+                flushInterval = ((Number) commandLine.getParsedOptionValue(FLUSH_INTERVAL)).longValue();
+            }
+
+            var batchSize = WriteAheadLog.BATCH_SIZE_DEFAULT;
+            if (commandLine.hasOption(BATCH_SIZE)) {
+                batchSize = ((Number) commandLine.getParsedOptionValue(BATCH_SIZE)).intValue();
+            }
+
+            var failureThreshold = PhiAccrualFailureDetector.THRESHOLD_DEFAULT;
+            if (commandLine.hasOption(FAILURE_THRESHOLD)) {
+                failureThreshold = ((Number) commandLine.getParsedOptionValue(FAILURE_THRESHOLD)).doubleValue();
+            }
+
+            var keyHasher = KeyHasher.DEFAULT;
+            if (commandLine.hasOption(KEY_HASHER)) {
+                try {
+                    keyHasher = KeyHasher.of(commandLine.getOptionValue(KEY_HASHER));
+                } catch (IllegalArgumentException e) {
+                    throw new ParseException(e.getMessage());
+                }
+            }
+
+            var replicationLinger = ReplicationOutbox.LINGER_DEFAULT_MICROS;
+            if (commandLine.hasOption(REPLICATION_LINGER)) {
+                replicationLinger = ((Number) commandLine.getParsedOptionValue(REPLICATION_LINGER)).longValue();
+            }
+
+            var dataFragments = 0;
+            var parityFragments = 0;
+            if (commandLine.hasOption(ERASURE_CODING)) {
+                var fragments = commandLine.getOptionValue(ERASURE_CODING).split(",");
+                try {
+                    dataFragments = Integer.parseInt(fragments[0]);
+                    parityFragments = Integer.parseInt(fragments[1]);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new ParseException("Invalid erasure code: " + commandLine.getOptionValue(ERASURE_CODING));
+                }
+            }
+
             if (commandLine.hasOption(BOOTSTRAP_ADDRESS)) {
                 var bootstrapAddress = commandLine.getOptionValue(BOOTSTRAP_ADDRESS);
                 var bootstrapHost = bootstrapAddress.split(":")[0];
@@ -53,22 +167,65 @@ public class EntryPoint {
 
                 // Start a normal node
                 var node = new ChordNode(host, port, m, r, k);
+                node.setMetricsPort(metricsPort);
+                node.setTraceSampleRate(traceSampleRate);
+                node.setReadCache(readCacheSize * 1024L, readCacheTtl);
+                node.setBackgroundRateLimit(backgroundBytes * 1024L, backgroundOps, FOREGROUND_LATENCY_TARGET_MICROS);
+                node.setCompressionThreshold(compressionThreshold);
+                node.setFailureThreshold(failureThreshold);
+                node.setKeyHasher(keyHasher);
+                node.setReplicationBatching(replicationLinger, ReplicationOutbox.BATCH_SIZE_DEFAULT);
+                node.setChainReplication(commandLine.hasOption(CHAIN_REPLICATION));
+                node.setErasureCoding(dataFragments, parityFragments);
+                node.setBackgroundJoin(commandLine.hasOption(BACKGROUND_JOIN));
+                if (dataDirectory != null) node.setDataDirectory(dataDirectory);
+                if (durability != null) node.setWriteAheadLog(durability, flushInterval, batchSize);
                 node.dhtJoin(bootstrapHost, bootstrapPort);
-                node.start();
+                runUntilLeave(node);
             } else {
 
                 // Start a bootstrap node
                 var node = new ChordNode(host, port, m, r, k);
+                node.setMetricsPort(metricsPort);
+                node.setTraceSampleRate(traceSampleRate);
+                node.setReadCache(readCacheSize * 1024L, readCacheTtl);
+                node.setBackgroundRateLimit(backgroundBytes * 1024L, backgroundOps, FOREGROUND_LATENCY_TARGET_MICROS);
+                node.setCompressionThreshold(compressionThreshold);
+                node.setFailureThreshold(failureThreshold);
+                node.setKeyHasher(keyHasher);
+                node.setReplicationBatching(replicationLinger, ReplicationOutbox.BATCH_SIZE_DEFAULT);
+                node.setChainReplication(commandLine.hasOption(CHAIN_REPLICATION));
+                node.setErasureCoding(dataFragments, parityFragments);
+                if (dataDirectory != null) node.setDataDirectory(dataDirectory);
+                if (durability != null) node.setWriteAheadLog(durability, flushInterval, batchSize);
                 node.dhtCreate();
-                node.start();
+                runUntilLeave(node);
             }
         } catch (ParseException e) {
             System.out.println(e.getMessage());
             new HelpFormatter().printHelp("dht-chord", options);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
         }
 
     }
 
+    /**
+     * Start the node and exit once it has left the ring, either when asked by a SHUT_DOWN message
+     * or when the process is terminated.
+     */
+    private static void runUntilLeave(ChordNode node) {
+        Runtime.getRuntime().addShutdownHook(new Thread(node::dhtLeave));
+        node.start();
+        try {
+            node.awaitLeave();
+        } catch (InterruptedException e) {
+            return;
+        }
+        System.exit(0);
+    }
+
     private static Options prepareOptions() {
         var options = new Options();
 
@@ -106,6 +263,100 @@ public class EntryPoint {
                 .hasArg()
                 .build());
 
+        options.addOption(Option.builder(METRICS_PORT)
+                .desc("Port of the local HTTP metrics endpoint. (default=disabled)")
+                .type(Number.class)
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(TRACE_SAMPLE_RATE)
+                .desc(String.format("Fraction of the lookups to trace. (default=%s)", TRACE_SAMPLE_RATE_DEFAULT))
+                .type(Number.class)
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(READ_CACHE_SIZE)
+                .desc(String.format("Size (in KB) of the cache of remotely owned values. (default=%s, disabled)", READ_CACHE_SIZE_DEFAULT))
+                .type(Number.class)
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(READ_CACHE_TTL)
+                .desc(String.format("TTL (in ms) of the cached values. Must be the same on every node. (default=%s)", ChordNode.READ_CACHE_TTL_DEFAULT))
+                .type(Number.class)
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(BACKGROUND_BYTES)
+                .desc(String.format("Rate limit (in KB/s) of the background data movement, 0 for none. (default=%s)", BACKGROUND_BYTES_DEFAULT))
+                .type(Number.class)
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(BACKGROUND_OPS)
+                .desc(String.format("Rate limit (in keys/s) of the background data movement, 0 for none. (default=%s)", BACKGROUND_OPS_DEFAULT))
+                .type(Number.class)
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(DATA_DIRECTORY)
+                .desc("Directory of the snapshots, reloaded on restart. (default=none, no snapshots)")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(COMPRESSION_THRESHOLD)
+                .desc(String.format("Size (in bytes) above which bulk transfers are compressed, 0 for never. (default=%s)", FrameCodec.THRESHOLD_DEFAULT))
+                .type(Number.class)
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(DURABILITY)
+                .desc("Write-ahead log of the writes in the data directory: sync, group or async. (default=none)")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(FLUSH_INTERVAL)
+                .desc(String.format("Time (in us) a write waits for its group commit, or between syncs in async mode. (default=%s)", WriteAheadLog.FLUSH_INTERVAL_DEFAULT_MICROS))
+                .type(Number.class)
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(BATCH_SIZE)
+                .desc(String.format("Maximum number of writes in a group commit. (default=%s)", WriteAheadLog.BATCH_SIZE_DEFAULT))
+                .type(Number.class)
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(BACKGROUND_JOIN)
+                .desc("Join at once and pull the range of the node in the background. (default=wait for the transfer)")
+                .build());
+
+        options.addOption(Option.builder(FAILURE_THRESHOLD)
+                .desc(String.format("Suspicion level (phi) above which a neighbour is considered failed. (default=%s)", PhiAccrualFailureDetector.THRESHOLD_DEFAULT))
+                .type(Number.class)
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(KEY_HASHER)
+                .desc(String.format("Hasher of the keys, the same on every node: sha1, murmur3 or xxhash. (default=%s)", KeyHasher.DEFAULT.getName()))
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(CHAIN_REPLICATION)
+                .desc("Replicate the writes along the successor list instead of from the owner. (default=from the owner)")
+                .build());
+
+        options.addOption(Option.builder(ERASURE_CODING)
+                .desc("Store <data>,<parity> erasure-coded fragments of the values on the successors instead of k copies. Needs r >= data + parity. (default=k copies)")
+                .hasArg()
+                .build());
+
+        options.addOption(Option.builder(REPLICATION_LINGER)
+                .desc(String.format("Time (in us) a replica store waits to be batched with others to the same node. (default=%s)", ReplicationOutbox.LINGER_DEFAULT_MICROS))
+                .type(Number.class)
+                .hasArg()
+                .build());
+
         return options;
     }
 }
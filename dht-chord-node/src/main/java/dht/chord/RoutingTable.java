@@ -0,0 +1,81 @@
+package dht.chord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable snapshot of the routing state of a node: its finger table and its successor list. The
+ * maintenance routines publish a new snapshot for every change, so that lookups read a consistent
+ * view of both without taking any lock, however many of them run at the same time.
+ */
+final class RoutingTable {
+    private final String[] fingers;
+    private final List<String> successors;
+
+    private RoutingTable(String[] fingers, List<String> successors) {
+        this.fingers = fingers;
+        this.successors = successors;
+    }
+
+    /**
+     * @param m The size (in bits) of the id space, which is the number of fingers
+     * @return A routing table without fingers nor successors
+     */
+    static RoutingTable empty(int m) {
+        return new RoutingTable(new String[m], Collections.emptyList());
+    }
+
+    /**
+     * @param i The index of the finger
+     * @return The address of the finger, or null if it is not fixed yet
+     */
+    String getFinger(int i) {
+        return this.fingers[i];
+    }
+
+    /**
+     * @return The successor list, which cannot be modified
+     */
+    List<String> getSuccessors() {
+        return this.successors;
+    }
+
+    /**
+     * @return The first successor, or null if the node is not part of a ring yet
+     */
+    String getSuccessor() {
+        return this.successors.isEmpty() ? null : this.successors.get(0);
+    }
+
+    /**
+     * @param i       The index of the finger
+     * @param address The new address of the finger
+     * @return A copy of this table with the finger replaced
+     */
+    RoutingTable withFinger(int i, String address) {
+        var fingers = this.fingers.clone();
+        fingers[i] = address;
+        return new RoutingTable(fingers, this.successors);
+    }
+
+    /**
+     * @param replace The function giving the new address of every finger
+     * @return A copy of this table with all the fingers replaced
+     */
+    RoutingTable withFingers(UnaryOperator<String> replace) {
+        var fingers = this.fingers.clone();
+        Arrays.setAll(fingers, i -> fingers[i] == null ? null : replace.apply(fingers[i]));
+        return new RoutingTable(fingers, this.successors);
+    }
+
+    /**
+     * @param successors The new successor list
+     * @return A copy of this table with the successor list replaced
+     */
+    RoutingTable withSuccessors(List<String> successors) {
+        return new RoutingTable(this.fingers, Collections.unmodifiableList(new ArrayList<>(successors)));
+    }
+}
@@ -0,0 +1,475 @@
+package dht.chord;
+
+import dht.chord.exceptions.NodeBusyException;
+import dht.chord.exceptions.NodeFailException;
+import dht.chord.metrics.Histogram;
+import dht.chord.rpc.InMemoryTransport;
+import dht.chord.storage.ErasureCoder;
+import dht.chord.storage.Fragment;
+import dht.chord.utils.ChordUtils;
+import dht.chord.utils.VirtualClock;
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a whole Chord ring inside one JVM, on top of an InMemoryTransport and a VirtualClock. The
+ * nodes are never started: the simulator runs their routines itself, one round per virtual second,
+ * following a churn script. Every line of the script is a command:
+ * <pre>
+ * join &lt;n&gt; [&lt;rate&gt;]        n new nodes join the ring, at most rate per second
+ * fail &lt;n&gt;                   n random nodes crash
+ * leave &lt;n&gt;                  n random nodes leave gracefully
+ * run &lt;seconds&gt;             run the routines of all the nodes
+ * converge &lt;max_seconds&gt;    run until every successor and predecessor is correct
+ * put &lt;n&gt;                    store n random keys through random nodes
+ * lookup &lt;n&gt;                 trace n lookups of random ids from random nodes
+ * check                      look for keys which are not stored by any live node
+ * latency &lt;us&gt; &lt;jitter_us&gt;  set the one-way network latency
+ * loss &lt;rate&gt;                set the message loss probability
+ * partition &lt;fraction&gt;      isolate a fraction of the nodes from the others
+ * heal                       remove all the partitions
+ * report                     print the collected statistics
+ * </pre>
+ */
+public class Simulator {
+    private static final String M = "m";
+    private static final int M_DEFAULT = 32;
+    private static final String R = "r";
+    private static final int R_DEFAULT = 3;
+    private static final String K = "k";
+    private static final int K_DEFAULT = 1;
+    private static final String SEED = "seed";
+    private static final long SEED_DEFAULT = 42;
+    private static final String CHAIN = "chain";
+    private static final String ERASURE_CODING = "ec";
+    private static final int PORT = 7777;
+    private static final int REPLICATION_PERIOD = 5;
+    private static final int JOIN_ATTEMPTS = 10;
+
+    private static final String DEFAULT_SCRIPT = String.join("\n",
+            "latency 500 200",
+            "join 1000 5",
+            "converge 600",
+            "put 5000",
+            "lookup 5000",
+            "fail 20",
+            "converge 600",
+            "run 10",
+            "check",
+            "leave 20",
+            "converge 600",
+            "run 10",
+            "check",
+            "join 100 5",
+            "converge 600",
+            "run 10",
+            "check",
+            "lookup 5000",
+            "report");
+
+    private final int m;
+    private final int r;
+    private final int k;
+    private final Random random;
+    private final VirtualClock clock;
+    private final InMemoryTransport transport;
+
+    private final List<ChordNode> nodes = new ArrayList<>();
+    private final TreeMap<BigInteger, ChordNode> ring = new TreeMap<>();
+    private final Map<BigInteger, String> keys = new HashMap<>();
+    private final Set<BigInteger> lostKeys = new HashSet<>();
+    private int nextHost;
+    private long rounds;
+
+    private final Histogram lookupLatency = new Histogram();
+    private final Histogram lookupHops = new Histogram();
+    private final Histogram putLatency = new Histogram();
+    private final List<Long> convergenceTimes = new ArrayList<>();
+    private long failedJoins;
+    private long failedLookups;
+    private long wrongLookups;
+    private long dataLossEvents;
+    private boolean chainReplication;
+    private ErasureCoder erasureCoder;
+
+    public Simulator(int m, int r, int k, long seed) {
+        this.m = m;
+        this.r = r;
+        this.k = k;
+        this.random = new Random(seed);
+        this.clock = new VirtualClock();
+        this.transport = new InMemoryTransport(this.clock, seed);
+    }
+
+    /**
+     * @param chainReplication Whether the nodes replicate the writes along the successor list
+     */
+    public void setChainReplication(boolean chainReplication) {
+        this.chainReplication = chainReplication;
+    }
+
+    /**
+     * @param dataFragments   The number of data fragments of the values, or 0 to copy them in full
+     * @param parityFragments The number of parity fragments of the values
+     */
+    public void setErasureCoding(int dataFragments, int parityFragments) {
+        this.erasureCoder = dataFragments > 0 ? new ErasureCoder(dataFragments, parityFragments) : null;
+    }
+
+    // ========================================
+    // Script
+    // ========================================
+
+    public void run(List<String> script) {
+        for (var line : script) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            var args = line.split("\\s+");
+            print("> %s", line);
+            switch (args[0]) {
+                case "join":
+                    this.join(Integer.parseInt(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE);
+                    break;
+                case "fail":
+                    this.fail(Integer.parseInt(args[1]));
+                    break;
+                case "leave":
+                    this.leave(Integer.parseInt(args[1]));
+                    break;
+                case "run":
+                    this.runRounds(Long.parseLong(args[1]));
+                    break;
+                case "converge":
+                    this.converge(Long.parseLong(args[1]));
+                    break;
+                case "put":
+                    this.put(Integer.parseInt(args[1]));
+                    break;
+                case "lookup":
+                    this.lookup(Integer.parseInt(args[1]));
+                    break;
+                case "check":
+                    this.check();
+                    break;
+                case "latency":
+                    this.transport.setLatency(Long.parseLong(args[1]), Long.parseLong(args[2]));
+                    break;
+                case "loss":
+                    this.transport.setLossRate(Double.parseDouble(args[1]));
+                    break;
+                case "partition":
+                    this.partition(Double.parseDouble(args[1]));
+                    break;
+                case "heal":
+                    this.transport.healPartitions();
+                    break;
+                case "report":
+                    this.report();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command: " + args[0]);
+            }
+        }
+    }
+
+    // ========================================
+    // Commands
+    // ========================================
+
+    private void join(int n, int rate) {
+        var attempted = 0;
+        while (attempted < n) {
+            var host = String.format("10.%s.%s.%s", (this.nextHost >> 16) & 255, (this.nextHost >> 8) & 255, this.nextHost & 255);
+            this.nextHost++;
+            var chordID = ChordUtils.hostPortToChordID(host, PORT, this.m);
+            if (this.ring.containsKey(chordID)) continue;
+
+            if (attempted > 0 && attempted % rate == 0) {
+                this.round();
+            }
+            attempted++;
+
+            var node = new ChordNode(host, PORT, this.m, this.r, this.k, this.transport, this.clock);
+            node.setChainReplication(this.chainReplication);
+            if (this.erasureCoder != null) {
+                node.setErasureCoding(this.erasureCoder.getDataFragments(), this.erasureCoder.getParityFragments());
+            }
+            this.transport.listen(host, PORT, node);
+            if (this.nodes.isEmpty()) {
+                node.dhtCreate();
+            } else if (!this.tryJoin(node)) {
+                this.transport.close(host, PORT);
+                this.failedJoins++;
+                continue;
+            }
+            this.nodes.add(node);
+            this.ring.put(chordID, node);
+        }
+        print("%s nodes (%s failed joins)", this.nodes.size(), this.failedJoins);
+    }
+
+    /**
+     * Join through random bootstrap nodes, since lookups can fail while the fingers still point to
+     * crashed nodes.
+     *
+     * @param node The joining node
+     * @return true if the node has joined
+     */
+    private boolean tryJoin(ChordNode node) {
+        for (int attempt = 0; attempt < JOIN_ATTEMPTS; attempt++) {
+            var bootstrap = this.randomNode();
+            var joined = new boolean[1];
+            this.as(node, () -> {
+                try {
+                    node.dhtTryJoin(host(bootstrap), PORT);
+                    joined[0] = true;
+                } catch (NodeFailException e) {
+                    joined[0] = false;
+                }
+            });
+            if (joined[0]) return true;
+        }
+        return false;
+    }
+
+    private void fail(int n) {
+        for (int i = 0; i < n && this.nodes.size() > 1; i++) {
+            var node = this.nodes.remove(this.random.nextInt(this.nodes.size()));
+            this.ring.remove(node.getChordID());
+            this.transport.close(host(node), PORT);
+        }
+        print("%s nodes", this.nodes.size());
+    }
+
+    private void leave(int n) {
+        for (int i = 0; i < n && this.nodes.size() > 1; i++) {
+            var node = this.nodes.remove(this.random.nextInt(this.nodes.size()));
+            this.ring.remove(node.getChordID());
+            this.as(node, node::dhtLeave);
+        }
+        print("%s nodes", this.nodes.size());
+    }
+
+    private void runRounds(long seconds) {
+        for (long i = 0; i < seconds; i++) {
+            this.round();
+        }
+    }
+
+    private void converge(long maxSeconds) {
+        var start = this.clock.millis();
+        for (long i = 0; i < maxSeconds && !this.isConverged(); i++) {
+            this.round();
+        }
+        var elapsed = this.clock.millis() - start;
+        if (this.isConverged()) {
+            this.convergenceTimes.add(elapsed);
+            print("Converged in %s s", elapsed / 1000);
+        } else {
+            print("Not converged after %s s", elapsed / 1000);
+        }
+    }
+
+    private void put(int n) {
+        for (int i = 0; i < n; i++) {
+            var id = new BigInteger(this.m, this.random);
+            var value = Base64.getEncoder().encodeToString(UUID.randomUUID().toString().getBytes());
+            var node = this.randomNode();
+            this.clock.resetElapsed();
+            var start = this.clock.nanoTime();
+            this.as(node, () -> {
+                try {
+                    node.dhtPut(id, value);
+                } catch (NodeBusyException e) {
+                    // The in-memory transport never sheds requests
+                }
+            });
+            this.putLatency.record((this.clock.nanoTime() - start) / 1000);
+            this.keys.put(id, value);
+        }
+    }
+
+    private void lookup(int n) {
+        for (int i = 0; i < n; i++) {
+            var id = new BigInteger(this.m, this.random);
+            var node = this.randomNode();
+            this.clock.resetElapsed();
+            var start = this.clock.nanoTime();
+            this.as(node, () -> {
+                var trace = node.dhtTraceSuccessor(id);
+                if (trace == null) {
+                    this.failedLookups++;
+                    return;
+                }
+                this.lookupLatency.record((this.clock.nanoTime() - start) / 1000);
+                this.lookupHops.record(trace.getHopCount());
+                if (!trace.getAddress().equals(this.trueSuccessor(id).getNodeAddress())) {
+                    this.wrongLookups++;
+                }
+            });
+        }
+    }
+
+    private void check() {
+        var lost = 0;
+        for (var id : this.keys.keySet()) {
+            if (this.lostKeys.contains(id)) continue;
+
+            // A key survives with a full copy, or with enough fragments to rebuild it
+            var copies = this.nodes.stream()
+                    .flatMap(x -> Stream.of(x.getDb().get(id), x.getDbReplicas().get(id)))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+            var stored = copies.stream().anyMatch(x -> !Fragment.isFragment(x))
+                    || (this.erasureCoder != null && !copies.isEmpty() && Fragment.decode(this.erasureCoder, copies) != null);
+            if (!stored) {
+                this.lostKeys.add(id);
+                this.dataLossEvents++;
+                lost++;
+            }
+        }
+        print("%s keys lost (%s in total)", lost, this.lostKeys.size());
+    }
+
+    private void partition(double fraction) {
+        for (var node : this.nodes) {
+            if (this.random.nextDouble() < fraction) {
+                this.transport.setPartition(host(node), PORT, 1);
+            }
+        }
+    }
+
+    private void report() {
+        print("=".repeat(60));
+        print("Nodes:              %s", this.nodes.size());
+        print("Virtual time:       %s s (%s rounds)", this.clock.millis() / 1000, this.rounds);
+        print("Lookups:            %s (failed=%s, wrong=%s)", this.lookupLatency.getCount(), this.failedLookups, this.wrongLookups);
+        print("Lookup latency:     p50=%sus p90=%sus p99=%sus max=%sus", this.lookupLatency.getPercentile(50),
+                this.lookupLatency.getPercentile(90), this.lookupLatency.getPercentile(99), this.lookupLatency.getMax());
+        print("Lookup hops:        mean=%.2f p50=%s p99=%s max=%s", this.lookupHops.getMean(),
+                this.lookupHops.getPercentile(50), this.lookupHops.getPercentile(99), this.lookupHops.getMax());
+        print("Put latency:        p50=%sus p99=%sus max=%sus", this.putLatency.getPercentile(50),
+                this.putLatency.getPercentile(99), this.putLatency.getMax());
+        print("Convergence times:  %s s", this.convergenceTimes.stream().map(x -> x / 1000).collect(Collectors.toList()));
+        print("Keys:               %s (lost=%s, loss events=%s)", this.keys.size(), this.lostKeys.size(), this.dataLossEvents);
+        print("=".repeat(60));
+    }
+
+    // ========================================
+    // Utils
+    // ========================================
+
+    /**
+     * Run the routines of every live node once, in random order, then advance the clock by one
+     * second.
+     */
+    private void round() {
+        var order = new ArrayList<>(this.nodes);
+        Collections.shuffle(order, this.random);
+        var replicate = this.rounds % REPLICATION_PERIOD == 0;
+        for (var node : order) {
+            this.clock.resetElapsed();
+            this.as(node, () -> {
+                routine(node::dhtStabilize);
+                routine(node::dhtCheckPredecessor);
+                routine(node::dhtCheckSuccessor);
+                routine(node::dhtFixFingers);
+                routine(node::dhtFixSuccessorList);
+                if (replicate) routine(node::dhtFixReplication);
+            });
+        }
+        this.clock.resetElapsed();
+        this.clock.advance(1000);
+        this.rounds++;
+    }
+
+    private boolean isConverged() {
+        var sorted = new ArrayList<>(this.ring.values());
+        for (int i = 0; i < sorted.size(); i++) {
+            var node = sorted.get(i);
+            var successor = sorted.get((i + 1) % sorted.size());
+            var predecessor = sorted.get((i - 1 + sorted.size()) % sorted.size());
+            if (!node.getSuccessorList().get(0).equals(successor.getNodeAddress())) return false;
+            if (sorted.size() > 1 && !predecessor.getNodeAddress().equals(node.getPredecessorAddress())) return false;
+        }
+        return true;
+    }
+
+    private ChordNode trueSuccessor(BigInteger id) {
+        var entry = this.ring.ceilingEntry(id);
+        return entry == null ? this.ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    private ChordNode randomNode() {
+        return this.nodes.get(this.random.nextInt(this.nodes.size()));
+    }
+
+    private void as(ChordNode node, Runnable action) {
+        InMemoryTransport.runAs(host(node), PORT, action);
+    }
+
+    private static void routine(Runnable routine) {
+        try {
+            routine.run();
+        } catch (Exception e) {
+            // Routines of a node may fail while its neighbours are crashing, as in a real ring
+        }
+    }
+
+    private static String host(ChordNode node) {
+        return ChordUtils.extractHost(node.getNodeAddress());
+    }
+
+    private static void print(String format, Object... args) {
+        System.out.println(String.format(format, args));
+    }
+
+    // ========================================
+    // Main
+    // ========================================
+
+    public static void main(String[] args) throws IOException {
+
+        // Thousands of nodes failing to reach crashed neighbours would flood the console
+        System.setProperty("log4j.configurationFile", "log4j2-simulator.properties");
+
+        var parser = new DefaultParser();
+        var options = new Options();
+        options.addOption(Option.builder(M).desc(String.format("Size (in bits) of the Chord id space. (default=%s)", M_DEFAULT)).type(Number.class).hasArg().build());
+        options.addOption(Option.builder(R).desc(String.format("Size of the successor list. (default=%s)", R_DEFAULT)).type(Number.class).hasArg().build());
+        options.addOption(Option.builder(K).desc(String.format("Replication factor. (default=%s)", K_DEFAULT)).type(Number.class).hasArg().build());
+        options.addOption(Option.builder(SEED).desc(String.format("Random seed. (default=%s)", SEED_DEFAULT)).type(Number.class).hasArg().build());
+        options.addOption(Option.builder(CHAIN).desc("Replicate the writes along the successor list.").build());
+        options.addOption(Option.builder(ERASURE_CODING).desc("Store <data>,<parity> erasure-coded fragments instead of full copies.").hasArg().build());
+        try {
+            var commandLine = parser.parse(options, args);
+            var m = commandLine.hasOption(M) ? ((Number) commandLine.getParsedOptionValue(M)).intValue() : M_DEFAULT;
+            var r = commandLine.hasOption(R) ? ((Number) commandLine.getParsedOptionValue(R)).intValue() : R_DEFAULT;
+            var k = commandLine.hasOption(K) ? ((Number) commandLine.getParsedOptionValue(K)).intValue() : K_DEFAULT;
+            var seed = commandLine.hasOption(SEED) ? ((Number) commandLine.getParsedOptionValue(SEED)).longValue() : SEED_DEFAULT;
+            var script = commandLine.getArgList().isEmpty()
+                    ? Arrays.asList(DEFAULT_SCRIPT.split("\n"))
+                    : Files.readAllLines(Paths.get(commandLine.getArgList().get(0)));
+
+
+            var simulator = new Simulator(m, r, k, seed);
+            simulator.setChainReplication(commandLine.hasOption(CHAIN));
+            if (commandLine.hasOption(ERASURE_CODING)) {
+                var fragments = commandLine.getOptionValue(ERASURE_CODING).split(",");
+                simulator.setErasureCoding(Integer.parseInt(fragments[0]), Integer.parseInt(fragments[1]));
+            }
+            simulator.run(script);
+        } catch (ParseException e) {
+            System.out.println(e.getMessage());
+            new HelpFormatter().printHelp("dht-chord-simulator [script]", options);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package dht.chord.exceptions;
+
+/**
+ * Thrown when a request sent directly to a node is refused because the node is not responsible for
+ * the key. The exception carries the address of the actual owner.
+ */
+public class KeyMovedException extends Exception {
+    private final String ownerAddress;
+
+    public KeyMovedException(String ownerAddress) {
+        super(ownerAddress);
+        this.ownerAddress = ownerAddress;
+    }
+
+    public String getOwnerAddress() {
+        return ownerAddress;
+    }
+}
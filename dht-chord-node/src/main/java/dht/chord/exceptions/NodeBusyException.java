@@ -0,0 +1,12 @@
+package dht.chord.exceptions;
+
+/**
+ * Thrown when a node keeps refusing a request because it is overloaded. The node is alive, so
+ * callers should back off rather than consider it failed.
+ */
+public class NodeBusyException extends NodeFailException {
+
+    public NodeBusyException(String message) {
+        super(message);
+    }
+}
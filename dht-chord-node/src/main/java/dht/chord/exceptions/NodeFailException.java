@@ -5,4 +5,8 @@ public class NodeFailException extends Exception {
     public NodeFailException(String message) {
         super(message);
     }
+
+    public NodeFailException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,138 @@
+package dht.chord.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram with log-linear buckets (HDR-style). Every power of two is split into
+ * 2^SUB_BUCKET_BITS linear sub-buckets, which bounds the relative error of any reported value
+ * to about 6%. Recording a value only allocates the first time, when the buckets are created.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private volatile AtomicLongArray buckets;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value. Negative values are recorded as 0.
+     *
+     * @param value The value to record
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        this.buckets().incrementAndGet(bucketIndex(value));
+        this.count.increment();
+        this.sum.add(value);
+        var current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        var n = this.getCount();
+        return n == 0 ? 0 : (double) this.getSum() / n;
+    }
+
+    /**
+     * Compute the value at the given percentile. The result is the upper bound of the bucket which
+     * contains the percentile, capped by the maximum recorded value.
+     *
+     * @param percentile The percentile in [0, 100]
+     * @return The value at the percentile or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        var buckets = this.buckets;
+        if (buckets == null) return 0;
+
+        var total = 0L;
+        var counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+
+        var rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total);
+        if (rank == 0) rank = 1;
+        var seen = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), this.getMax());
+            }
+        }
+        return this.getMax();
+    }
+
+    /**
+     * Reset all the recorded values. Concurrent recordings may be partially lost.
+     */
+    public void reset() {
+        var buckets = this.buckets;
+        if (buckets != null) {
+            for (int i = 0; i < BUCKET_COUNT; i++) buckets.set(i, 0);
+        }
+        this.count.reset();
+        this.sum.reset();
+        this.max.set(0);
+    }
+
+    /**
+     * Get the buckets, allocating them on the first recording only. Nodes register many histograms
+     * and most of them stay empty, so allocating them eagerly would waste memory when many nodes
+     * share a JVM.
+     *
+     * @return The buckets
+     */
+    private AtomicLongArray buckets() {
+        var buckets = this.buckets;
+        if (buckets == null) {
+            synchronized (this) {
+                if (this.buckets == null) {
+                    this.buckets = new AtomicLongArray(BUCKET_COUNT);
+                }
+                buckets = this.buckets;
+            }
+        }
+        return buckets;
+    }
+
+    static int bucketIndex(long value) {
+        var exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent < SUB_BUCKET_BITS) {
+            return (int) value;
+        }
+        var shift = exponent - SUB_BUCKET_BITS;
+        var subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        var shift = index / SUB_BUCKET_COUNT - 1;
+        var subBucket = index % SUB_BUCKET_COUNT;
+        var lower = (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,92 @@
+package dht.chord.metrics;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Path followed by a traced FIND_SUCCESSOR lookup. Each hop holds the id of the node that handled
+ * the lookup and the time (in microseconds) the node spent on it, including the time spent waiting
+ * for the next hops. The first hop is the originator, the last one is the node which resolved the
+ * successor.
+ * Wire format is:
+ * <successor_address> <chord_id>:<elapsed_us>,...,<chord_id>:<elapsed_us>
+ */
+public class LookupTrace {
+    private final String address;
+    private final List<BigInteger> hopIDs;
+    private final List<Long> hopElapsed;
+
+    public LookupTrace(String address) {
+        this.address = address;
+        this.hopIDs = new ArrayList<>();
+        this.hopElapsed = new ArrayList<>();
+    }
+
+    /**
+     * Add a hop in front of the path, as done by each node when the response travels back.
+     *
+     * @param chordID        The id of the node
+     * @param elapsedMicros  The time spent by the node on the lookup
+     */
+    public void prependHop(BigInteger chordID, long elapsedMicros) {
+        this.hopIDs.add(0, chordID);
+        this.hopElapsed.add(0, elapsedMicros);
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public List<BigInteger> getHopIDs() {
+        return hopIDs;
+    }
+
+    /**
+     * @return The number of remote hops, i.e. the number of FIND_SUCCESSOR requests that were sent
+     */
+    public int getHopCount() {
+        return Math.max(0, this.hopIDs.size() - 1);
+    }
+
+    /**
+     * @return The total time of the lookup as seen by the originator
+     */
+    public long getTotalMicros() {
+        return this.hopElapsed.isEmpty() ? 0 : this.hopElapsed.get(0);
+    }
+
+    /**
+     * Get the latency attributed to a single hop: the time spent by the node minus the time spent by
+     * the next node, i.e. the local processing plus the round trip to the next node.
+     *
+     * @param i The hop index
+     * @return The hop latency in microseconds
+     */
+    public long getHopMicros(int i) {
+        var next = i + 1 < this.hopElapsed.size() ? this.hopElapsed.get(i + 1) : 0;
+        return this.hopElapsed.get(i) - next;
+    }
+
+    public static LookupTrace parse(String message) {
+        var parts = message.split(" ");
+        var trace = new LookupTrace(parts[0]);
+        if (parts.length > 1) {
+            for (var hop : parts[1].split(",")) {
+                trace.hopIDs.add(new BigInteger(hop.split(":")[0]));
+                trace.hopElapsed.add(Long.parseLong(hop.split(":")[1]));
+            }
+        }
+        return trace;
+    }
+
+    @Override
+    public String toString() {
+        var hops = new ArrayList<String>();
+        for (int i = 0; i < this.hopIDs.size(); i++) {
+            hops.add(this.hopIDs.get(i) + ":" + this.hopElapsed.get(i));
+        }
+        return hops.isEmpty() ? this.address : this.address + " " + hops.stream().collect(Collectors.joining(","));
+    }
+}
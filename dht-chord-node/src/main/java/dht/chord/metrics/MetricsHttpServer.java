@@ -0,0 +1,53 @@
+package dht.chord.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal HTTP endpoint serving the metrics of a registry as plain text, one "<name> <value>" pair
+ * per line, at "/metrics".
+ */
+public class MetricsHttpServer {
+    private final MetricsRegistry registry;
+    private final String host;
+    private final int port;
+    private HttpServer server;
+
+    private final Logger logger = LogManager.getLogger(MetricsHttpServer.class);
+
+    public MetricsHttpServer(MetricsRegistry registry, String host, int port) {
+        this.registry = registry;
+        this.host = host;
+        this.port = port;
+    }
+
+    public void start() throws IOException {
+        logger.info("Starting metrics endpoint on http://{}:{}/metrics", this.host, this.port);
+
+        this.server = HttpServer.create(new InetSocketAddress(this.host, this.port), 0);
+        this.server.createContext("/metrics", exchange -> {
+            var body = new StringBuilder();
+            this.registry.snapshot().forEach((name, value) -> body.append(name).append(' ').append(value).append('\n'));
+            var bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (var out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        this.server.setExecutor(Executors.newSingleThreadExecutor());
+        this.server.start();
+    }
+
+    public void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+        }
+    }
+}
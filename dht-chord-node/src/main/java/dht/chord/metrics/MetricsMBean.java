@@ -0,0 +1,72 @@
+package dht.chord.metrics;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Dynamic MBean exposing every metric of a registry as a read-only attribute. Attributes are
+ * computed from a fresh snapshot on every request, so metrics registered after the MBean are
+ * visible too.
+ */
+public class MetricsMBean implements DynamicMBean {
+    private final MetricsRegistry registry;
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Register the registry in the platform MBean server as "dht.chord:type=Metrics,node=<name>".
+     *
+     * @param registry The registry to expose
+     * @param nodeName The name of the node (e.g. its address)
+     * @throws JMException if the registration fails
+     */
+    public static void register(MetricsRegistry registry, String nodeName) throws JMException {
+        var name = new ObjectName(String.format("dht.chord:type=Metrics,node=%s", ObjectName.quote(nodeName)));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(registry), name);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        var value = this.registry.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        var snapshot = this.registry.snapshot();
+        var list = new AttributeList();
+        for (var attribute : attributes) {
+            var value = snapshot.get(attribute);
+            if (value != null) list.add(new Attribute(attribute, value));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        var attributes = this.registry.snapshot().entrySet().stream()
+                .map(x -> new MBeanAttributeInfo(x.getKey(), x.getValue().getClass().getName(), x.getKey(), true, false, false))
+                .toArray(MBeanAttributeInfo[]::new);
+        return new MBeanInfo(MetricsMBean.class.getName(), "DHT Chord node metrics", attributes, null, null, null);
+    }
+}
@@ -0,0 +1,86 @@
+package dht.chord.metrics;
+
+import dht.chord.rpc.RPCMessage;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the metrics of a node. Counters, histograms and gauges are identified by a dotted
+ * name (e.g. "rpc.server.latency.GET"). Metrics are meant to be looked up once and kept in a field,
+ * so that recording on the request path is a plain lock-free update.
+ */
+public class MetricsRegistry {
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private final Map<RPCMessage, Histogram> rpcServerLatency = new EnumMap<>(RPCMessage.class);
+    private final Map<RPCMessage, Histogram> rpcClientLatency = new EnumMap<>(RPCMessage.class);
+
+    public MetricsRegistry() {
+        for (var type : RPCMessage.values()) {
+            this.rpcServerLatency.put(type, this.histogram("rpc.server.latency." + type.name()));
+            this.rpcClientLatency.put(type, this.histogram("rpc.client.latency." + type.name()));
+        }
+    }
+
+    public LongAdder counter(String name) {
+        return this.counters.computeIfAbsent(name, x -> new LongAdder());
+    }
+
+    public Histogram histogram(String name) {
+        return this.histograms.computeIfAbsent(name, x -> new Histogram());
+    }
+
+    public void gauge(String name, LongSupplier supplier) {
+        this.gauges.put(name, supplier);
+    }
+
+    /**
+     * Get the histogram of the time (in microseconds) spent by this node to handle a message type.
+     *
+     * @param type The message type
+     * @return The latency histogram
+     */
+    public Histogram rpcServerLatency(RPCMessage type) {
+        return this.rpcServerLatency.get(type);
+    }
+
+    /**
+     * Get the histogram of the round-trip time (in microseconds) of the requests sent by this node.
+     *
+     * @param type The message type
+     * @return The latency histogram
+     */
+    public Histogram rpcClientLatency(RPCMessage type) {
+        return this.rpcClientLatency.get(type);
+    }
+
+    /**
+     * Take a flat, name-sorted view of all the metrics. Each histogram is expanded into its count,
+     * mean, p50, p90, p99, p999 and max values. Empty histograms are skipped.
+     *
+     * @return A map from metric name to value
+     */
+    public Map<String, Number> snapshot() {
+        var snapshot = new TreeMap<String, Number>();
+        this.counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        this.gauges.forEach((name, gauge) -> snapshot.put(name, gauge.getAsLong()));
+        this.histograms.forEach((name, histogram) -> {
+            if (histogram.getCount() == 0) return;
+            snapshot.put(name + ".count", histogram.getCount());
+            snapshot.put(name + ".mean", histogram.getMean());
+            snapshot.put(name + ".p50", histogram.getPercentile(50));
+            snapshot.put(name + ".p90", histogram.getPercentile(90));
+            snapshot.put(name + ".p99", histogram.getPercentile(99));
+            snapshot.put(name + ".p999", histogram.getPercentile(99.9));
+            snapshot.put(name + ".max", histogram.getMax());
+        });
+        return snapshot;
+    }
+}
@@ -0,0 +1,69 @@
+package dht.chord.rpc;
+
+import dht.chord.metrics.MetricsRegistry;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of requests of each class handled at the same time by a server. User requests
+ * may block on other nodes for a long time (e.g. a PUT waiting for the owner), so they are not
+ * allowed to take all the handler threads: the remaining ones keep serving the ring maintenance
+ * and the requests forwarded by other nodes, which is what lets the overload resolve.
+ */
+public class AdmissionControl {
+
+    public enum RequestClass {
+        USER,   // Requests issued by clients (and the peer requests which block like them)
+        PEER    // Requests issued by other nodes
+    }
+
+    private final Map<RequestClass, Semaphore> permits = new EnumMap<>(RequestClass.class);
+    private final Map<RequestClass, LongAdder> shed = new EnumMap<>(RequestClass.class);
+
+    /**
+     * @param userLimit The maximum number of user requests handled at the same time
+     * @param peerLimit The maximum number of peer requests handled at the same time
+     * @param metrics   The registry where the rpc.server.shed.* counters are registered
+     */
+    public AdmissionControl(int userLimit, int peerLimit, MetricsRegistry metrics) {
+        this.permits.put(RequestClass.USER, new Semaphore(userLimit));
+        this.permits.put(RequestClass.PEER, new Semaphore(peerLimit));
+        for (var requestClass : RequestClass.values()) {
+            this.shed.put(requestClass, metrics.counter("rpc.server.shed." + requestClass.name()));
+        }
+    }
+
+    /**
+     * Try to admit a request. Admitted requests must be released once handled.
+     *
+     * @param requestClass The class of the request
+     * @return true if the request is admitted, false if it must be answered with BUSY
+     */
+    public boolean tryAcquire(RequestClass requestClass) {
+        if (this.permits.get(requestClass).tryAcquire()) {
+            return true;
+        }
+        this.shed.get(requestClass).increment();
+        return false;
+    }
+
+    public void release(RequestClass requestClass) {
+        this.permits.get(requestClass).release();
+    }
+
+    public static RequestClass classify(RPCMessage type) {
+        switch (type) {
+            case PUT:
+            case GET:
+            case DELETE:
+            case SCAN:
+            case CHAIN_STORE:   // Blocks on the next successor of the chain like a user request
+                return RequestClass.USER;
+            default:
+                return RequestClass.PEER;
+        }
+    }
+}
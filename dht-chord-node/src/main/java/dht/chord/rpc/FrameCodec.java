@@ -0,0 +1,215 @@
+package dht.chord.rpc;
+
+import dht.chord.metrics.MetricsRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the bulk messages (transfers, handoffs, replica stores and digests), whose decimal ids and
+ * Base64 values compress well. A bulk message is sent in a frame:
+ * <pre>
+ * Z0 &lt;message&gt;                  uncompressed
+ * Z1 &lt;type|-&gt; &lt;deflated_message&gt;  compressed with Deflate and a preset dictionary, then Base64
+ * </pre>
+ * The type of a compressed request is kept in clear, so that it can be dispatched to its lane
+ * without being decompressed.
+ * Compression is negotiated: a framed request tells the node that the sender understands frames,
+ * so the node frames its answer, compressing it if it is larger than its threshold. The sender only
+ * compresses its own requests to nodes which answered with a frame. Control messages and messages
+ * under the threshold are never compressed.
+ */
+public class FrameCodec {
+    public static final int THRESHOLD_DEFAULT = 512;
+    private static final int LEVEL = Deflater.BEST_SPEED;
+
+    private static final String UNCOMPRESSED = "Z0";
+    private static final String COMPRESSED = "Z1";
+    private static final Set<RPCMessage> BULK = EnumSet.of(
+            RPCMessage.STORE, RPCMessage.STORE_BATCH, RPCMessage.CHAIN_STORE, RPCMessage.DIGEST, RPCMessage.TRANSFER, RPCMessage.TRANSFER_SINCE, RPCMessage.FETCH,
+            RPCMessage.HANDOFF);
+    private static final Set<String> TYPES = Arrays.stream(RPCMessage.values())
+            .map(Enum::name)
+            .collect(Collectors.toSet());
+
+    // Deflate looks back for matches in the dictionary, the most frequent strings go last
+    private static final byte[] DICTIONARY = String.join(" ",
+            "OK NULL ERROR BUSY DELTA", RPCMessage.TRANSFER_SINCE.name(), RPCMessage.HANDOFF.name(),
+            RPCMessage.TRANSFER.name(), RPCMessage.STORE.name(),
+            "==", "=:", "@localhost:", "0123456789", "10000", "20000", "30000", "40000", "50000", "60000",
+            "70000", "80000", "90000", ":-", "= 1", "= 2", "= 3", "= 4", "= 5", "= 6", "= 7", "= 8", "= 9"
+    ).getBytes(StandardCharsets.US_ASCII);
+
+    private final ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(() -> new Deflater(LEVEL, true));
+    private final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(() -> new Inflater(true));
+    private final Map<String, Boolean> peers = new ConcurrentHashMap<>();
+    private volatile int threshold;
+
+    private final LongAdder rawBytes;
+    private final LongAdder compressedBytes;
+
+    /**
+     * @param threshold The size (in characters) above which bulk messages are compressed, or 0 to
+     *                  never compress
+     * @param metrics   The registry where the rpc.compression.* metrics are registered
+     */
+    public FrameCodec(int threshold, MetricsRegistry metrics) {
+        this.threshold = threshold;
+        this.rawBytes = metrics.counter("rpc.compression.raw.bytes");
+        this.compressedBytes = metrics.counter("rpc.compression.compressed.bytes");
+        metrics.gauge("rpc.compression.ratio.permille", () -> {
+            var raw = this.rawBytes.sum();
+            return raw == 0 ? 0 : this.compressedBytes.sum() * 1000 / raw;
+        });
+    }
+
+    public static boolean isBulk(RPCMessage type) {
+        return BULK.contains(type);
+    }
+
+    public static boolean isFramed(String message) {
+        return message.startsWith(UNCOMPRESSED + " ") || message.startsWith(COMPRESSED + " ");
+    }
+
+    /**
+     * @param token The first token of a message
+     * @return Whether it starts a frame, the type of the message being the next token
+     */
+    public static boolean isFrameHeader(String token) {
+        return token.equals(UNCOMPRESSED) || token.equals(COMPRESSED);
+    }
+
+    /**
+     * @param message A message, framed or not
+     * @return The first token of the message, i.e. the name of its type
+     */
+    public static String typeOf(String message) {
+        var args = message.split(" ", 3);
+        return isFramed(message) && args.length > 1 ? args[1] : args[0];
+    }
+
+    // ==============================
+    // Client side
+    // ==============================
+
+    /**
+     * Frame a request of a bulk type, compressing it if the node is known to understand frames.
+     *
+     * @param host    The host of the node
+     * @param port    The port of the node
+     * @param message The request
+     * @return The request to send
+     */
+    public String encodeRequest(String host, int port, String message) {
+        if (this.threshold <= 0) {
+            return message;
+        }
+        return this.encode(message, this.peers.containsKey(host + ":" + port));
+    }
+
+    /**
+     * Unframe the answer to a bulk request, remembering whether the node understands frames.
+     *
+     * @param host     The host of the node
+     * @param port     The port of the node
+     * @param response The answer
+     * @return The unframed answer
+     */
+    public String decodeResponse(String host, int port, String response) {
+        if (isFramed(response)) {
+            this.peers.put(host + ":" + port, Boolean.TRUE);
+        }
+        return this.decode(response);
+    }
+
+    // ==============================
+    // Codec
+    // ==============================
+
+    /**
+     * @param message  The message
+     * @param compress Whether the message may be compressed, if larger than the threshold
+     * @return The framed message
+     */
+    public String encode(String message, boolean compress) {
+        var threshold = this.threshold;
+        if (!compress || threshold <= 0 || message.length() < threshold) {
+            return UNCOMPRESSED + " " + message;
+        }
+
+        var raw = message.getBytes(StandardCharsets.UTF_8);
+        var deflater = this.deflater.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(raw);
+        deflater.finish();
+        var out = new ByteArrayOutputStream(raw.length / 2 + 64);
+        var buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        var encoded = Base64.getEncoder().encodeToString(out.toByteArray());
+
+        // Incompressible values: Base64 would make the message larger
+        if (encoded.length() >= message.length()) {
+            return UNCOMPRESSED + " " + message;
+        }
+        this.rawBytes.add(message.length());
+        this.compressedBytes.add(encoded.length());
+        var type = typeOf(message);
+        return COMPRESSED + " " + (TYPES.contains(type) ? type : "-") + " " + encoded;
+    }
+
+    /**
+     * @param frame A message, framed or not
+     * @return The message without its frame
+     * @throws IllegalArgumentException if the compressed message is corrupted
+     */
+    public String decode(String frame) {
+        if (frame.startsWith(UNCOMPRESSED + " ")) {
+            return frame.substring(UNCOMPRESSED.length() + 1);
+        }
+        if (!frame.startsWith(COMPRESSED + " ")) {
+            return frame;
+        }
+
+        var compressed = Base64.getDecoder().decode(frame.substring(frame.indexOf(' ', COMPRESSED.length() + 1) + 1));
+        var inflater = this.inflater.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(compressed);
+        var out = new ByteArrayOutputStream(compressed.length * 4);
+        var buffer = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                var length = inflater.inflate(buffer);
+                if (length == 0 && inflater.needsInput()) {
+                    throw new IllegalArgumentException("Truncated frame");
+                }
+                out.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted frame: " + e.getMessage());
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param threshold The size (in characters) above which bulk messages are compressed, or 0 to
+     *                  never compress
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+}
@@ -0,0 +1,152 @@
+package dht.chord.rpc;
+
+import dht.chord.ChordNode;
+import dht.chord.exceptions.NodeFailException;
+import dht.chord.utils.Clock;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transport delivering the messages inside the JVM, by invoking the handler of the target node on
+ * the calling thread. It can simulate network latency (by sleeping on the given clock), message
+ * loss and partitions. The same instance must be shared by all the nodes of a ring.
+ */
+public class InMemoryTransport implements Transport {
+    private static final ThreadLocal<String> CURRENT_SOURCE = new ThreadLocal<>();
+
+    private final Clock clock;
+    private final Random random;
+    private final Map<String, RPCHandler> handlers = new ConcurrentHashMap<>();
+    private final Map<String, Integer> partitions = new ConcurrentHashMap<>();
+
+    private volatile long latencyMicros;
+    private volatile long jitterMicros;
+    private volatile double lossRate;
+
+    public InMemoryTransport(Clock clock, long seed) {
+        this.clock = clock;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public String send(String host, int port, String message) throws NodeFailException {
+        var target = String.format("%s:%s", host, port);
+        var handler = this.handlers.get(target);
+        if (handler == null || this.isLost() || !this.isReachable(target)) {
+            this.delay();
+            throw new NodeFailException(target);
+        }
+        this.delay();
+        var previous = CURRENT_SOURCE.get();
+        CURRENT_SOURCE.set(target);
+        try {
+            return handler.handleMessage(message);
+        } finally {
+            CURRENT_SOURCE.set(previous);
+            this.delay();
+        }
+    }
+
+    @Override
+    public void listen(String host, int port, ChordNode node) {
+        this.handlers.put(String.format("%s:%s", host, port), new RPCHandler(null, node));
+    }
+
+    /**
+     * Stop delivering messages to a node. Requests are handled on the calling thread, so there is
+     * nothing to drain: this is also how the simulator crashes a node.
+     *
+     * @param host The host of the node
+     * @param port The port of the node
+     */
+    @Override
+    public void close(String host, int port) {
+        this.handlers.remove(String.format("%s:%s", host, port));
+    }
+
+    /**
+     * Run an action on behalf of a node, so that partitions can tell where its messages come from.
+     * Messages sent while handling a request keep the address of the node handling it.
+     *
+     * @param host   The host of the node
+     * @param port   The port of the node
+     * @param action The action to run
+     */
+    public static void runAs(String host, int port, Runnable action) {
+        var previous = CURRENT_SOURCE.get();
+        CURRENT_SOURCE.set(String.format("%s:%s", host, port));
+        try {
+            action.run();
+        } finally {
+            CURRENT_SOURCE.set(previous);
+        }
+    }
+
+    /**
+     * Set the one-way latency of every message.
+     *
+     * @param latencyMicros The base latency
+     * @param jitterMicros  The maximum random latency added to the base latency
+     */
+    public void setLatency(long latencyMicros, long jitterMicros) {
+        this.latencyMicros = latencyMicros;
+        this.jitterMicros = jitterMicros;
+    }
+
+    /**
+     * @param lossRate The probability in [0, 1] of a request to be lost
+     */
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * Assign a node to a partition. Nodes can only reach nodes of the same partition, and nodes
+     * without a partition are in partition 0.
+     *
+     * @param host      The host of the node
+     * @param port      The port of the node
+     * @param partition The partition number
+     */
+    public void setPartition(String host, int port, int partition) {
+        this.partitions.put(String.format("%s:%s", host, port), partition);
+    }
+
+    public void healPartitions() {
+        this.partitions.clear();
+    }
+
+    private boolean isReachable(String target) {
+        if (this.partitions.isEmpty()) {
+            return true;
+        }
+        var source = CURRENT_SOURCE.get();
+        return source == null || this.partitions.getOrDefault(source, 0).equals(this.partitions.getOrDefault(target, 0));
+    }
+
+    private boolean isLost() {
+        return this.lossRate > 0 && this.nextDouble() < this.lossRate;
+    }
+
+    private void delay() {
+        var latency = this.latencyMicros;
+        if (this.jitterMicros > 0) {
+            latency += (long) (this.nextDouble() * this.jitterMicros);
+        }
+        if (latency > 0) {
+            try {
+                this.clock.sleepMicros(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private double nextDouble() {
+        synchronized (this.random) {
+            return this.random.nextDouble();
+        }
+    }
+}
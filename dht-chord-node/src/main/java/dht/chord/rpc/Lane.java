@@ -0,0 +1,42 @@
+package dht.chord.rpc;
+
+/**
+ * Lanes of the RPC server. Each lane has its own threads and queue, so that the ring maintenance
+ * and the routing keep flowing while the data lane is saturated by a bulk load. Lookups have their
+ * own lane since they block on the next hop: they never take the threads answering the pings.
+ */
+public enum Lane {
+    CONTROL,    // Liveness and ring maintenance: PING, NOTIFY, GET_PREDECESSOR, GET_SUCCESSOR_LIST, GET_CONFIG, SHUT_DOWN
+    ROUTING,    // Lookups: FIND_SUCCESSOR
+    DATA;       // Everything else
+
+    public static Lane of(RPCMessage type) {
+        switch (type) {
+            case PING:
+            case NOTIFY:
+            case GET_PREDECESSOR:
+            case GET_SUCCESSOR_LIST:
+            case GET_CONFIG:
+            case SHUT_DOWN:
+                return CONTROL;
+            case FIND_SUCCESSOR:
+                return ROUTING;
+            default:
+                return DATA;
+        }
+    }
+
+    /**
+     * Classify a raw message by the name of its type.
+     *
+     * @param type The first token of a message (see {@link FrameCodec#typeOf})
+     * @return The lane of the message, DATA if the message type is unknown
+     */
+    public static Lane of(String type) {
+        try {
+            return of(RPCMessage.valueOf(type));
+        } catch (IllegalArgumentException e) {
+            return DATA;
+        }
+    }
+}
@@ -1,41 +1,193 @@
 package dht.chord.rpc;
 
+import dht.chord.exceptions.KeyMovedException;
+import dht.chord.exceptions.NodeBusyException;
 import dht.chord.exceptions.NodeFailException;
+import dht.chord.metrics.LookupTrace;
+import dht.chord.metrics.MetricsRegistry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.PrintWriter;
 import java.math.BigInteger;
-import java.net.Socket;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class RPCClient {
+    public static final String DELETED = "-";
+    private static final int BUSY_RETRIES = 3;
+    private static final long BUSY_BACKOFF_MILLIS = 20;
+
+    private MetricsRegistry metrics;
+    private LongAdder failures;
+    private LongAdder busy;
+    private Transport transport;
+    private FrameCodec codec;
+    private Consumer<String> responseListener;
+
     private final Logger logger = LogManager.getLogger(RPCClient.class);
 
+    public RPCClient() {
+        this(new MetricsRegistry());
+    }
+
+    public RPCClient(MetricsRegistry metrics) {
+        this(metrics, new TcpTransport());
+    }
+
+    public RPCClient(MetricsRegistry metrics, Transport transport) {
+        this(metrics, transport, new FrameCodec(FrameCodec.THRESHOLD_DEFAULT, metrics));
+    }
+
+    public RPCClient(MetricsRegistry metrics, Transport transport, FrameCodec codec) {
+        this.metrics = metrics;
+        this.transport = transport;
+        this.codec = codec;
+        this.failures = metrics.counter("rpc.client.failures");
+        this.busy = metrics.counter("rpc.client.busy");
+    }
+
+    /**
+     * @param responseListener Called with the host:port of a node each time it responds, e.g. to
+     *                         feed a failure detector
+     */
+    public void setResponseListener(Consumer<String> responseListener) {
+        this.responseListener = responseListener;
+    }
+
     // ==============================
     // User interface
     // ==============================
 
     public void put(String host, int port, BigInteger keyID, String value) throws NodeFailException {
+        this.put(host, port, keyID, value, 0);
+    }
+
+    /**
+     * Execute a PUT request with a TTL.
+     *
+     * @param host      The target host
+     * @param port      The target port
+     * @param keyID     The key id
+     * @param value     The value
+     * @param ttlMillis The time to live of the value, or 0 if it does not expire
+     * @throws NodeFailException if the target node has failed
+     */
+    public void put(String host, int port, BigInteger keyID, String value, long ttlMillis) throws NodeFailException {
         logger.debug("PUT");
 
         var message = String.format("%s %s %s", RPCMessage.PUT.name(), keyID, value);
-        this.sendMessage(host, port, message);
+        if (ttlMillis > 0) message += " TTL " + ttlMillis;
+        this.sendMessage(host, port, RPCMessage.PUT, message);
     }
 
     public String get(String host, int port, BigInteger keyID) throws NodeFailException {
         logger.debug("GET");
 
         var message = String.format("%s %s", RPCMessage.GET.name(), keyID);
-        return this.sendMessage(host, port, message);
+        return this.sendMessage(host, port, RPCMessage.GET, message);
+    }
+
+    /**
+     * Execute a GET request on behalf of a node which caches the value. The owner of the key will
+     * send an INVALIDATE message to the reader when the key is written.
+     *
+     * @param host          The target host
+     * @param port          The target port
+     * @param keyID         The key id
+     * @param readerAddress The address of the caching node
+     * @return The value
+     * @throws NodeFailException if the target node has failed
+     */
+    public String get(String host, int port, BigInteger keyID, String readerAddress) throws NodeFailException {
+        logger.debug("GET (cache)");
+
+        var message = String.format("%s %s CACHE %s", RPCMessage.GET.name(), keyID, readerAddress);
+        return this.sendMessage(host, port, RPCMessage.GET, message);
     }
 
     public void delete(String host, int port, BigInteger keyID) throws NodeFailException {
         logger.debug("DELETE");
 
         var message = String.format("%s %s", RPCMessage.DELETE.name(), keyID);
-        this.sendMessage(host, port, message);
+        this.sendMessage(host, port, RPCMessage.DELETE, message);
+    }
+
+    /**
+     * Execute a PUT request on a node believed to be the owner of the key. The node refuses the
+     * request instead of routing it if it is not the owner.
+     *
+     * @param host  The target host
+     * @param port  The target port
+     * @param keyID The key id
+     * @param value The value
+     * @throws NodeFailException if the target node has failed
+     * @throws KeyMovedException if the target node is not the owner of the key
+     */
+    public void putDirect(String host, int port, BigInteger keyID, String value) throws NodeFailException, KeyMovedException {
+        this.putDirect(host, port, keyID, value, 0);
+    }
+
+    public void putDirect(String host, int port, BigInteger keyID, String value, long ttlMillis) throws NodeFailException, KeyMovedException {
+        logger.debug("PUT (direct)");
+
+        var message = String.format("%s %s %s DIRECT", RPCMessage.PUT.name(), keyID, value);
+        if (ttlMillis > 0) message += " TTL " + ttlMillis;
+        checkMoved(this.sendMessage(host, port, RPCMessage.PUT, message));
+    }
+
+    public String getDirect(String host, int port, BigInteger keyID) throws NodeFailException, KeyMovedException {
+        logger.debug("GET (direct)");
+
+        var message = String.format("%s %s DIRECT", RPCMessage.GET.name(), keyID);
+        return checkMoved(this.sendMessage(host, port, RPCMessage.GET, message));
+    }
+
+    public void deleteDirect(String host, int port, BigInteger keyID) throws NodeFailException, KeyMovedException {
+        logger.debug("DELETE (direct)");
+
+        var message = String.format("%s %s DIRECT", RPCMessage.DELETE.name(), keyID);
+        checkMoved(this.sendMessage(host, port, RPCMessage.DELETE, message));
+    }
+
+    /**
+     * Scan the keys of an id range in ring order. The pages are fetched lazily, from the owners of
+     * the range.
+     *
+     * @param host  The host of the node used to find the owners of the range
+     * @param port  The port of the node used to find the owners of the range
+     * @param start The first id of the range, or the cursor of a previous scan
+     * @param end   The last id of the range (inclusive)
+     * @param limit The maximum number of keys to return, or 0 for no limit
+     * @return The scan
+     */
+    public RangeScan scan(String host, int port, BigInteger start, BigInteger end, long limit) {
+        return new RangeScan(this, host, port, start, end, limit);
+    }
+
+    /**
+     * Execute a SCAN request, returning the keys of the range stored by the target node.
+     *
+     * @param host  The target host
+     * @param port  The target port
+     * @param start The first id to scan
+     * @param end   The last id of the range (inclusive)
+     * @param limit The maximum number of keys in the page
+     * @return The page
+     * @throws NodeFailException if the target node has failed
+     * @throws KeyMovedException if the target node is not the owner of the start id
+     */
+    public ScanPage scanPage(String host, int port, BigInteger start, BigInteger end, int limit) throws NodeFailException, KeyMovedException {
+        logger.debug("Scan {} {}", start, end);
+
+        var message = String.format("%s %s %s %s", RPCMessage.SCAN.name(), start, end, limit);
+        var response = checkMoved(this.sendMessage(host, port, RPCMessage.SCAN, message));
+        if (response == null || response.startsWith(RPCMessage.ERROR.name())) {
+            throw new NodeFailException(String.format("Scan failed at %s:%s", host, port));
+        }
+        return ScanPage.parse(response);
     }
 
     // ==============================
@@ -55,25 +207,227 @@ public class RPCClient {
         logger.debug("Transfer {}", id);
 
         var message = String.format("%s %s", RPCMessage.TRANSFER.name(), id);
-        var response = this.sendMessage(host, port, message);
+        var response = this.sendMessage(host, port, RPCMessage.TRANSFER, message);
         return response == null ? new HashMap<>() : Arrays.stream(response.split(" ")).collect(Collectors.toMap(
                 x -> new BigInteger(x.split(":")[0]),
                 x -> x.split(":")[1]
         ));
     }
 
+    /**
+     * Execute a FETCH request, returning the copies stored by the target node in an id range.
+     *
+     * @param host  The target host
+     * @param port  The target port
+     * @param start The first id of the range
+     * @param end   The last id of the range (inclusive), equal to the start for a single key
+     * @param limit The maximum number of keys in the page
+     * @return The page, whose cursor is where the next page starts
+     * @throws NodeFailException if the target node has failed
+     */
+    public ScanPage fetch(String host, int port, BigInteger start, BigInteger end, int limit) throws NodeFailException {
+        logger.debug("Fetch {} {}", start, end);
+
+        var message = String.format("%s %s %s %s", RPCMessage.FETCH.name(), start, end, limit);
+        var response = this.sendMessage(host, port, RPCMessage.FETCH, message);
+        if (response == null || response.startsWith(RPCMessage.ERROR.name())) {
+            throw new NodeFailException(String.format("Fetch failed at %s:%s", host, port));
+        }
+        return ScanPage.parse(response);
+    }
+
+    /**
+     * Get the keys changed since a watermark, as done by a node rejoining with a snapshot.
+     *
+     * @param id        The chord id of the joining node
+     * @param watermark The time (in milliseconds) since which the changes are needed
+     * @return The changed keys, deleted keys having a null value, or null if the node does not know
+     * all the changes made since the watermark
+     */
+    public Map<BigInteger, String> transferSince(String host, int port, BigInteger id, long watermark) throws NodeFailException {
+        logger.debug("Transfer {} since {}", id, watermark);
+
+        var message = String.format("%s %s %s", RPCMessage.TRANSFER_SINCE.name(), id, watermark);
+        var response = this.sendMessage(host, port, RPCMessage.TRANSFER_SINCE, message);
+        if (response == null) {
+            return null;
+        }
+        var changes = new HashMap<BigInteger, String>();
+        var entries = response.split(" ");
+        for (int i = 1; i < entries.length; i++) {
+            var entry = entries[i].split(":");
+            changes.put(new BigInteger(entry[0]), entry[1].equals(DELETED) ? null : entry[1]);
+        }
+        return changes;
+    }
+
+    /**
+     * Hand the given keys over to a node, which becomes their owner.
+     */
+    public void handoff(String host, int port, Map<BigInteger, String> entries) throws NodeFailException {
+        logger.debug("HANDOFF {} keys to {}:{}", entries.size(), host, port);
+
+        var message = entries.entrySet().stream()
+                .map(x -> " " + x.getKey() + ":" + x.getValue())
+                .collect(Collectors.joining("", RPCMessage.HANDOFF.name(), ""));
+        this.sendMessage(host, port, RPCMessage.HANDOFF, message);
+    }
+
+    /**
+     * Ask a node to leave the ring.
+     */
+    public void shutDown(String host, int port) throws NodeFailException {
+        logger.debug("SHUT_DOWN {}:{}", host, port);
+
+        this.sendMessage(host, port, RPCMessage.SHUT_DOWN, RPCMessage.SHUT_DOWN.name());
+    }
+
+    /**
+     * Tell a neighbour of a leaving node to splice it out of the ring.
+     *
+     * @param leavingAddress     The address of the leaving node
+     * @param predecessorAddress The predecessor of the leaving node, or null if unknown
+     * @param successorAddress   The successor of the leaving node
+     */
+    public void splice(String host, int port, String leavingAddress, String predecessorAddress, String successorAddress) throws NodeFailException {
+        logger.debug("Splice {} out of {}:{}", leavingAddress, host, port);
+
+        var message = String.format("%s %s %s %s", RPCMessage.SHUT_DOWN.name(), leavingAddress,
+                predecessorAddress == null ? RPCMessage.NULL.name() : predecessorAddress, successorAddress);
+        this.sendMessage(host, port, RPCMessage.SHUT_DOWN, message);
+    }
+
     public void store(String host, int port, BigInteger keyID, String value) throws NodeFailException {
         logger.debug("STORE {} at {}:{}", keyID, host, port);
 
         var message = String.format("%s %s %s", RPCMessage.STORE.name(), keyID, value);
-        this.sendMessage(host, port, message);
+        this.sendMessage(host, port, RPCMessage.STORE, message);
+    }
+
+    /**
+     * Remove the copy of a key stored on a node, owned or replica.
+     *
+     * @param host  The target host
+     * @param port  The target port
+     * @param keyID The key id
+     * @throws NodeFailException if the target node has failed
+     */
+    public void remove(String host, int port, BigInteger keyID) throws NodeFailException {
+        logger.debug("REMOVE {} at {}:{}", keyID, host, port);
+
+        var message = String.format("%s %s", RPCMessage.REMOVE.name(), keyID);
+        this.sendMessage(host, port, RPCMessage.REMOVE, message);
+    }
+
+    /**
+     * Store several values on a node at once, in the given order.
+     *
+     * @param host    The target host
+     * @param port    The target port
+     * @param entries The key ids and their stored values
+     * @throws NodeFailException if the target node has failed
+     */
+    public void storeBatch(String host, int port, List<Map.Entry<BigInteger, String>> entries) throws NodeFailException {
+        logger.debug("STORE_BATCH {} keys at {}:{}", entries.size(), host, port);
+
+        var message = entries.stream()
+                .map(x -> " " + x.getKey() + ":" + x.getValue())
+                .collect(Collectors.joining("", RPCMessage.STORE_BATCH.name(), ""));
+        this.sendMessage(host, port, RPCMessage.STORE_BATCH, message);
+    }
+
+    /**
+     * Read the copy of a key stored on a node, owned or replica, with its metadata. It is used to
+     * rebuild an erasure-coded value from the fragments held by the successors of its owner.
+     *
+     * @param host  The target host
+     * @param port  The target port
+     * @param keyID The key id
+     * @return The stored value or fragment, or null if the node has none
+     * @throws NodeFailException if the target node has failed
+     */
+    public String fragment(String host, int port, BigInteger keyID) throws NodeFailException {
+        logger.debug("FRAGMENT {} at {}:{}", keyID, host, port);
+
+        var message = String.format("%s %s", RPCMessage.FRAGMENT.name(), keyID);
+        return this.sendMessage(host, port, RPCMessage.FRAGMENT, message);
+    }
+
+    /**
+     * Store several values on a node at once, in the given order, and have it forward them to its
+     * next successors (chain replication).
+     *
+     * @param host    The target host
+     * @param port    The target port
+     * @param hops    The number of successors of the target node the values are forwarded to
+     * @param entries The key ids and their stored values
+     * @throws NodeFailException if the target node, or one of the successors, has failed
+     */
+    public void chainStore(String host, int port, int hops, List<Map.Entry<BigInteger, String>> entries) throws NodeFailException {
+        logger.debug("CHAIN_STORE {} keys at {}:{} ({} hops)", entries.size(), host, port, hops);
+
+        var message = entries.stream()
+                .map(x -> " " + x.getKey() + ":" + x.getValue())
+                .collect(Collectors.joining("", RPCMessage.CHAIN_STORE.name() + " " + hops, ""));
+        var response = this.sendMessage(host, port, RPCMessage.CHAIN_STORE, message);
+        if (response != null && response.startsWith(RPCMessage.ERROR.name())) {
+            throw new NodeFailException(String.format("Chain store failed after %s:%s", host, port));
+        }
     }
 
+    /**
+     * Execute a DIGEST request, sending the versions of keys being replicated to the target node.
+     * With erasure coding, the target node is to hold the fragment of the given index of each key.
+     *
+     * @param host     The target host
+     * @param port     The target port
+     * @param versions The key ids and their versions
+     * @param fragment The index of the fragments held by the target node, or -1 for full copies
+     * @return The ids of the keys the target node is missing or holds an older version of (or
+     * another fragment of)
+     * @throws NodeFailException if the target node has failed
+     */
+    public List<BigInteger> digest(String host, int port, Map<BigInteger, Long> versions, int fragment) throws NodeFailException {
+        logger.debug("DIGEST {} keys at {}:{}", versions.size(), host, port);
+
+        var prefix = fragment < 0 ? RPCMessage.DIGEST.name() : String.format("%s FRAGMENT %s", RPCMessage.DIGEST.name(), fragment);
+        var message = versions.entrySet().stream()
+                .map(x -> " " + x.getKey() + ":" + x.getValue())
+                .collect(Collectors.joining("", prefix, ""));
+        var response = this.sendMessage(host, port, RPCMessage.DIGEST, message);
+        if (response != null && response.startsWith(RPCMessage.ERROR.name())) {
+            throw new NodeFailException(String.format("Digest failed at %s:%s", host, port));
+        }
+        return response == null ? new ArrayList<>() : Arrays.stream(response.split(" "))
+                .map(BigInteger::new)
+                .collect(Collectors.toList());
+    }
+
+    public void invalidate(String host, int port, BigInteger keyID) throws NodeFailException {
+        logger.debug("INVALIDATE {} at {}:{}", keyID, host, port);
+
+        var message = String.format("%s %s", RPCMessage.INVALIDATE.name(), keyID);
+        this.sendMessage(host, port, RPCMessage.INVALIDATE, message);
+    }
+
+    /**
+     * Check that a node is alive. A node answering BUSY is overloaded but alive, so it is not
+     * retried.
+     *
+     * @param host The target host
+     * @param port The target port
+     * @throws NodeFailException if the target node has failed
+     */
     public void ping(String host, int port) throws NodeFailException {
         logger.debug("Ping");
 
         var message = RPCMessage.PING.name();
-        var response = this.sendMessage(host, port, message);
+        String response;
+        try {
+            response = this.sendMessage(host, port, RPCMessage.PING, message, 0);
+        } catch (NodeBusyException e) {
+            return;
+        }
         if (response == null || !response.equals(RPCMessage.PONG.name())) {
             throw new NodeFailException(String.format("%s:%s", host, port));
         }
@@ -83,44 +437,143 @@ public class RPCClient {
         logger.debug("Get successor list");
 
         var message = RPCMessage.GET_SUCCESSOR_LIST.name();
-        var response = this.sendMessage(host, port, message);
+        var response = this.sendMessage(host, port, RPCMessage.GET_SUCCESSOR_LIST, message);
         return response == null ? null : new ArrayList<>(Arrays.asList(response.split(" ")));
     }
 
+    /**
+     * Get the configuration of the ring of a node.
+     *
+     * @param host The target host
+     * @param port The target port
+     * @return The configuration, or null if the node does not know GET_CONFIG
+     * @throws NodeFailException if the target node has failed
+     */
+    public RingConfig getConfig(String host, int port) throws NodeFailException {
+        logger.debug("Get config");
+
+        var message = RPCMessage.GET_CONFIG.name();
+        var response = this.sendMessage(host, port, RPCMessage.GET_CONFIG, message);
+        if (response == null || response.startsWith(RPCMessage.ERROR.name())) return null;
+        return RingConfig.parse(response);
+    }
+
     public void notify(String host, int port, String nodeAddress) throws NodeFailException {
         logger.debug("Notify");
 
         var message = String.format("%s %s", RPCMessage.NOTIFY, nodeAddress);
-        this.sendMessage(host, port, message);
+        this.sendMessage(host, port, RPCMessage.NOTIFY, message);
     }
 
     public String findSuccessor(String host, int port, BigInteger chordID) throws NodeFailException {
+        var response = this.findSuccessorWithHops(host, port, chordID);
+        return response == null ? null : response.split(" ")[0];
+    }
+
+    /**
+     * Execute a FIND_SUCCESSOR request, keeping the number of hops returned along with the
+     * successor.
+     *
+     * @param host    The target host
+     * @param port    The target port
+     * @param chordID The id to look up
+     * @return The successor address followed by the number of nodes the lookup has been forwarded
+     * to from the target node, or null if the lookup has failed
+     * @throws NodeFailException if the target node has failed
+     */
+    public String findSuccessorWithHops(String host, int port, BigInteger chordID) throws NodeFailException {
         logger.debug("Find successor");
 
         var message = String.format("%s %s", RPCMessage.FIND_SUCCESSOR, chordID);
-        return this.sendMessage(host, port, message);
+        return this.sendMessage(host, port, RPCMessage.FIND_SUCCESSOR, message);
+    }
+
+    /**
+     * Execute a traced FIND_SUCCESSOR request. Every node on the lookup path adds itself to the trace.
+     *
+     * @param host    The target host
+     * @param port    The target port
+     * @param chordID The id to look up
+     * @return The lookup trace or null if the lookup has failed
+     * @throws NodeFailException if the target node has failed
+     */
+    public LookupTrace findSuccessorTraced(String host, int port, BigInteger chordID) throws NodeFailException {
+        logger.debug("Find successor (traced)");
+
+        var message = String.format("%s %s TRACE", RPCMessage.FIND_SUCCESSOR, chordID);
+        var response = this.sendMessage(host, port, RPCMessage.FIND_SUCCESSOR, message);
+        return response == null ? null : LookupTrace.parse(response);
     }
 
     public String getPredecessor(String host, int port) throws NodeFailException {
         logger.debug("Get predecessor");
 
         var message = RPCMessage.GET_PREDECESSOR.name();
-        return this.sendMessage(host, port, message);
+        return this.sendMessage(host, port, RPCMessage.GET_PREDECESSOR, message);
+    }
+
+    private static String checkMoved(String response) throws KeyMovedException {
+        if (response != null && response.startsWith(RPCMessage.MOVED.name() + " ")) {
+            throw new KeyMovedException(response.split(" ")[1]);
+        }
+        return response;
     }
 
-    private String sendMessage(String host, int port, String message) throws NodeFailException {
+    private String sendMessage(String host, int port, RPCMessage type, String message) throws NodeFailException {
+        return this.sendMessage(host, port, type, message, BUSY_RETRIES);
+    }
+
+    /**
+     * Send a message and wait for the response. Requests answered BUSY are retried with an
+     * exponential backoff (with full jitter, so that the clients of an overloaded node do not retry
+     * all at once).
+     *
+     * @param host        The target host
+     * @param port        The target port
+     * @param type        The message type
+     * @param message     The message
+     * @param busyRetries The maximum number of retries of a request answered BUSY
+     * @return The response or null if the response is "NULL"
+     * @throws NodeBusyException if the target node is still busy after the retries
+     * @throws NodeFailException if the target node has failed
+     */
+    private String sendMessage(String host, int port, RPCMessage type, String message, int busyRetries) throws NodeFailException {
         logger.debug("Sending {} to {}:{}", message, host, port);
 
-        String response = null;
-        try (var socket = new Socket(host, port)) {
-            var in = new Scanner(socket.getInputStream());
-            var out = new PrintWriter(socket.getOutputStream(), true);
-            out.println(message);
-            response = in.nextLine();
-        } catch (Exception e) {
-            logger.error("Error while sending message {}: {}", message, e.getMessage());
-            throw new NodeFailException(String.format("%s:%s", host, port));
+        var bulk = FrameCodec.isBulk(type);
+        var request = bulk ? this.codec.encodeRequest(host, port, message) : message;
+        for (int attempt = 0; ; attempt++) {
+            var start = System.nanoTime();
+            String response;
+            try {
+                response = this.transport.send(host, port, request);
+                if (bulk) {
+                    response = this.codec.decodeResponse(host, port, response);
+                }
+            } catch (NodeFailException e) {
+                logger.error("Error while sending message {}: {}", message,
+                        e.getCause() == null ? e.getMessage() : e.getCause().getMessage());
+                this.failures.increment();
+                throw e;
+            }
+            this.metrics.rpcClientLatency(type).record((System.nanoTime() - start) / 1000);
+            if (this.responseListener != null) {
+                this.responseListener.accept(host + ":" + port);
+            }
+
+            if (!response.equals(RPCMessage.BUSY.name())) {
+                return response.equals(RPCMessage.NULL.name()) ? null : response;
+            }
+            this.busy.increment();
+            if (attempt >= busyRetries) {
+                throw new NodeBusyException(String.format("%s:%s", host, port));
+            }
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(BUSY_BACKOFF_MILLIS << attempt) + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NodeBusyException(String.format("%s:%s", host, port));
+            }
         }
-        return response.equals(RPCMessage.NULL.name()) ? null : response;
     }
 }
@@ -1,13 +1,22 @@
 package dht.chord.rpc;
 
 import dht.chord.ChordNode;
+import dht.chord.exceptions.NodeBusyException;
+import dht.chord.exceptions.NodeFailException;
+import dht.chord.utils.ChordUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.math.BigInteger;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.stream.Collectors;
 
@@ -19,14 +28,29 @@ import java.util.stream.Collectors;
  * @version 1.0
  */
 public class RPCHandler implements Runnable {
+    private static final int FIRST_READ_TIMEOUT = 1000;
+    private static final int MAX_TYPE_LENGTH = 32;
+
     private Socket socket;
     private ChordNode node;
+    private AdmissionControl admissionControl;
+    private InputStream input;
+    private Scanner in;
+    private StringBuilder firstHeader;
+    private boolean firstHeaderComplete;
+    private String firstType;
+    private String firstMessage;
 
     private final Logger logger = LogManager.getLogger(RPCHandler.class);
 
     RPCHandler(Socket socket, ChordNode node) {
+        this(socket, node, null);
+    }
+
+    RPCHandler(Socket socket, ChordNode node, AdmissionControl admissionControl) {
         this.socket = socket;
         this.node = node;
+        this.admissionControl = admissionControl;
     }
 
     // ==============================
@@ -35,52 +59,135 @@ public class RPCHandler implements Runnable {
 
     /**
      * Handle a PUT message. As part of the user interface, it is used to find the successor of the
-     * key ID and to store there the <key_id, value> tuple.
+     * key ID and to store there the <key_id, value> tuple. With the DIRECT flag, the request is
+     * refused if this node is not the successor. With the TTL flag, the value expires after the
+     * given time (in milliseconds).
      * Message format is:
-     * PUT <key_id> <value>
+     * PUT <key_id> <value> [DIRECT] [TTL <ttl>]
      *
      * @param message The message as a string
-     * @return "OK"
+     * @return "OK" or "MOVED <owner_address>"
      */
-    private String handlePut(String message) {
+    private String handlePut(String message) throws NodeBusyException {
         logger.debug("Handle PUT: {}", message);
 
-        var id = new BigInteger(message.split(" ")[1]);
-        var value = message.split(" ")[2];
-        this.node.dhtPut(id, value);
+        var args = message.split(" ");
+        var id = new BigInteger(args[1]);
+        var value = args[2];
+        var direct = false;
+        var ttl = 0L;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("DIRECT")) direct = true;
+            else if (args[i].equals("TTL")) ttl = Long.parseLong(args[++i]);
+        }
+        var moved = this.checkOwner(id, direct);
+        if (moved != null) return moved;
+        this.node.dhtPut(id, value, ttl);
         return RPCMessage.OK.name();
     }
 
     /**
      * Handle a GET message. As part of the user interface, it is used to retrieve the value associated
-     * to the given key.
+     * to the given key. With the DIRECT flag, the request is refused if this node is not the successor.
+     * With the CACHE flag, the request comes from a node which will cache the value, and which has to
+     * be invalidated when the key is written.
      * Message format is:
-     * GET <key_id>
+     * GET <key_id> [DIRECT | CACHE <reader_address>]
      *
      * @param message The message as a string
-     * @return The associated value
+     * @return The associated value or "MOVED <owner_address>"
      */
-    private String handleGet(String message) {
+    private String handleGet(String message) throws NodeBusyException {
         logger.info("Handle: {}", message);
-        var id = new BigInteger(message.split(" ")[1]);
-        return this.node.dhtGet(id);
+
+        var args = message.split(" ");
+        var id = new BigInteger(args[1]);
+        var moved = this.checkOwner(id, args.length > 2 && args[2].equals("DIRECT"));
+        if (moved != null) return moved;
+        var readerAddress = args.length > 3 && args[2].equals("CACHE") ? args[3] : null;
+        return this.node.dhtGet(id, readerAddress);
     }
 
     /**
      * Handle a DELETE message. As part of the user interface, it is used to delete the value associated
-     * to the given key.
+     * to the given key. With the DIRECT flag, the request is refused if this node is not the successor.
      * Message format is:
-     * DELETE <key_id>
+     * DELETE <key_id> [DIRECT]
+     *
+     * @param message The message as a string
+     * @return "OK" or "MOVED <owner_address>"
+     */
+    private String handleDelete(String message) throws NodeBusyException {
+        var args = message.split(" ");
+        var id = new BigInteger(args[1]);
+        var moved = this.checkOwner(id, args.length > 2 && args[2].equals("DIRECT"));
+        if (moved != null) return moved;
+        this.node.dhtDelete(id);
+        return RPCMessage.OK.name();
+    }
+
+    /**
+     * Handle a SCAN message. As part of the user interface, it is used to read the keys of an id
+     * range in ring order. The node returns the keys it owns from the start id, up to the limit, and
+     * where the scan continues: at the next key of this node if the page is full, at its successor
+     * otherwise. The request is refused if this node is not the owner of the start id.
+     * Message format is:
+     * SCAN <start_id> <end_id> <limit>
+     *
+     * @param message The message as a string
+     * @return "<cursor|END> <next_address|NULL> <key_id:value> ..." or "MOVED <owner_address>"
+     */
+    private String handleScan(String message) {
+        var args = message.split(" ");
+        var start = new BigInteger(args[1]);
+        var end = new BigInteger(args[2]);
+        var limit = Integer.parseInt(args[3]);
+        var moved = this.checkOwner(start, true);
+        if (moved != null) return moved;
+        return this.node.dhtScan(start, end, limit).toString();
+    }
+
+    /**
+     * Handle an INVALIDATE message. It is sent by the owner of a key to the nodes which may have
+     * cached it, when the key is written.
+     * Message format is:
+     * INVALIDATE <key_id>
      *
      * @param message The message as a string
      * @return "OK"
      */
-    private String handleDelete(String message) {
+    private String handleInvalidate(String message) {
         var id = new BigInteger(message.split(" ")[1]);
-        this.node.dhtDelete(id);
+        this.node.dhtInvalidate(id);
         return RPCMessage.OK.name();
     }
 
+    /**
+     * Check whether a direct request reached the owner of the key, i.e. whether the key is in the
+     * range of the predecessor of this node, without looking it up. Otherwise the request is
+     * refused with the neighbour on the side of the key: the client learns one node per refusal,
+     * and falls back to a routed request after a few of them.
+     *
+     * @param id     The key id
+     * @param direct Whether the request has the DIRECT flag
+     * @return null if the request can be served here, "MOVED <owner_address>" otherwise
+     */
+    private String checkOwner(BigInteger id, boolean direct) {
+        if (!direct) return null;
+        var m = this.node.getRingConfig().getM();
+        var chordID = ChordUtils.extractChordID(this.node.getNodeAddress());
+        var predecessorAddress = this.node.getPredecessorAddress();
+        if (predecessorAddress == null || ChordUtils.isInIntervalInclusive(
+                ChordUtils.extractChordID(predecessorAddress), id, chordID, m)) {
+            return null;
+        }
+        var successorAddress = this.node.getSuccessorList().get(0);
+        var ownerAddress = ChordUtils.isInIntervalInclusive(chordID, id, ChordUtils.extractChordID(successorAddress), m)
+                ? successorAddress
+                : predecessorAddress;
+        return String.format("%s %s", RPCMessage.MOVED.name(), ownerAddress);
+    }
+
     // ==============================
     // DHT interface
     // ==============================
@@ -102,6 +209,108 @@ public class RPCHandler implements Runnable {
         return RPCMessage.OK.name();
     }
 
+    /**
+     * Handle a REMOVE message. It is used by the owner of a key to remove the copy stored by the
+     * node it pulls its range from, when it deletes the key.
+     * Message format is:
+     * REMOVE <key_id>
+     *
+     * @param message The message as a string
+     * @return "OK"
+     */
+    private String handleRemove(String message) {
+        logger.debug("Handle REMOVE: {}", message);
+
+        var id = new BigInteger(message.split(" ")[1]);
+        this.node.dhtRemove(id);
+        return RPCMessage.OK.name();
+    }
+
+    /**
+     * Handle a STORE_BATCH message. It is used to store several <key_id, value> tuples at once,
+     * in order. Message format is:
+     * STORE_BATCH <key_id:value> ... <key_id:value>
+     *
+     * @param message The message as a string
+     * @return "OK"
+     */
+    private String handleStoreBatch(String message) {
+        var args = message.split(" ");
+        logger.debug("Handle STORE_BATCH: {} keys", args.length - 1);
+
+        for (int i = 1; i < args.length; i++) {
+            var entry = args[i].split(":");
+            this.node.dhtStore(new BigInteger(entry[0]), entry[1]);
+        }
+        return RPCMessage.OK.name();
+    }
+
+    /**
+     * Handle a CHAIN_STORE message. It is used by chain replication: the tuples are stored here,
+     * then forwarded to the next successors, and acknowledged once the last one has stored them.
+     * Message format is:
+     * CHAIN_STORE <hops> <key_id:value> ... <key_id:value>
+     *
+     * @param message The message as a string
+     * @return "OK"
+     * @throws NodeFailException if a successor of the chain has failed (answered ERROR)
+     */
+    private String handleChainStore(String message) throws NodeFailException {
+        var args = message.split(" ");
+        logger.debug("Handle CHAIN_STORE: {} keys, {} hops", args.length - 2, args[1]);
+
+        var entries = new ArrayList<Map.Entry<BigInteger, String>>(args.length - 2);
+        for (int i = 2; i < args.length; i++) {
+            var entry = args[i].split(":");
+            entries.add(Map.entry(new BigInteger(entry[0]), entry[1]));
+        }
+        this.node.dhtChainStore(Integer.parseInt(args[1]), entries);
+        return RPCMessage.OK.name();
+    }
+
+    /**
+     * Handle a FRAGMENT message. It is used by the owner of an erasure-coded value to read the
+     * fragment stored here, when rebuilding the value.
+     * Message format is:
+     * FRAGMENT <key_id>
+     *
+     * @param message The message as a string
+     * @return The stored value or fragment, or "NULL" if there is none
+     */
+    private String handleFragment(String message) {
+        logger.debug("Handle FRAGMENT: {}", message);
+
+        var id = new BigInteger(message.split(" ")[1]);
+        return this.node.dhtGetCopy(id);
+    }
+
+    /**
+     * Handle a DIGEST message. It is sent by a node replicating keys here before sending their
+     * values, so that only the values missing here or more recent than the local copies are sent.
+     * With the FRAGMENT flag, the keys are erasure-coded and this node is to hold their fragment of
+     * the given index.
+     * Message format is:
+     * DIGEST [FRAGMENT <index>] <key_id:version> ... <key_id:version>
+     *
+     * @param message The message as a string
+     * @return "NULL" if every copy is up to date or "<key_id> ... <key_id>"
+     */
+    private String handleDigest(String message) {
+        var args = message.split(" ");
+        logger.debug("Handle DIGEST: {} keys", args.length - 1);
+
+        var fragment = args.length > 2 && args[1].equals("FRAGMENT") ? Integer.parseInt(args[2]) : -1;
+        var versions = new HashMap<BigInteger, Long>();
+        for (int i = fragment < 0 ? 1 : 3; i < args.length; i++) {
+            var entry = args[i].split(":");
+            versions.put(new BigInteger(entry[0]), Long.parseLong(entry[1]));
+        }
+        var stale = this.node.dhtGetStale(versions, fragment);
+        return stale.isEmpty() ? RPCMessage.NULL.name() : stale.stream()
+                .map(BigInteger::toString)
+                .collect(Collectors.joining(" "));
+    }
+
     /**
      * Handle a TRANSFER message. It is used by a joining node to retrieve data from its successor.
      * Message format is:
@@ -120,6 +329,88 @@ public class RPCHandler implements Runnable {
                 .collect(Collectors.joining(" "));
     }
 
+    /**
+     * Handle a TRANSFER_SINCE message. It is used by a node rejoining with a snapshot to retrieve
+     * the data changed since the snapshot from its successor.
+     * Message format is:
+     * TRANSFER_SINCE <key_id> <watermark>
+     *
+     * @param message The message as a string
+     * @return "DELTA <key_id:value|key_id:-> ... <key_id:value|key_id:->", "-" marking a deleted
+     * key, or "NULL" if the changes since the watermark are not known
+     */
+    private String handleTransferSince(String message) {
+        logger.debug("Handle TRANSFER_SINCE: {}", message);
+
+        var args = message.split(" ");
+        var changes = this.node.dhtGetChangesToTransfer(new BigInteger(args[1]), Long.parseLong(args[2]));
+        return changes == null ? RPCMessage.NULL.name() : changes.entrySet().stream()
+                .map(x -> " " + x.getKey() + ":" + (x.getValue() == null ? RPCClient.DELETED : x.getValue()))
+                .collect(Collectors.joining("", "DELTA", ""));
+    }
+
+    /**
+     * Handle a FETCH message. It is used by a node which joined without waiting for the transfer to
+     * pull its range from its successor page by page, and to forward the reads of the keys it has
+     * not pulled yet. Unlike SCAN, the copies are read whether the keys are owned or replicas, and
+     * with their metadata.
+     * Message format is:
+     * FETCH <start_id> <end_id> <limit>
+     *
+     * @param message The message as a string
+     * @return "<cursor|END> NULL <key_id:value> ... <key_id:value>"
+     */
+    private String handleFetch(String message) {
+        logger.debug("Handle FETCH: {}", message);
+
+        var args = message.split(" ");
+        return this.node.dhtFetch(new BigInteger(args[1]), new BigInteger(args[2]), Integer.parseInt(args[3])).toString();
+    }
+
+    /**
+     * Handle a HANDOFF message. It is used by a leaving node to hand its keys over to its successor.
+     * Message format is:
+     * HANDOFF <key_id:value> ... <key_id:value>
+     *
+     * @param message The message as a string
+     * @return "OK"
+     */
+    private String handleHandoff(String message) {
+        var args = message.split(" ");
+        logger.debug("Handle HANDOFF: {} keys", args.length - 1);
+
+        var entries = new HashMap<BigInteger, String>();
+        for (int i = 1; i < args.length; i++) {
+            var entry = args[i].split(":");
+            entries.put(new BigInteger(entry[0]), entry[1]);
+        }
+        this.node.dhtHandoff(entries);
+        return RPCMessage.OK.name();
+    }
+
+    /**
+     * Handle a SHUT_DOWN message. Without arguments, it asks this node to leave the ring. With
+     * arguments, it is sent by a leaving neighbour so that this node splices it out of the ring.
+     * Message format is:
+     * SHUT_DOWN [<chord_id>@<host>:<port> <predecessor_address|NULL> <successor_address>]
+     *
+     * @param message The message as a string
+     * @return "OK"
+     */
+    private String handleShutDown(String message) {
+        logger.debug("Handle SHUT_DOWN: {}", message);
+
+        var args = message.split(" ");
+        if (args.length < 4) {
+
+            // Leave on another thread: leaving drains the requests being handled, including this one
+            new Thread(this.node::dhtLeave).start();
+        } else {
+            this.node.dhtSplice(args[1], args[2].equals(RPCMessage.NULL.name()) ? null : args[2], args[3]);
+        }
+        return RPCMessage.OK.name();
+    }
+
     /**
      * Handle a PING message. It is used to check if the node is alive.
      * Message format is:
@@ -135,18 +426,24 @@ public class RPCHandler implements Runnable {
 
     /**
      * Handle FIND_SUCCESSOR message. Used to query for the successor of a given id by invoking the
-     * local procedure.
+     * local procedure. If the TRACE flag is set, the lookup path is returned along with the successor.
      * Message format is:
-     * FIND_SUCCESSOR <id>
+     * FIND_SUCCESSOR <id> [TRACE]
      *
      * @param message The message as a string
-     * @return The successor address as "<id>@<host>:<port>"
+     * @return The successor address as "<id>@<host>:<port>" followed by the trace if requested, or
+     * by the number of hops of the lookup otherwise
      */
     private String handleFindSuccessorMessage(String message) {
         logger.debug("Handle FIND_SUCCESSOR: {}", message);
 
-        var id = new BigInteger(message.split(" ")[1]);
-        return this.node.dhtFindSuccessor(id);
+        var args = message.split(" ");
+        var id = new BigInteger(args[1]);
+        if (args.length > 2 && args[2].equals("TRACE")) {
+            var trace = this.node.dhtTraceSuccessor(id);
+            return trace == null ? null : trace.toString();
+        }
+        return this.node.dhtLookupSuccessor(id);
     }
 
     /**
@@ -192,6 +489,20 @@ public class RPCHandler implements Runnable {
         return String.join(" ", list);
     }
 
+    /**
+     * Handle GET_CONFIG message. Used by the clients and the joining nodes to learn how the keys
+     * are mapped to ids in this ring.
+     * Message format is:
+     * GET_CONFIG
+     *
+     * @return The configuration as "<m> <hasher>"
+     */
+    private String handleGetConfigMessage() {
+        logger.debug("Handle GET_CONFIG");
+
+        return this.node.getRingConfig().toString();
+    }
+
     /**
      * Handle an undefined message and parse it to determine which specific handler will have to
      * process the message.
@@ -199,21 +510,56 @@ public class RPCHandler implements Runnable {
      * @param message A message as a string
      * @return The response of the message or "NULL" in case of error
      */
-    private String handleMessage(String message) {
+    String handleMessage(String message) {
         logger.debug("Handling message: {}", message);
 
+        var start = System.nanoTime();
+        var framed = FrameCodec.isFramed(message);
+        RPCMessage type = null;
         String response = null;
         try {
-            switch (RPCMessage.valueOf(message.split(" ")[0])) {
+            if (framed) {
+                message = this.node.getFrameCodec().decode(message);
+            }
+            type = RPCMessage.valueOf(message.split(" ")[0]);
+            switch (type) {
 
                 case STORE:
                     response = this.handleStore(message);
                     break;
 
+                case STORE_BATCH:
+                    response = this.handleStoreBatch(message);
+                    break;
+
+                case REMOVE:
+                    response = this.handleRemove(message);
+                    break;
+
+                case CHAIN_STORE:
+                    response = this.handleChainStore(message);
+                    break;
+
+                case FRAGMENT:
+                    response = this.handleFragment(message);
+                    break;
+
+                case DIGEST:
+                    response = this.handleDigest(message);
+                    break;
+
                 case TRANSFER:
                     response = this.handleTransfer(message);
                     break;
 
+                case TRANSFER_SINCE:
+                    response = this.handleTransferSince(message);
+                    break;
+
+                case FETCH:
+                    response = this.handleFetch(message);
+                    break;
+
                 case FIND_SUCCESSOR:
                     response = this.handleFindSuccessorMessage(message);
                     break;
@@ -226,10 +572,22 @@ public class RPCHandler implements Runnable {
                     response = this.handleGetPredecessorMessage();
                     break;
 
+                case GET_CONFIG:
+                    response = this.handleGetConfigMessage();
+                    break;
+
                 case NOTIFY:
                     response = this.handleNotifyMessage(message);
                     break;
 
+                case HANDOFF:
+                    response = this.handleHandoff(message);
+                    break;
+
+                case SHUT_DOWN:
+                    response = this.handleShutDown(message);
+                    break;
+
                 case PING:
                     response = this.handlePingMessage();
                     break;
@@ -246,14 +604,29 @@ public class RPCHandler implements Runnable {
                     response = this.handleDelete(message);
                     break;
 
+                case SCAN:
+                    response = this.handleScan(message);
+                    break;
+
+                case INVALIDATE:
+                    response = this.handleInvalidate(message);
+                    break;
+
                 default:
                     break;
             }
+        } catch (NodeBusyException e) {
+            logger.debug("Shedding {}: {} is busy", message, e.getMessage());
+            response = RPCMessage.BUSY.name();
         } catch (Exception e) {
             logger.error(e.getMessage());
             response = RPCMessage.ERROR.name();
         }
-        return response == null ? RPCMessage.NULL.name() : response;
+        if (type != null) {
+            this.node.getMetrics().rpcServerLatency(type).record((System.nanoTime() - start) / 1000);
+        }
+        response = response == null ? RPCMessage.NULL.name() : response;
+        return framed ? this.node.getFrameCodec().encode(response, true) : response;
     }
 
     /**
@@ -265,12 +638,15 @@ public class RPCHandler implements Runnable {
         logger.debug("New connection: {}", this.socket);
 
         try {
-            var in = new Scanner(socket.getInputStream());
             var out = new PrintWriter(socket.getOutputStream(), true);
+            if (this.firstType != null) {
+                out.println(this.admitMessage(this.readFirstMessage()));
+                this.firstMessage = null;
+            }
+            var in = this.in();
             while (in.hasNextLine()) {
                 var message = in.nextLine();
-                var response = this.handleMessage(message);
-                out.println(response);
+                out.println(this.admitMessage(message));
             }
         } catch (Exception e) {
             logger.error(e.getMessage());
@@ -284,4 +660,141 @@ public class RPCHandler implements Runnable {
             logger.debug("Closed connection: {}", this.socket);
         }
     }
+
+    /**
+     * Handle a message if admitted by the admission control, or answer BUSY.
+     *
+     * @param message A message as a string
+     * @return The response of the message
+     */
+    private String admitMessage(String message) {
+        if (this.admissionControl == null) {
+            return this.handleMessage(message);
+        }
+        RPCMessage type;
+        try {
+            type = RPCMessage.valueOf(FrameCodec.typeOf(message));
+        } catch (IllegalArgumentException e) {
+            return this.handleMessage(message);
+        }
+        var requestClass = AdmissionControl.classify(type);
+        if (!this.admissionControl.tryAcquire(requestClass)) {
+            return RPCMessage.BUSY.name();
+        }
+        try {
+            return this.handleMessage(message);
+        } finally {
+            this.admissionControl.release(requestClass);
+        }
+    }
+
+    /**
+     * Read the type of the first message of the connection, so that the server can pick the lane
+     * which will handle it. Only the first token (or the two first ones of a frame) is read here:
+     * the rest of the message, which can be a bulk one, is read when the handler is run.
+     *
+     * @return The type of the first message, or null if none has been received in time
+     * @throws IOException if the connection has failed
+     */
+    String readFirstType() throws IOException {
+        if (this.firstType == null) {
+            this.firstHeader = new StringBuilder();
+            this.socket.setSoTimeout(FIRST_READ_TIMEOUT);
+            try {
+                var type = this.readToken();
+                if (type != null && !this.firstHeaderComplete && FrameCodec.isFrameHeader(type)) {
+                    type = this.readToken();
+                }
+                this.firstType = type;
+            } catch (SocketTimeoutException e) {
+                return null;
+            } finally {
+                this.socket.setSoTimeout(0);
+            }
+        }
+        return this.firstType;
+    }
+
+    /**
+     * Read the first message of the connection, after its type.
+     *
+     * @return The first message or null if none has been received in time
+     * @throws IOException if the connection has failed
+     */
+    String readFirstMessage() throws IOException {
+        if (this.firstMessage == null && this.readFirstType() != null) {
+            var header = this.firstHeader.toString();
+            if (this.firstHeaderComplete) {
+                this.firstMessage = header.strip();
+            } else {
+                var in = this.in();
+                this.firstMessage = header + (in.hasNextLine() ? in.nextLine() : "");
+            }
+        }
+        return this.firstMessage;
+    }
+
+    /**
+     * Read a token of the first message, up to a space or the end of the line.
+     *
+     * @return The token, or null if the connection is closed before
+     */
+    private String readToken() throws IOException {
+        var input = this.input();
+        var token = new StringBuilder();
+        while (token.length() < MAX_TYPE_LENGTH) {
+            var c = input.read();
+            if (c < 0) {
+                this.firstHeaderComplete = true;
+                return token.length() == 0 ? null : token.toString();
+            }
+            this.firstHeader.append((char) c);
+            if (c == ' ') break;
+            if (c == '\n') {
+                this.firstHeaderComplete = true;
+                break;
+            }
+            if (c != '\r') token.append((char) c);
+        }
+        return token.toString();
+    }
+
+    /**
+     * Answer BUSY without handling the request, when the server queue is full. The request is read
+     * first if needed, since closing a socket with unread data would reset the connection before the
+     * client could read the answer.
+     */
+    void reject() {
+        try {
+            this.readFirstMessage();
+            var out = new PrintWriter(this.socket.getOutputStream(), true);
+            out.println(RPCMessage.BUSY.name());
+        } catch (Exception e) {
+            logger.debug("Cannot reject connection {}: {}", this.socket, e.getMessage());
+        } finally {
+            this.close();
+        }
+    }
+
+    private InputStream input() throws IOException {
+        if (this.input == null) {
+            this.input = new BufferedInputStream(this.socket.getInputStream());
+        }
+        return this.input;
+    }
+
+    private Scanner in() throws IOException {
+        if (this.in == null) {
+            this.in = new Scanner(this.input());
+        }
+        return this.in;
+    }
+
+    void close() {
+        try {
+            this.socket.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+    }
 }
@@ -4,16 +4,29 @@ public enum RPCMessage {
     ERROR,
     OK,
     STORE,              // STORE <key> <value>
+    STORE_BATCH,        // STORE_BATCH <key:value> ... <key:value>
+    REMOVE,             // REMOVE <key> (removes the copy stored here)
+    CHAIN_STORE,        // CHAIN_STORE <hops> <key:value> ... <key:value> (stored here, then forwarded to <hops> successors)
+    FRAGMENT,           // FRAGMENT <key> (returns the <value> or fragment stored here, with its metadata)
+    DIGEST,             // DIGEST [FRAGMENT <index>] <key:version> ... <key:version> (returns <key> ... the receiver is stale on, or NULL)
     TRANSFER,           // TRANSFER <chord_id> (returns <key:value> ... <key:value>)
-    SHUT_DOWN,          // No args
-    PUT,                // PUT <key> <value>
-    GET,                // GET <key> (returns <value>)
-    DELETE,             // DELETE <key>
-    FIND_SUCCESSOR,     // FIND_SUCCESSOR <chord_id> (returns <chord_id>@<host>:<port>)
+    TRANSFER_SINCE,     // TRANSFER_SINCE <chord_id> <watermark> (returns DELTA <key:value|key:-> ... or NULL if unknown)
+    FETCH,              // FETCH <start> <end> <limit> (returns <cursor|END> NULL <key:value> ...)
+    SHUT_DOWN,          // [<chord_id>@<host>:<port> <predecessor_address|NULL> <successor_address>] (no args: leave the ring)
+    HANDOFF,            // HANDOFF <key:value> ... <key:value>
+    PUT,                // PUT <key> <value> [DIRECT] [TTL <millis>]
+    GET,                // GET <key> [DIRECT | CACHE <chord_id>@<host>:<port>] (returns <value>)
+    DELETE,             // DELETE <key> [DIRECT]
+    SCAN,               // SCAN <start> <end> <limit> (returns <cursor|END> <next_address|NULL> <key:value> ...)
+    MOVED,              // MOVED <chord_id>@<host>:<port> (reply to a DIRECT request sent to a non-owner)
+    INVALIDATE,         // INVALIDATE <key>
+    FIND_SUCCESSOR,     // FIND_SUCCESSOR <chord_id> [TRACE] (returns <chord_id>@<host>:<port> <hops|<chord_id>:<us>,...>)
     GET_SUCCESSOR_LIST, // No args (returns <chord_id>@<host>:<port> ... <chord_id>@<host>:<port>)
     NOTIFY,             // NOTIFY <chord_id>@<host>:<port>
     GET_PREDECESSOR,    // No args (returns <chord_id>@<host>:<port>)
+    GET_CONFIG,         // No args (returns <m> <hasher>)
     PING,               // No args (returns PONG)
     PONG,               // No args
+    BUSY,               // No args (reply to a request shed by an overloaded node)
     NULL                // No args (Will be transformed to null)
 }
\ No newline at end of file
@@ -5,25 +5,66 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.net.ServerSocket;
-import java.util.concurrent.Executors;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Simple RPC server that will listen for new connections. Each new connection is handled by a
  * RPCHandler instance, which runs as a thread inside a size-fixed thread pool.
+ * <p>
+ * Connections go through two stages: a few reader threads read the type of the first message and
+ * classify it into a {@link Lane}, then the handler reads the rest of the message and runs on the
+ * thread pool of that lane. Ring maintenance and routing thus never wait behind bulk data requests,
+ * not even while they are being received.
+ * <p>
+ * The server sheds load instead of queueing without limit: requests arriving when the queue of
+ * their lane is full are answered BUSY, and user requests are limited so that a few data threads
+ * always remain for the requests of the other nodes (see {@link AdmissionControl}).
  *
  * @author Matteo Filipponi
  * @version 1.0
  */
 public class RPCServer implements Runnable {
+    private static final int READER_THREADS = 4;
+    private static final int PEER_RESERVED_THREADS = 2;
+    private static final int SHED_QUEUE_CAPACITY = 256;
+    private static final long DRAIN_TIMEOUT_SECONDS = 10;
+
     private int port;
-    private int threadPoolSize;
+    private Map<Lane, Integer> threadPoolSizes;
+    private int queueCapacity;
     private ChordNode node;
+    private volatile ServerSocket listener;
+    private volatile ThreadPoolExecutor readers;
+    private volatile Map<Lane, ThreadPoolExecutor> lanes;
+    private volatile ThreadPoolExecutor shedder;
+    private volatile boolean stopped;
+    private Map<Lane, LongAdder> rejected;
+    private LongAdder shed;
 
     private final Logger logger = LogManager.getLogger(RPCServer.class);
 
-    public RPCServer(int port, int threadPoolSize, ChordNode node) {
+    /**
+     * @param port                  The port to listen on
+     * @param controlThreadPoolSize The number of threads of the control lane
+     * @param routingThreadPoolSize The number of threads of the routing lane
+     * @param dataThreadPoolSize    The number of threads of the data lane
+     * @param queueCapacity         The capacity of the queue of each stage
+     * @param node                  The node handling the requests
+     */
+    public RPCServer(int port, int controlThreadPoolSize, int routingThreadPoolSize, int dataThreadPoolSize,
+                     int queueCapacity, ChordNode node) {
         this.port = port;
-        this.threadPoolSize = threadPoolSize;
+        this.threadPoolSizes = new EnumMap<>(Lane.class);
+        this.threadPoolSizes.put(Lane.CONTROL, controlThreadPoolSize);
+        this.threadPoolSizes.put(Lane.ROUTING, routingThreadPoolSize);
+        this.threadPoolSizes.put(Lane.DATA, dataThreadPoolSize);
+        this.queueCapacity = queueCapacity;
         this.node = node;
     }
 
@@ -32,16 +73,146 @@ public class RPCServer implements Runnable {
      */
     @Override
     public void run() {
-        logger.info("Starting RPC server on port: {} (thread pool size = {})", this.port, this.threadPoolSize);
+        logger.info("Starting RPC server on port: {} (thread pool sizes = {}, queue capacity = {})",
+                this.port, this.threadPoolSizes, this.queueCapacity);
+
+        try {
+            this.listener = new ServerSocket(this.port);
+            var metrics = this.node.getMetrics();
+            var dataThreadPoolSize = this.threadPoolSizes.get(Lane.DATA);
+            var admissionControl = new AdmissionControl(
+                    Math.max(1, dataThreadPoolSize - PEER_RESERVED_THREADS), dataThreadPoolSize, metrics);
+
+            var lanes = new EnumMap<Lane, ThreadPoolExecutor>(Lane.class);
+            this.rejected = new EnumMap<>(Lane.class);
+            for (var lane : Lane.values()) {
+                var size = this.threadPoolSizes.get(lane);
+                var pool = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(this.queueCapacity),
+                        (handler, executor) -> this.reject(lane, (RPCHandler) handler));
+                var prefix = "rpc.server.lane." + lane.name();
+                metrics.gauge(prefix + ".size", () -> size);
+                metrics.gauge(prefix + ".active", pool::getActiveCount);
+                metrics.gauge(prefix + ".queue", () -> pool.getQueue().size());
+                this.rejected.put(lane, metrics.counter(prefix + ".rejected"));
+                lanes.put(lane, pool);
+            }
+            this.lanes = lanes;
+
+            var readers = new ThreadPoolExecutor(READER_THREADS, READER_THREADS, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(this.queueCapacity),
+                    (reader, executor) -> this.shed(((Reader) reader).handler));
+            this.shedder = new ThreadPoolExecutor(1, 1,
+                    0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(SHED_QUEUE_CAPACITY));
+            this.shed = metrics.counter("rpc.server.rejected");
+            metrics.gauge("rpc.server.readers.queue", () -> readers.getQueue().size());
+            this.readers = readers;
+            while (!this.stopped) {
+                readers.execute(new Reader(new RPCHandler(this.listener.accept(), this.node, admissionControl)));
+            }
+        } catch (Exception e) {
+            if (this.stopped) {
+                logger.info("RPC server on port {} stopped", this.port);
+            } else {
+                logger.fatal("RPC Server has failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stop accepting connections and wait (for a bounded time) for the requests already accepted
+     * to be answered.
+     */
+    public void stop() {
+        logger.info("Stopping RPC server on port: {}", this.port);
 
+        this.stopped = true;
         try {
-            var listener = new ServerSocket(this.port);
-            var pool = Executors.newFixedThreadPool(this.threadPoolSize);
-            while (true) {
-                pool.execute(new RPCHandler(listener.accept(), this.node));
+            if (this.listener != null) {
+                this.listener.close();
+            }
+            if (this.readers != null) {
+                this.readers.shutdown();
+                this.readers.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            if (this.lanes != null) {
+                for (var pool : this.lanes.values()) pool.shutdown();
+                for (var pool : this.lanes.values()) pool.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            if (this.shedder != null) {
+                this.shedder.shutdown();
             }
         } catch (Exception e) {
-            logger.fatal("RPC Server has failed: {}", e.getMessage());
+            logger.error("Error while stopping RPC server: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Read the type of the first message of a connection and submit its handler to the matching
+     * lane.
+     *
+     * @param handler The handler of the connection
+     */
+    private void dispatch(RPCHandler handler) {
+        try {
+            var type = handler.readFirstType();
+            if (type == null) {
+                handler.close();
+                return;
+            }
+            this.lanes.get(Lane.of(type)).execute(handler);
+        } catch (Exception e) {
+            logger.debug("Cannot dispatch connection: {}", e.getMessage());
+            handler.close();
+        }
+    }
+
+    /**
+     * Answer BUSY to a request which does not fit in the queue of its lane. The rest of the request
+     * is read by the shedding thread, so the answer does not block the reader thread.
+     *
+     * @param lane    The lane of the request
+     * @param handler The rejected handler
+     */
+    private void reject(Lane lane, RPCHandler handler) {
+        this.rejected.get(lane).increment();
+        this.answerBusy(handler);
+    }
+
+    /**
+     * Answer BUSY to a connection which does not fit in the queue of the readers.
+     *
+     * @param handler The rejected handler
+     */
+    private void shed(RPCHandler handler) {
+        this.shed.increment();
+        this.answerBusy(handler);
+    }
+
+    /**
+     * Answer BUSY on the shedding thread. If even the shedding thread is overwhelmed, the
+     * connection is closed right away.
+     *
+     * @param handler The rejected handler
+     */
+    private void answerBusy(RPCHandler handler) {
+        try {
+            this.shedder.execute(handler::reject);
+        } catch (RejectedExecutionException e) {
+            handler.close();
+        }
+    }
+
+    private class Reader implements Runnable {
+        private final RPCHandler handler;
+
+        Reader(RPCHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            dispatch(this.handler);
         }
     }
 }
@@ -0,0 +1,110 @@
+package dht.chord.rpc;
+
+import dht.chord.exceptions.KeyMovedException;
+import dht.chord.exceptions.NodeFailException;
+import dht.chord.utils.ChordUtils;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Map;
+
+/**
+ * Scan of the keys in an id range, in ring order. The owners of the range are visited one after
+ * the other along the successor pointers, each returning its keys page by page, so that only one
+ * page is held in memory at a time. The scan can be resumed later from {@link #getCursor()}.
+ * <p>
+ * The scan is not a snapshot: keys written while it runs may or may not be returned, and keys may
+ * be missed if they move to another node between two pages.
+ */
+public class RangeScan {
+    public static final int PAGE_SIZE = 256;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final RPCClient rpcClient;
+    private final String contactHost;
+    private final int contactPort;
+    private final BigInteger end;
+    private final ArrayDeque<Map.Entry<BigInteger, String>> page = new ArrayDeque<>();
+
+    private BigInteger cursor;
+    private String nodeAddress;
+    private long remaining;
+
+    /**
+     * @param rpcClient   The client sending the requests
+     * @param contactHost The host of the node used to find the owners of the range
+     * @param contactPort The port of the node used to find the owners of the range
+     * @param start       The first id of the range, or the cursor of a previous scan
+     * @param end         The last id of the range (inclusive, the range wraps around the ring if
+     *                    it is lower than start)
+     * @param limit       The maximum number of keys to return, or 0 for no limit
+     */
+    RangeScan(RPCClient rpcClient, String contactHost, int contactPort, BigInteger start, BigInteger end, long limit) {
+        this.rpcClient = rpcClient;
+        this.contactHost = contactHost;
+        this.contactPort = contactPort;
+        this.end = end;
+        this.cursor = start;
+        this.remaining = limit > 0 ? limit : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return Whether there is a next key, fetching the next page if needed
+     * @throws NodeFailException if the owner of the next page cannot be reached
+     */
+    public boolean hasNext() throws NodeFailException {
+        while (this.page.isEmpty() && this.cursor != null && this.remaining > 0) {
+            this.fetch();
+        }
+        return !this.page.isEmpty() && this.remaining > 0;
+    }
+
+    /**
+     * @return The next key and value, or null at the end of the scan
+     * @throws NodeFailException if the owner of the next page cannot be reached
+     */
+    public Map.Entry<BigInteger, String> next() throws NodeFailException {
+        if (!this.hasNext()) {
+            return null;
+        }
+        this.remaining--;
+        return this.page.poll();
+    }
+
+    /**
+     * @return The id from which the scan can be resumed, or null if the whole range was scanned
+     */
+    public BigInteger getCursor() {
+        // Stopping in the middle of a page (e.g. at the limit) resumes from its next key
+        var entry = this.page.peek();
+        return entry == null ? this.cursor : entry.getKey();
+    }
+
+    private void fetch() throws NodeFailException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (this.nodeAddress == null) {
+                    this.nodeAddress = this.rpcClient.findSuccessor(this.contactHost, this.contactPort, this.cursor);
+                    if (this.nodeAddress == null) {
+                        throw new NodeFailException(String.format("Lookup failed at %s:%s", this.contactHost, this.contactPort));
+                    }
+                }
+                var result = this.rpcClient.scanPage(
+                        ChordUtils.extractHost(this.nodeAddress),
+                        ChordUtils.extractPort(this.nodeAddress),
+                        this.cursor,
+                        this.end,
+                        (int) Math.min(PAGE_SIZE, this.remaining));
+                this.page.addAll(result.getEntries());
+                this.cursor = result.getCursor();
+                this.nodeAddress = result.getNextAddress();
+                return;
+            } catch (KeyMovedException e) {
+                this.nodeAddress = e.getOwnerAddress();
+            } catch (NodeFailException e) {
+                this.nodeAddress = null;
+                if (attempt + 1 >= MAX_ATTEMPTS) throw e;
+            }
+        }
+    }
+}
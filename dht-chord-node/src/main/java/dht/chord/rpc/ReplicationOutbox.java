@@ -0,0 +1,284 @@
+package dht.chord.rpc;
+
+import dht.chord.exceptions.NodeFailException;
+import dht.chord.metrics.Histogram;
+import dht.chord.metrics.MetricsRegistry;
+import dht.chord.utils.ChordUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Per-destination outbox of the replica stores: the stores sent concurrently to the same node are
+ * coalesced into STORE_BATCH messages, instead of one STORE each.
+ * <p>
+ * There is no flusher thread: a writer finding fewer than two batches in flight to a destination
+ * flushes its queue, batch after batch, until its own store is sent, then hands the flush over to
+ * the oldest store left. The stores arriving while the batches are in flight make up the next one;
+ * the flushing writer can also wait for up to the linger time to fill larger batches. A batch is
+ * sent once full or once the linger time is over.
+ * <p>
+ * The queue of a destination is taken in order, and a batch stops before a store whose key is
+ * in flight, so that the stores of a key reach each replica in the order they were sent.
+ * <p>
+ * Each store returns once its batch is acknowledged, or throws if the destination has failed.
+ */
+public class ReplicationOutbox {
+    public static final long LINGER_DEFAULT_MICROS = 0;
+    public static final int BATCH_SIZE_DEFAULT = 256;
+    private static final int MAX_IN_FLIGHT = 2;
+
+    private static final class Pending {
+        private final BigInteger id;
+        private final String value;
+        private final int hops;
+        private boolean sent;
+        private NodeFailException failure;
+        private boolean turn;
+
+        private Pending(BigInteger id, String value, int hops) {
+            this.id = id;
+            this.value = value;
+            this.hops = hops;
+        }
+
+        private synchronized void complete(NodeFailException failure) {
+            this.sent = true;
+            this.failure = failure;
+            this.notifyAll();
+        }
+
+        private synchronized boolean isSent() {
+            return this.sent;
+        }
+
+        private synchronized void giveTurn() {
+            this.turn = true;
+            this.notifyAll();
+        }
+
+        /**
+         * Wait until the store is sent or it is its turn to flush.
+         *
+         * @return Whether the store is sent
+         */
+        private synchronized boolean await() throws InterruptedException {
+            while (!this.sent && !this.turn) {
+                this.wait();
+            }
+            this.turn = false;
+            return this.sent;
+        }
+    }
+
+    private static final class Destination {
+        private final String host;
+        private final int port;
+        private final Queue<Pending> queue = new ArrayDeque<>();
+        private final Set<BigInteger> sending = new HashSet<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicInteger flushers = new AtomicInteger();
+        private volatile Thread flusher;
+
+        private Destination(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+    }
+
+    private final RPCClient rpcClient;
+    private final long lingerNanos;
+    private final int batchSize;
+    private final Map<String, Destination> destinations = new ConcurrentHashMap<>();
+
+    private final MetricsRegistry metrics;
+    private final LongAdder batches;
+    private final Histogram batchSizes;
+
+    private final Logger logger = LogManager.getLogger(ReplicationOutbox.class);
+
+    /**
+     * @param rpcClient    The client sending the batches
+     * @param lingerMicros The maximum time a store waits for other stores to the same node
+     * @param batchSize    The maximum number of stores in a batch
+     * @param metrics      The registry where the replication.outbox.* metrics are registered
+     */
+    public ReplicationOutbox(RPCClient rpcClient, long lingerMicros, int batchSize, MetricsRegistry metrics) {
+        this.rpcClient = rpcClient;
+        this.lingerNanos = lingerMicros * 1000;
+        this.batchSize = Math.max(batchSize, 1);
+        this.metrics = metrics;
+        this.batches = metrics.counter("replication.outbox.batches");
+        this.batchSizes = metrics.histogram("replication.outbox.batch.size");
+        metrics.gauge("replication.outbox.depth", () -> this.destinations.values().stream()
+                .mapToLong(x -> x.depth.get())
+                .sum());
+    }
+
+    /**
+     * Store a replica on a node, returning once its batch is acknowledged.
+     *
+     * @param nodeAddress The address of the node
+     * @param id          The key id
+     * @param value       The stored value
+     * @throws NodeFailException if the node has failed
+     */
+    public void store(String nodeAddress, BigInteger id, String value) throws NodeFailException {
+        this.store(nodeAddress, 0, List.of(Map.entry(id, value)));
+    }
+
+    /**
+     * Store replicas on a node, in order, returning once their batches are acknowledged. With
+     * chain replication, the node forwards them along the successor list (see CHAIN_STORE), and
+     * acknowledges them once the last successor of the chain has.
+     *
+     * @param nodeAddress The address of the node
+     * @param hops        The number of successors of the node the replicas are forwarded to
+     * @param entries     The key ids and their stored values
+     * @throws NodeFailException if the node (or a successor of the chain) has failed
+     */
+    public void store(String nodeAddress, int hops, List<Map.Entry<BigInteger, String>> entries) throws NodeFailException {
+        if (entries.isEmpty()) return;
+
+        var destination = this.destinations.computeIfAbsent(nodeAddress, this::newDestination);
+        var writes = new ArrayList<Pending>(entries.size());
+        for (var entry : entries) writes.add(new Pending(entry.getKey(), entry.getValue(), hops));
+        synchronized (destination) {
+            destination.queue.addAll(writes);
+        }
+        if (destination.depth.addAndGet(writes.size()) >= this.batchSize) {
+            LockSupport.unpark(destination.flusher);
+        }
+
+        try {
+            for (var write : writes) {
+                this.await(destination, write);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NodeFailException("Interrupted while waiting for the replica store");
+        }
+        for (var write : writes) {
+            if (write.failure != null) throw write.failure;
+        }
+    }
+
+    /**
+     * Wait until a store is sent, flushing the queue of its destination when it is its turn.
+     */
+    private void await(Destination destination, Pending write) throws InterruptedException {
+        while (true) {
+            if (tryAcquire(destination.flushers, MAX_IN_FLIGHT)) {
+                boolean blocked;
+                try {
+                    blocked = !this.flush(destination, write);
+                } finally {
+                    destination.flushers.decrementAndGet();
+                }
+
+                // The stores left were sent after this one: the oldest one flushes them (unless
+                // it waits for a batch in flight, which gives the turn once acknowledged)
+                Pending next;
+                synchronized (destination) {
+                    next = destination.queue.peek();
+                }
+                if (next != null && !blocked) next.giveTurn();
+            }
+            if (write.await()) return;
+        }
+    }
+
+    private Destination newDestination(String nodeAddress) {
+        var host = ChordUtils.extractHost(nodeAddress);
+        var port = ChordUtils.extractPort(nodeAddress);
+        var destination = new Destination(host, port);
+        this.metrics.gauge(String.format("replication.outbox.depth.%s:%s", host, port), destination.depth::get);
+        return destination;
+    }
+
+    private static boolean tryAcquire(AtomicInteger counter, int limit) {
+        for (var current = counter.get(); current < limit; current = counter.get()) {
+            if (counter.compareAndSet(current, current + 1)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Send the queue of a destination in batches, until the given store is sent.
+     *
+     * @return false if the next store waits for a store of the same key in flight
+     */
+    private boolean flush(Destination destination, Pending write) {
+        var batch = new ArrayList<Pending>(this.batchSize);
+        while (!write.isSent()) {
+
+            // Wait for more stores up to the linger time, unless the batch is already full
+            var deadline = System.nanoTime() + this.lingerNanos;
+            destination.flusher = Thread.currentThread();
+            while (destination.depth.get() < this.batchSize) {
+                var wait = deadline - System.nanoTime();
+                if (wait <= 0) break;
+                LockSupport.parkNanos(this, wait);
+            }
+
+            // Take the stores in order, up to the first one whose key is in flight (or which is
+            // forwarded to another number of successors)
+            synchronized (destination) {
+                for (var next = destination.queue.peek(); next != null; next = destination.queue.peek()) {
+                    if (batch.size() == this.batchSize || destination.sending.contains(next.id)) break;
+                    if (!batch.isEmpty() && batch.get(0).hops != next.hops) break;
+                    batch.add(destination.queue.poll());
+                }
+                for (var next : batch) destination.sending.add(next.id);
+            }
+            if (batch.isEmpty()) return false;
+            destination.depth.addAndGet(-batch.size());
+            try {
+                this.send(destination, batch);
+            } finally {
+                synchronized (destination) {
+                    for (var next : batch) destination.sending.remove(next.id);
+                }
+            }
+            batch.clear();
+        }
+        return true;
+    }
+
+    private void send(Destination destination, ArrayList<Pending> batch) {
+        var failure = new NodeFailException(String.format("Cannot send the replica stores to %s:%s",
+                destination.host, destination.port));
+        try {
+            var hops = batch.get(0).hops;
+            if (batch.size() == 1 && hops == 0) {
+                this.rpcClient.store(destination.host, destination.port, batch.get(0).id, batch.get(0).value);
+            } else {
+                var entries = new ArrayList<Map.Entry<BigInteger, String>>(batch.size());
+                for (var write : batch) entries.add(Map.entry(write.id, write.value));
+                if (hops == 0) this.rpcClient.storeBatch(destination.host, destination.port, entries);
+                else this.rpcClient.chainStore(destination.host, destination.port, hops, entries);
+            }
+            this.batches.increment();
+            this.batchSizes.record(batch.size());
+            failure = null;
+        } catch (NodeFailException e) {
+            logger.debug("Cannot send {} replica stores to {}:{}: {}", batch.size(), destination.host,
+                    destination.port, e.getMessage());
+            failure = e;
+        } finally {
+            for (var write : batch) write.complete(failure);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package dht.chord.rpc;
+
+import dht.chord.utils.KeyHasher;
+
+/**
+ * Configuration shared by all the nodes and clients of a ring: the size of the id space and how
+ * the keys are hashed into it.
+ * Wire format is:
+ * <m> <hasher>
+ */
+public class RingConfig {
+    private final int m;
+    private final KeyHasher keyHasher;
+
+    /**
+     * @param m         The size (in bits) of the id space
+     * @param keyHasher The hasher of the keys
+     */
+    public RingConfig(int m, KeyHasher keyHasher) {
+        this.m = m;
+        this.keyHasher = keyHasher;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public KeyHasher getKeyHasher() {
+        return keyHasher;
+    }
+
+    public static RingConfig parse(String message) {
+        var parts = message.split(" ");
+        return new RingConfig(Integer.parseInt(parts[0]), KeyHasher.of(parts[1]));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s", this.m, this.keyHasher.getName());
+    }
+}
@@ -0,0 +1,67 @@
+package dht.chord.rpc;
+
+import java.math.BigInteger;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Page of a range scan returned by the owner of a part of the range: the keys in ring order, and
+ * where the scan continues.
+ * Wire format is:
+ * <cursor|END> <next_address|NULL> <key_id:value> ... <key_id:value>
+ */
+public class ScanPage {
+    private static final String END = "END";
+
+    private final List<Map.Entry<BigInteger, String>> entries;
+    private final BigInteger cursor;
+    private final String nextAddress;
+
+    /**
+     * @param entries     The keys and values of the page
+     * @param cursor      The id where the scan continues, or null if the end of the range is reached
+     * @param nextAddress The node where the scan continues, or null if the end of the range is reached
+     */
+    public ScanPage(List<Map.Entry<BigInteger, String>> entries, BigInteger cursor, String nextAddress) {
+        this.entries = entries;
+        this.cursor = cursor;
+        this.nextAddress = nextAddress;
+    }
+
+    public List<Map.Entry<BigInteger, String>> getEntries() {
+        return entries;
+    }
+
+    public BigInteger getCursor() {
+        return cursor;
+    }
+
+    public String getNextAddress() {
+        return nextAddress;
+    }
+
+    public static ScanPage parse(String message) {
+        var parts = message.split(" ");
+        var cursor = parts[0].equals(END) ? null : new BigInteger(parts[0]);
+        var nextAddress = parts[1].equals(RPCMessage.NULL.name()) ? null : parts[1];
+        var entries = new ArrayList<Map.Entry<BigInteger, String>>(parts.length - 2);
+        for (int i = 2; i < parts.length; i++) {
+            var entry = parts[i].split(":");
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(new BigInteger(entry[0]), entry[1]));
+        }
+        return new ScanPage(entries, cursor, nextAddress);
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder();
+        builder.append(this.cursor == null ? END : this.cursor.toString());
+        builder.append(' ').append(this.nextAddress == null ? RPCMessage.NULL.name() : this.nextAddress);
+        for (var entry : this.entries) {
+            builder.append(' ').append(entry.getKey()).append(':').append(entry.getValue());
+        }
+        return builder.toString();
+    }
+}
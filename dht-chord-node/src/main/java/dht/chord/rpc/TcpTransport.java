@@ -0,0 +1,53 @@
+package dht.chord.rpc;
+
+import dht.chord.ChordNode;
+import dht.chord.exceptions.NodeFailException;
+
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Transport over TCP sockets: one connection per request on the client side, and an RPCServer on
+ * the server side.
+ */
+public class TcpTransport implements Transport {
+    private static final int SERVER_CONTROL_THREAD_POOL_SIZE = 4;
+    private static final int SERVER_ROUTING_THREAD_POOL_SIZE = 8;
+    private static final int SERVER_THREAD_POOL_SIZE = 10;
+    private static final int SERVER_QUEUE_CAPACITY = 100;
+
+    private final Map<Integer, RPCServer> servers = new ConcurrentHashMap<>();
+
+    @Override
+    public String send(String host, int port, String message) throws NodeFailException {
+        try (var socket = new Socket(host, port)) {
+            var in = new Scanner(socket.getInputStream());
+            var out = new PrintWriter(socket.getOutputStream(), true);
+            out.println(message);
+            return in.nextLine();
+        } catch (Exception e) {
+            throw new NodeFailException(String.format("%s:%s", host, port), e);
+        }
+    }
+
+    @Override
+    public void listen(String host, int port, ChordNode node) {
+        var server = new RPCServer(port, SERVER_CONTROL_THREAD_POOL_SIZE, SERVER_ROUTING_THREAD_POOL_SIZE, SERVER_THREAD_POOL_SIZE, SERVER_QUEUE_CAPACITY, node);
+        this.servers.put(port, server);
+        var serverExecutor = Executors.newSingleThreadExecutor();
+        serverExecutor.execute(server);
+        serverExecutor.shutdown();
+    }
+
+    @Override
+    public void close(String host, int port) {
+        var server = this.servers.remove(port);
+        if (server != null) {
+            server.stop();
+        }
+    }
+}
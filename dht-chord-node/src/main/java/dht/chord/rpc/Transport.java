@@ -0,0 +1,40 @@
+package dht.chord.rpc;
+
+import dht.chord.ChordNode;
+import dht.chord.exceptions.NodeFailException;
+
+/**
+ * Carries the text messages between the nodes. The RPCClient uses it to send requests, and each
+ * node uses it to serve the requests sent to its own address.
+ */
+public interface Transport {
+
+    /**
+     * Send a message and wait for its response.
+     *
+     * @param host    The target host
+     * @param port    The target port
+     * @param message The message as a string
+     * @return The raw response line
+     * @throws NodeFailException if the target node cannot be reached
+     */
+    String send(String host, int port, String message) throws NodeFailException;
+
+    /**
+     * Start serving the requests sent to the given address with the given node.
+     *
+     * @param host The host of the node
+     * @param port The port of the node
+     * @param node The node handling the requests
+     */
+    void listen(String host, int port, ChordNode node);
+
+    /**
+     * Stop serving the requests sent to the given address, after the requests being handled have
+     * been answered.
+     *
+     * @param host The host of the node
+     * @param port The port of the node
+     */
+    void close(String host, int port);
+}
@@ -0,0 +1,212 @@
+package dht.chord.storage;
+
+/**
+ * Systematic Reed–Solomon code over GF(2^8): a value is split into n data fragments, and p parity
+ * fragments are computed from them, so that the value can be rebuilt from any n of the n + p
+ * fragments.
+ * <p>
+ * The coding matrix is a Vandermonde matrix multiplied by the inverse of its first n rows: the
+ * first n fragments are the value itself, and any n rows of the matrix remain invertible. The
+ * products are looked up in a 64 KiB multiplication table, one row per coefficient.
+ */
+public final class ErasureCoder {
+    private static final int FIELD_SIZE = 256;
+    private static final int GENERATOR_POLYNOMIAL = 0x11D;
+
+    private static final byte[] EXP = new byte[2 * FIELD_SIZE];
+    private static final int[] LOG = new int[FIELD_SIZE];
+    private static final byte[][] MUL = new byte[FIELD_SIZE][FIELD_SIZE];
+
+    static {
+        var x = 1;
+        for (int i = 0; i < FIELD_SIZE - 1; i++) {
+            EXP[i] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= FIELD_SIZE) x ^= GENERATOR_POLYNOMIAL;
+        }
+        for (int i = FIELD_SIZE - 1; i < EXP.length; i++) {
+            EXP[i] = EXP[i - (FIELD_SIZE - 1)];
+        }
+        for (int a = 1; a < FIELD_SIZE; a++) {
+            for (int b = 1; b < FIELD_SIZE; b++) {
+                MUL[a][b] = EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private final int dataFragments;
+    private final int parityFragments;
+    private final byte[][] matrix;
+
+    /**
+     * @param dataFragments   The number n of data fragments, i.e. of fragments needed to rebuild a value
+     * @param parityFragments The number p of parity fragments, i.e. of fragments which can be lost
+     */
+    public ErasureCoder(int dataFragments, int parityFragments) {
+        if (dataFragments < 1 || parityFragments < 0 || dataFragments + parityFragments > FIELD_SIZE) {
+            throw new IllegalArgumentException(String.format("Invalid erasure code: %s data and %s parity fragments",
+                    dataFragments, parityFragments));
+        }
+        this.dataFragments = dataFragments;
+        this.parityFragments = parityFragments;
+
+        var total = dataFragments + parityFragments;
+        var vandermonde = new byte[total][dataFragments];
+        for (int row = 0; row < total; row++) {
+            for (int column = 0; column < dataFragments; column++) {
+                vandermonde[row][column] = power(row, column);
+            }
+        }
+        var top = new byte[dataFragments][];
+        System.arraycopy(vandermonde, 0, top, 0, dataFragments);
+        this.matrix = multiply(vandermonde, invert(top));
+    }
+
+    public int getDataFragments() {
+        return this.dataFragments;
+    }
+
+    public int getParityFragments() {
+        return this.parityFragments;
+    }
+
+    /**
+     * @param data The value
+     * @return The n + p fragments of the value, of the same size, the last data fragment being
+     * padded with zeros
+     */
+    public byte[][] encode(byte[] data) {
+        var size = Math.max(1, (data.length + this.dataFragments - 1) / this.dataFragments);
+        var fragments = new byte[this.dataFragments + this.parityFragments][size];
+        for (int i = 0; i < this.dataFragments; i++) {
+            var from = i * size;
+            if (from < data.length) System.arraycopy(data, from, fragments[i], 0, Math.min(size, data.length - from));
+        }
+        for (int i = this.dataFragments; i < fragments.length; i++) {
+            combine(this.matrix[i], fragments, fragments[i]);
+        }
+        return fragments;
+    }
+
+    /**
+     * @param fragments The n + p fragments of a value, null for the missing ones
+     * @param length    The length of the value
+     * @return The value
+     * @throws IllegalArgumentException if fewer than n fragments are given
+     */
+    public byte[] decode(byte[][] fragments, int length) {
+        if (fragments.length != this.dataFragments + this.parityFragments) {
+            throw new IllegalArgumentException(String.format("Expected %s fragments, got %s",
+                    this.dataFragments + this.parityFragments, fragments.length));
+        }
+
+        // The first n fragments present, the data ones first since their rows are the identity
+        var rows = new int[this.dataFragments];
+        var count = 0;
+        var missingData = false;
+        for (int i = 0; i < fragments.length && count < this.dataFragments; i++) {
+            if (fragments[i] != null) rows[count++] = i;
+            else if (i < this.dataFragments) missingData = true;
+        }
+        if (count < this.dataFragments) {
+            throw new IllegalArgumentException(String.format("%s fragments are needed, got %s", this.dataFragments, count));
+        }
+
+        var size = fragments[rows[0]].length;
+        var data = fragments;
+        if (missingData) {
+            var sub = new byte[this.dataFragments][];
+            var inputs = new byte[this.dataFragments][];
+            for (int i = 0; i < this.dataFragments; i++) {
+                sub[i] = this.matrix[rows[i]];
+                inputs[i] = fragments[rows[i]];
+            }
+            var inverse = invert(sub);
+            data = new byte[this.dataFragments][];
+            for (int i = 0; i < this.dataFragments; i++) {
+                if (fragments[i] != null) {
+                    data[i] = fragments[i];
+                } else {
+                    data[i] = new byte[size];
+                    combine(inverse[i], inputs, data[i]);
+                }
+            }
+        }
+
+        var value = new byte[length];
+        for (int i = 0; i < this.dataFragments; i++) {
+            var from = i * size;
+            if (from < length) System.arraycopy(data[i], 0, value, from, Math.min(size, length - from));
+        }
+        return value;
+    }
+
+    /**
+     * @param coefficients The coefficients of the inputs
+     * @param inputs       The input fragments
+     * @param output       The fragment receiving their linear combination
+     */
+    private static void combine(byte[] coefficients, byte[][] inputs, byte[] output) {
+        for (int i = 0; i < coefficients.length; i++) {
+            var row = MUL[coefficients[i] & 0xff];
+            var input = inputs[i];
+            for (int b = 0; b < output.length; b++) {
+                output[b] ^= row[input[b] & 0xff];
+            }
+        }
+    }
+
+    private static byte power(int a, int n) {
+        if (n == 0) return 1;
+        if (a == 0) return 0;
+        return EXP[(LOG[a] * n) % (FIELD_SIZE - 1)];
+    }
+
+    private static byte[][] multiply(byte[][] a, byte[][] b) {
+        var product = new byte[a.length][b[0].length];
+        for (int row = 0; row < a.length; row++) {
+            for (int column = 0; column < b[0].length; column++) {
+                var sum = 0;
+                for (int i = 0; i < b.length; i++) {
+                    sum ^= MUL[a[row][i] & 0xff][b[i][column] & 0xff];
+                }
+                product[row][column] = (byte) sum;
+            }
+        }
+        return product;
+    }
+
+    /**
+     * Invert a square matrix by Gauss-Jordan elimination.
+     */
+    private static byte[][] invert(byte[][] matrix) {
+        var n = matrix.length;
+        var work = new byte[n][2 * n];
+        for (int row = 0; row < n; row++) {
+            System.arraycopy(matrix[row], 0, work[row], 0, n);
+            work[row][n + row] = 1;
+        }
+        for (int column = 0; column < n; column++) {
+            var pivot = column;
+            while (pivot < n && work[pivot][column] == 0) pivot++;
+            if (pivot == n) throw new IllegalArgumentException("Singular matrix");
+            var swap = work[pivot];
+            work[pivot] = work[column];
+            work[column] = swap;
+
+            var scale = MUL[EXP[FIELD_SIZE - 1 - LOG[work[column][column] & 0xff]] & 0xff];
+            for (int i = 0; i < 2 * n; i++) work[column][i] = scale[work[column][i] & 0xff];
+            for (int row = 0; row < n; row++) {
+                var factor = work[row][column] & 0xff;
+                if (row == column || factor == 0) continue;
+                for (int i = 0; i < 2 * n; i++) work[row][i] ^= MUL[factor][work[column][i] & 0xff];
+            }
+        }
+        var inverse = new byte[n][n];
+        for (int row = 0; row < n; row++) {
+            System.arraycopy(work[row], n, inverse[row], 0, n);
+        }
+        return inverse;
+    }
+}
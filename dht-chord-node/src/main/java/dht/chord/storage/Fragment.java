@@ -0,0 +1,96 @@
+package dht.chord.storage;
+
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * The fragments of an erasure-coded value (see {@link ErasureCoder}), stored by the successors of
+ * its owner instead of full copies. A fragment is stored like a value, with the metadata of the
+ * value it comes from (see {@link StoredValue}):
+ * <pre>
+ * #&lt;index&gt;.&lt;length&gt;.&lt;fragment&gt;~&lt;version&gt;[~&lt;expires_at&gt;]
+ * </pre>
+ * where the length is the one of the decoded value and the fragment is Base64. Neither '#' nor '.'
+ * are Base64, and '#' sorts before it: when a full copy and a fragment of the same version meet,
+ * the full copy wins (see {@link StoredValue#isNewer}).
+ */
+public final class Fragment {
+    private static final char MARKER = '#';
+    private static final char SEPARATOR = '.';
+
+    private Fragment() {
+    }
+
+    /**
+     * @param coder  The erasure code
+     * @param stored The stored value
+     * @return The n + p stored fragments of the value, or null if the value is not Base64
+     */
+    public static String[] encode(ErasureCoder coder, String stored) {
+        var value = StoredValue.valueOf(stored);
+        byte[] data;
+        try {
+            data = Base64.getDecoder().decode(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        // A value which does not encode back to itself would not be rebuilt as is
+        var encoder = Base64.getEncoder();
+        if (!encoder.encodeToString(data).equals(value)) return null;
+
+        var version = StoredValue.versionOf(stored);
+        var expiresAt = StoredValue.expiresAt(stored);
+        var fragments = coder.encode(data);
+        var encoded = new String[fragments.length];
+        for (int i = 0; i < fragments.length; i++) {
+            var fragment = MARKER + Integer.toString(i) + SEPARATOR + data.length + SEPARATOR + encoder.encodeToString(fragments[i]);
+            encoded[i] = StoredValue.of(fragment, version, expiresAt);
+        }
+        return encoded;
+    }
+
+    /**
+     * @param coder     The erasure code
+     * @param fragments Stored fragments of a value, all of the same version
+     * @return The stored value, or null if fewer than n distinct fragments are given
+     */
+    public static String decode(ErasureCoder coder, List<String> fragments) {
+        var decoder = Base64.getDecoder();
+        var shards = new byte[coder.getDataFragments() + coder.getParityFragments()][];
+        var count = 0;
+        var length = 0;
+        for (var stored : fragments) {
+            var value = StoredValue.valueOf(stored);
+            var first = value.indexOf(SEPARATOR);
+            var second = value.indexOf(SEPARATOR, first + 1);
+            var index = indexOf(value);
+            if (index >= shards.length || shards[index] != null) continue;
+            shards[index] = decoder.decode(value.substring(second + 1));
+            length = Integer.parseInt(value.substring(first + 1, second));
+            count++;
+        }
+        if (count < coder.getDataFragments()) return null;
+
+        var first = fragments.get(0);
+        var data = coder.decode(shards, length);
+        return StoredValue.of(Base64.getEncoder().encodeToString(data), StoredValue.versionOf(first),
+                StoredValue.expiresAt(first));
+    }
+
+    /**
+     * @param stored A stored fragment
+     * @return The index of the fragment
+     */
+    public static int indexOf(String stored) {
+        return Integer.parseInt(stored.substring(1, stored.indexOf(SEPARATOR)));
+    }
+
+    /**
+     * @param stored A stored value, or null
+     * @return Whether it is a fragment
+     */
+    public static boolean isFragment(String stored) {
+        return stored != null && !stored.isEmpty() && stored.charAt(0) == MARKER;
+    }
+}
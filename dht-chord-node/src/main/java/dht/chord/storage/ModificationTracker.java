@@ -0,0 +1,126 @@
+package dht.chord.storage;
+
+import dht.chord.utils.Clock;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks when each key stored by a node was last written or deleted, so that a node rejoining the
+ * ring with a {@link Snapshot} only fetches the keys changed since the snapshot was taken. Deleted
+ * keys are kept as tombstones for a retention period. The changes are only known since the
+ * horizon, which moves forward as the tombstones are pruned.
+ */
+public class ModificationTracker {
+    public static final long TOMBSTONE_RETENTION_MILLIS = 3_600_000;
+
+    private final Clock clock;
+    private final Map<BigInteger, Long> modified = new ConcurrentHashMap<>();
+    private final Set<BigInteger> deleted = ConcurrentHashMap.newKeySet();
+    private volatile long horizon;
+
+    public ModificationTracker(Clock clock) {
+        this.clock = clock;
+        this.horizon = clock.currentTimeMillis();
+    }
+
+    public void written(BigInteger id) {
+        this.modified.put(id, this.clock.currentTimeMillis());
+        this.deleted.remove(id);
+    }
+
+    public void deleted(BigInteger id) {
+        this.deleted(id, this.clock.currentTimeMillis());
+    }
+
+    /**
+     * @param id        The key id
+     * @param deletedAt The time of the deletion in milliseconds, e.g. when replaying a log
+     */
+    public void deleted(BigInteger id, long deletedAt) {
+        this.modified.put(id, deletedAt);
+        this.deleted.add(id);
+    }
+
+    /**
+     * Stop tracking a key, as done when it moves to another node.
+     *
+     * @param id The key id
+     */
+    public void forget(BigInteger id) {
+        this.modified.remove(id);
+        this.deleted.remove(id);
+    }
+
+    /**
+     * Stop tracking every key, as done when the data loaded from a snapshot is dropped. The
+     * changes are only known from now on.
+     */
+    public void clear() {
+        this.modified.clear();
+        this.deleted.clear();
+        this.horizon = this.clock.currentTimeMillis();
+    }
+
+    /**
+     * @param id The key id
+     * @return The time of the last modification of the key in milliseconds, or -1 if unknown
+     */
+    public long getModifiedAt(BigInteger id) {
+        var modifiedAt = this.modified.get(id);
+        return modifiedAt == null ? -1 : modifiedAt;
+    }
+
+    public boolean isDeleted(BigInteger id) {
+        return this.deleted.contains(id);
+    }
+
+    /**
+     * @param since A time in milliseconds
+     * @return Whether every modification made since the given time is known
+     */
+    public boolean isKnownSince(long since) {
+        return since >= this.horizon;
+    }
+
+    /**
+     * Drop the tombstones older than the retention period.
+     */
+    public void prune() {
+        var cutoff = this.clock.currentTimeMillis() - TOMBSTONE_RETENTION_MILLIS;
+        this.deleted.removeIf(id -> {
+            var modifiedAt = this.modified.get(id);
+            if (modifiedAt == null || modifiedAt < cutoff) {
+                this.modified.remove(id);
+                return true;
+            }
+            return false;
+        });
+        this.horizon = Math.max(this.horizon, cutoff);
+    }
+
+    /**
+     * Restore the state saved in a snapshot.
+     */
+    public void restore(Map<BigInteger, Long> modified, Set<BigInteger> deleted, long horizon) {
+        this.modified.clear();
+        this.modified.putAll(modified);
+        this.deleted.clear();
+        this.deleted.addAll(deleted);
+        this.horizon = horizon;
+    }
+
+    public Map<BigInteger, Long> getModified() {
+        return this.modified;
+    }
+
+    public Set<BigInteger> getDeleted() {
+        return this.deleted;
+    }
+
+    public long getHorizon() {
+        return this.horizon;
+    }
+}
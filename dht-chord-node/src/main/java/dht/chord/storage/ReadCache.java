@@ -0,0 +1,209 @@
+package dht.chord.storage;
+
+import dht.chord.metrics.MetricsRegistry;
+import dht.chord.utils.Clock;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of values owned by other nodes, used to absorb the reads of hot keys before they
+ * reach their owner. Entries expire after a short TTL, and owners send invalidations when a cached
+ * key is written, so that stale reads are bounded by the TTL even if an invalidation is lost.
+ * <p>
+ * The cache is split into stripes, each one being a segmented LRU: new entries enter a probation
+ * segment and are promoted to a protected segment when read again, so that a scan of cold keys
+ * cannot flush the hot ones.
+ */
+public class ReadCache {
+    private static final int STRIPE_COUNT = 16;
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final Clock clock;
+    private final long ttlNanos;
+    private final Stripe[] stripes;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LongAdder invalidations;
+
+    /**
+     * @param maxBytes  The maximum (estimated) memory used by the cache
+     * @param ttlMillis The time to live of an entry
+     * @param clock     The clock used to expire entries
+     * @param metrics   The registry where the cache.* metrics are registered
+     */
+    public ReadCache(long maxBytes, long ttlMillis, Clock clock, MetricsRegistry metrics) {
+        this.clock = clock;
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.stripes = new Stripe[STRIPE_COUNT];
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            this.stripes[i] = new Stripe(maxBytes / STRIPE_COUNT);
+        }
+        this.hits = metrics.counter("cache.hits");
+        this.misses = metrics.counter("cache.misses");
+        this.evictions = metrics.counter("cache.evictions");
+        this.invalidations = metrics.counter("cache.invalidations");
+        metrics.gauge("cache.bytes", this::getBytes);
+        metrics.gauge("cache.entries", this::getSize);
+        metrics.gauge("cache.hit.ratio.permille", () -> {
+            var total = this.hits.sum() + this.misses.sum();
+            return total == 0 ? 0 : this.hits.sum() * 1000 / total;
+        });
+    }
+
+    /**
+     * @param id The key id
+     * @return The cached value or null if absent or expired
+     */
+    public String get(BigInteger id) {
+        var value = this.stripe(id).get(id, this.clock.nanoTime());
+        (value == null ? this.misses : this.hits).increment();
+        return value;
+    }
+
+    public void put(BigInteger id, String value) {
+        this.stripe(id).put(id, value, this.clock.nanoTime() + this.ttlNanos);
+    }
+
+    public void invalidate(BigInteger id) {
+        if (this.stripe(id).remove(id)) {
+            this.invalidations.increment();
+        }
+    }
+
+    public long getTtlNanos() {
+        return this.ttlNanos;
+    }
+
+    public long getBytes() {
+        var bytes = 0L;
+        for (var stripe : this.stripes) bytes += stripe.getBytes();
+        return bytes;
+    }
+
+    public long getSize() {
+        var size = 0L;
+        for (var stripe : this.stripes) size += stripe.getSize();
+        return size;
+    }
+
+    private Stripe stripe(BigInteger id) {
+        var hash = id.hashCode();
+        return this.stripes[(hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1)];
+    }
+
+    private static long weight(String value) {
+        return value.length() + ENTRY_OVERHEAD;
+    }
+
+    private static class Entry {
+        final String value;
+        final long expiresAt;
+
+        Entry(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Segmented LRU guarded by its own lock. Both segments are access-ordered, their eldest entry
+     * being the least recently used one.
+     */
+    private class Stripe {
+        private final long maxBytes;
+        private final long maxProtectedBytes;
+        private final LinkedHashMap<BigInteger, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<BigInteger, Entry> protect = new LinkedHashMap<>(16, 0.75f, true);
+        private long probationBytes;
+        private long protectedBytes;
+
+        Stripe(long maxBytes) {
+            this.maxBytes = maxBytes;
+            this.maxProtectedBytes = (long) (maxBytes * PROTECTED_RATIO);
+        }
+
+        synchronized String get(BigInteger id, long now) {
+            var entry = this.protect.get(id);
+            if (entry != null) {
+                if (entry.expiresAt - now > 0) return entry.value;
+                this.protect.remove(id);
+                this.protectedBytes -= weight(entry.value);
+                return null;
+            }
+
+            entry = this.probation.remove(id);
+            if (entry == null) return null;
+            this.probationBytes -= weight(entry.value);
+            if (entry.expiresAt - now <= 0) return null;
+
+            // Second hit: promote to the protected segment, demoting its least recently used entries
+            this.protect.put(id, entry);
+            this.protectedBytes += weight(entry.value);
+            var iterator = this.protect.entrySet().iterator();
+            while (this.protectedBytes > this.maxProtectedBytes && iterator.hasNext()) {
+                var eldest = iterator.next();
+                if (eldest.getKey().equals(id)) break;
+                iterator.remove();
+                this.protectedBytes -= weight(eldest.getValue().value);
+                this.probation.put(eldest.getKey(), eldest.getValue());
+                this.probationBytes += weight(eldest.getValue().value);
+            }
+            this.evict();
+            return entry.value;
+        }
+
+        synchronized void put(BigInteger id, String value, long expiresAt) {
+            var entry = new Entry(value, expiresAt);
+            var previous = this.protect.get(id);
+            if (previous != null) {
+                this.protect.put(id, entry);
+                this.protectedBytes += weight(value) - weight(previous.value);
+            } else {
+                previous = this.probation.put(id, entry);
+                this.probationBytes += weight(value) - (previous == null ? 0 : weight(previous.value));
+            }
+            this.evict();
+        }
+
+        synchronized boolean remove(BigInteger id) {
+            var entry = this.protect.remove(id);
+            if (entry != null) {
+                this.protectedBytes -= weight(entry.value);
+                return true;
+            }
+            entry = this.probation.remove(id);
+            if (entry != null) {
+                this.probationBytes -= weight(entry.value);
+                return true;
+            }
+            return false;
+        }
+
+        synchronized long getBytes() {
+            return this.probationBytes + this.protectedBytes;
+        }
+
+        synchronized long getSize() {
+            return this.probation.size() + this.protect.size();
+        }
+
+        private void evict() {
+            while (this.probationBytes + this.protectedBytes > this.maxBytes) {
+                var segment = this.probation.isEmpty() ? this.protect : this.probation;
+                var iterator = segment.entrySet().iterator();
+                if (!iterator.hasNext()) return;
+                var eldest = iterator.next();
+                iterator.remove();
+                var eldestWeight = weight(eldest.getValue().value);
+                if (segment == this.probation) this.probationBytes -= eldestWeight;
+                else this.protectedBytes -= eldestWeight;
+                evictions.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package dht.chord.storage;
+
+import dht.chord.utils.Clock;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks, on the owner of a key, the nodes which may hold the key in their {@link ReadCache}. A
+ * reader is tracked for the TTL of the cache only, after which its copy has expired anyway.
+ */
+public class ReaderTracker {
+    private static final int PRUNE_PERIOD = 1024;
+
+    private final Clock clock;
+    private final long ttlNanos;
+    private final Map<BigInteger, Map<String, Long>> readers = new ConcurrentHashMap<>();
+    private final LongAdder recorded = new LongAdder();
+
+    public ReaderTracker(long ttlMillis, Clock clock) {
+        this.clock = clock;
+        this.ttlNanos = ttlMillis * 1_000_000;
+    }
+
+    /**
+     * Record that a node has read a key and may cache it.
+     *
+     * @param id            The key id
+     * @param readerAddress The address of the reader
+     */
+    public void record(BigInteger id, String readerAddress) {
+        var now = this.clock.nanoTime();
+        this.readers.computeIfAbsent(id, x -> new ConcurrentHashMap<>()).put(readerAddress, now + this.ttlNanos);
+
+        this.recorded.increment();
+        if (this.recorded.sum() % PRUNE_PERIOD == 0) {
+            this.prune(now);
+        }
+    }
+
+    /**
+     * Stop tracking the readers of a key, as done when it is written.
+     *
+     * @param id The key id
+     * @return The readers which may still hold the key in cache
+     */
+    public List<String> drain(BigInteger id) {
+        var now = this.clock.nanoTime();
+        var result = new ArrayList<String>();
+        var entries = this.readers.remove(id);
+        if (entries != null) {
+            entries.forEach((address, expiresAt) -> {
+                if (expiresAt - now > 0) result.add(address);
+            });
+        }
+        return result;
+    }
+
+    public int getSize() {
+        return this.readers.size();
+    }
+
+    private void prune(long now) {
+        this.readers.values().forEach(entries -> entries.values().removeIf(expiresAt -> expiresAt - now <= 0));
+        this.readers.values().removeIf(Map::isEmpty);
+    }
+}
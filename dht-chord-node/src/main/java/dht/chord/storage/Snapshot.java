@@ -0,0 +1,162 @@
+package dht.chord.storage;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copy of the data of a node written to disk, so that a restarting node reloads its data locally
+ * and only fetches from its successor the keys changed since the watermark.
+ * <p>
+ * The node keeps serving while its maps are copied, so a key written during the copy may or may
+ * not be in the snapshot. The watermark is taken before the copy: such a key is modified after the
+ * watermark and is fetched again on rejoin, which makes the snapshot consistent once caught up.
+ */
+public class Snapshot {
+    private static final int MAGIC = 0x43484f52;
+    private static final int VERSION = 1;
+
+    private final long watermark;
+    private final long horizon;
+    private final Map<BigInteger, String> db;
+    private final Map<BigInteger, String> dbReplicas;
+    private final Map<BigInteger, Long> modified;
+    private final Set<BigInteger> deleted;
+
+    /**
+     * @param watermark  The time (in milliseconds) before which every change is in the snapshot
+     * @param horizon    The time since which the modifications are tracked
+     * @param db         The keys owned by the node
+     * @param dbReplicas The replicas held by the node
+     * @param modified   The modification time of the keys
+     * @param deleted    The deleted keys (tombstones)
+     */
+    public Snapshot(long watermark, long horizon, Map<BigInteger, String> db, Map<BigInteger, String> dbReplicas,
+                    Map<BigInteger, Long> modified, Set<BigInteger> deleted) {
+        this.watermark = watermark;
+        this.horizon = horizon;
+        this.db = db;
+        this.dbReplicas = dbReplicas;
+        this.modified = modified;
+        this.deleted = deleted;
+    }
+
+    /**
+     * Write the snapshot to a temporary file, sync it and move it in place, so that a crash never
+     * leaves a partial snapshot behind.
+     *
+     * @param path The path of the snapshot
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void write(Path path) throws IOException {
+        var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        var file = new FileOutputStream(temporary.toFile());
+        try (var out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(this.watermark);
+            out.writeLong(this.horizon);
+            writeEntries(out, this.db);
+            writeEntries(out, this.dbReplicas);
+            out.writeInt(this.modified.size());
+            for (var entry : this.modified.entrySet()) {
+                writeBytes(out, entry.getKey().toByteArray());
+                out.writeLong(entry.getValue());
+            }
+            out.writeInt(this.deleted.size());
+            for (var id : this.deleted) {
+                writeBytes(out, id.toByteArray());
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param path The path of the snapshot
+     * @return The snapshot
+     * @throws IOException if the snapshot cannot be read or is not a snapshot
+     */
+    public static Snapshot read(Path path) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a snapshot: " + path);
+            }
+            var watermark = in.readLong();
+            var horizon = in.readLong();
+            var db = readEntries(in);
+            var dbReplicas = readEntries(in);
+            var modifiedCount = in.readInt();
+            var modified = new HashMap<BigInteger, Long>(modifiedCount);
+            for (int i = 0; i < modifiedCount; i++) {
+                modified.put(new BigInteger(readBytes(in)), in.readLong());
+            }
+            var deletedCount = in.readInt();
+            var deleted = new HashSet<BigInteger>(deletedCount);
+            for (int i = 0; i < deletedCount; i++) {
+                deleted.add(new BigInteger(readBytes(in)));
+            }
+            return new Snapshot(watermark, horizon, db, dbReplicas, modified, deleted);
+        }
+    }
+
+    public long getWatermark() {
+        return this.watermark;
+    }
+
+    public long getHorizon() {
+        return this.horizon;
+    }
+
+    public Map<BigInteger, String> getDb() {
+        return this.db;
+    }
+
+    public Map<BigInteger, String> getDbReplicas() {
+        return this.dbReplicas;
+    }
+
+    public Map<BigInteger, Long> getModified() {
+        return this.modified;
+    }
+
+    public Set<BigInteger> getDeleted() {
+        return this.deleted;
+    }
+
+    private static void writeEntries(DataOutputStream out, Map<BigInteger, String> entries) throws IOException {
+        out.writeInt(entries.size());
+        for (var entry : entries.entrySet()) {
+            writeBytes(out, entry.getKey().toByteArray());
+            writeBytes(out, entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<BigInteger, String> readEntries(DataInputStream in) throws IOException {
+        var count = in.readInt();
+        var entries = new HashMap<BigInteger, String>(count);
+        for (int i = 0; i < count; i++) {
+            entries.put(new BigInteger(readBytes(in)), new String(readBytes(in), StandardCharsets.UTF_8));
+        }
+        return entries;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,109 @@
+package dht.chord.storage;
+
+/**
+ * Metadata stored with a value: its version, assigned by the owner when the value is written, and
+ * the time at which it expires, if written with a TTL. A stored value is:
+ * <pre>
+ * &lt;value&gt;~&lt;version&gt;[~&lt;expires_at&gt;]
+ * </pre>
+ * so that the metadata follows the value wherever it goes (replicas, transfers, handoffs and
+ * snapshots) without changing those messages. Values are Base64, which never contains '~'; a
+ * value without metadata has version 0 and does not expire.
+ * <p>
+ * Versions are hybrid logical clock timestamps (see {@link dht.chord.utils.HybridClock}), and the
+ * copies of a key are merged by keeping the highest version (last writer wins). Expiration times
+ * are wall clock times, compared between nodes up to their clock skew.
+ */
+public final class StoredValue {
+    private static final char SEPARATOR = '~';
+
+    private StoredValue() {
+    }
+
+    /**
+     * @param value     The value
+     * @param version   The version of the value
+     * @param expiresAt The time (in milliseconds) at which the value expires, or 0 if it does not
+     * @return The value to store
+     */
+    public static String of(String value, long version, long expiresAt) {
+        var stored = value + SEPARATOR + version;
+        return expiresAt > 0 ? stored + SEPARATOR + expiresAt : stored;
+    }
+
+    /**
+     * @param value     The value, written without a version yet
+     * @param expiresAt The time (in milliseconds) at which the value expires
+     * @return The value to store, the owner giving it its version
+     */
+    public static String withExpiration(String value, long expiresAt) {
+        return of(value, 0, expiresAt);
+    }
+
+    /**
+     * @param stored The stored value
+     * @return The value without its metadata
+     */
+    public static String valueOf(String stored) {
+        var separator = stored.indexOf(SEPARATOR);
+        return separator < 0 ? stored : stored.substring(0, separator);
+    }
+
+    /**
+     * @param stored The stored value
+     * @return The version of the value, or 0 if it has none
+     */
+    public static long versionOf(String stored) {
+        return field(stored, 1);
+    }
+
+    /**
+     * @param stored The stored value
+     * @return The time (in milliseconds) at which the value expires, or 0 if it does not expire
+     */
+    public static long expiresAt(String stored) {
+        return field(stored, 2);
+    }
+
+    /**
+     * @param stored  The stored value
+     * @param current The value currently stored, or null
+     * @return Whether the stored value wins over the current one: it has a higher version, or the
+     * same version and a higher value, so that all the copies agree on the winner
+     */
+    public static boolean isNewer(String stored, String current) {
+        if (current == null) return true;
+        var compare = Long.compare(versionOf(stored), versionOf(current));
+        return compare > 0 || (compare == 0 && stored.compareTo(current) > 0);
+    }
+
+    /**
+     * @param stored    The stored value, or null
+     * @param nowMillis The current time, in milliseconds
+     * @return Whether the value has expired
+     */
+    public static boolean isExpired(String stored, long nowMillis) {
+        if (stored == null) return false;
+        var expiresAt = expiresAt(stored);
+        return expiresAt > 0 && expiresAt <= nowMillis;
+    }
+
+    /**
+     * @param stored    The stored value, or null
+     * @param nowMillis The current time, in milliseconds
+     * @return The value without its metadata, or null if it is absent or expired
+     */
+    public static String liveValueOf(String stored, long nowMillis) {
+        return stored == null || isExpired(stored, nowMillis) ? null : valueOf(stored);
+    }
+
+    private static long field(String stored, int index) {
+        var start = -1;
+        for (int i = 0; i < index; i++) {
+            start = stored.indexOf(SEPARATOR, start + 1);
+            if (start < 0) return 0;
+        }
+        var end = stored.indexOf(SEPARATOR, start + 1);
+        return Long.parseLong(end < 0 ? stored.substring(start + 1) : stored.substring(start + 1, end));
+    }
+}
@@ -0,0 +1,423 @@
+package dht.chord.storage;
+
+import dht.chord.metrics.Histogram;
+import dht.chord.metrics.MetricsRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Log of the writes of a node, appended before they are acknowledged, so that acknowledged writes
+ * survive a crash of the node. The log is replayed on top of the last snapshot on restart.
+ * <p>
+ * The log is split into segments: a new segment is started before each snapshot, and the older
+ * segments are deleted once the snapshot is written. A record is:
+ * <pre>
+ * &lt;length&gt; &lt;crc32&gt; &lt;payload&gt;
+ * </pre>
+ * the payload being "S &lt;key_id&gt; &lt;stored_value&gt;" (a key owned by the node), "R &lt;key_id&gt;
+ * &lt;stored_value&gt;" (a replica) or "D &lt;key_id&gt; &lt;deleted_at&gt;". Replay stops at the first
+ * truncated or corrupted record, i.e. the one being written during a crash.
+ * <p>
+ * Three durability modes are supported:
+ * <ul>
+ * <li>SYNC: each write is synced to disk before being acknowledged.</li>
+ * <li>GROUP: concurrent writes are batched by a flusher thread, which writes and syncs the whole
+ * batch at once. The writes arriving during a sync make up the next batch; the flusher can also
+ * wait for up to the flush interval to fill larger batches, which pays off when syncs are slow.
+ * Each write is acknowledged after the sync of its batch.</li>
+ * <li>ASYNC: writes are acknowledged once handed to the operating system, and synced every flush
+ * interval (at least 1 ms). A crash of the machine loses the writes of the last interval.</li>
+ * </ul>
+ */
+public class WriteAheadLog implements Closeable {
+    public static final long FLUSH_INTERVAL_DEFAULT_MICROS = 0;
+    public static final int BATCH_SIZE_DEFAULT = 256;
+    private static final long MIN_SYNC_PERIOD_NANOS = 1_000_000;
+    private static final String EXTENSION = ".wal";
+
+    public enum Durability {
+        SYNC,
+        GROUP,
+        ASYNC
+    }
+
+    /**
+     * Receiver of the records of a replayed log.
+     */
+    public interface Replayer {
+        void stored(BigInteger id, String value, boolean replica);
+
+        void deleted(BigInteger id, long deletedAt);
+    }
+
+    private static final class Pending {
+        private final byte[] record;
+        private final CompletableFuture<Void> synced = new CompletableFuture<>();
+
+        private Pending(byte[] record) {
+            this.record = record;
+        }
+    }
+
+    private final Path directory;
+    private final String name;
+    private final Durability durability;
+    private final long flushIntervalNanos;
+    private final int batchSize;
+    private final List<Path> replayable;
+    private final LinkedBlockingQueue<Pending> pending = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+
+    private FileChannel channel;
+    private long segment;
+    private boolean dirty;
+    private volatile boolean closed;
+
+    private final LongAdder appends;
+    private final LongAdder syncs;
+    private final Histogram batchSizes;
+    private final Histogram syncLatency;
+
+    private final Logger logger = LogManager.getLogger(WriteAheadLog.class);
+
+    /**
+     * Open the log, starting a new segment. The existing segments are kept for {@link #replay}.
+     *
+     * @param directory           The directory of the segments
+     * @param name                The name of the log, prefix of its segments
+     * @param durability          The durability mode
+     * @param flushIntervalMicros The maximum time a write waits for its batch (GROUP) or for the
+     *                            sync (ASYNC)
+     * @param batchSize           The maximum number of writes in a batch (GROUP)
+     * @param metrics             The registry where the wal.* metrics are registered
+     * @throws IOException if the log cannot be opened
+     */
+    public WriteAheadLog(Path directory, String name, Durability durability, long flushIntervalMicros, int batchSize,
+                         MetricsRegistry metrics) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.durability = durability;
+        this.flushIntervalNanos = flushIntervalMicros * 1000;
+        this.batchSize = Math.max(batchSize, 1);
+        this.appends = metrics.counter("wal.appends");
+        this.syncs = metrics.counter("wal.syncs");
+        this.batchSizes = metrics.histogram("wal.batch.size");
+        this.syncLatency = metrics.histogram("wal.sync.latency");
+
+        var segments = this.listSegments();
+        this.replayable = new ArrayList<>(segments.values());
+        this.segment = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        this.channel = this.openSegment(this.segment);
+
+        switch (durability) {
+            case GROUP:
+                this.flusher = new Thread(this::runGroupCommit, "wal-" + name);
+                break;
+            case ASYNC:
+                this.flusher = new Thread(this::runPeriodicSync, "wal-" + name);
+                break;
+            default:
+                this.flusher = null;
+        }
+        if (this.flusher != null) {
+            this.flusher.setDaemon(true);
+            this.flusher.start();
+        }
+    }
+
+    // ==============================
+    // Writes
+    // ==============================
+
+    /**
+     * Log a stored value, returning once it is durable according to the durability mode.
+     *
+     * @param id      The key id
+     * @param value   The stored value
+     * @param replica Whether the value is a replica of a key owned by another node
+     * @throws IOException if the record cannot be written
+     */
+    public void stored(BigInteger id, String value, boolean replica) throws IOException {
+        this.append(String.format("%s %s %s", replica ? "R" : "S", id, value));
+    }
+
+    /**
+     * Log a deleted key, returning once it is durable according to the durability mode.
+     *
+     * @param id        The key id
+     * @param deletedAt The time (in milliseconds) of the deletion
+     * @throws IOException if the record cannot be written
+     */
+    public void deleted(BigInteger id, long deletedAt) throws IOException {
+        this.append(String.format("D %s %s", id, deletedAt));
+    }
+
+    private void append(String payload) throws IOException {
+        var record = encode(payload);
+        this.appends.increment();
+        switch (this.durability) {
+            case SYNC:
+                this.write(List.of(record), true);
+                break;
+            case ASYNC:
+                this.write(List.of(record), false);
+                break;
+            default:
+                if (this.closed) {
+                    throw new IOException("Log closed");
+                }
+                var write = new Pending(record);
+                this.pending.add(write);
+
+                // The flusher may have failed the writes left behind before this one was queued
+                if (this.closed && this.pending.remove(write)) {
+                    throw new IOException("Log closed");
+                }
+                try {
+                    write.synced.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Group commit failed", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the group commit");
+                }
+        }
+    }
+
+    private synchronized void write(List<byte[]> records, boolean sync) throws IOException {
+        if (this.closed) {
+            throw new IOException("Log closed");
+        }
+        var length = 0;
+        for (var record : records) length += record.length;
+        var buffer = ByteBuffer.allocate(length);
+        for (var record : records) buffer.put(record);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+        this.dirty = true;
+        if (sync) {
+            this.sync();
+        }
+    }
+
+    private synchronized void sync() throws IOException {
+        if (!this.dirty) return;
+        var start = System.nanoTime();
+        this.channel.force(false);
+        this.dirty = false;
+        this.syncs.increment();
+        this.syncLatency.record((System.nanoTime() - start) / 1000);
+    }
+
+    private void runGroupCommit() {
+        var batch = new ArrayList<Pending>(this.batchSize);
+        var records = new ArrayList<byte[]>(this.batchSize);
+        while (!this.closed) {
+            try {
+                var first = this.pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                // Take what is already waiting, then wait for more writes up to the flush interval
+                this.pending.drainTo(batch, this.batchSize - batch.size());
+                var deadline = System.nanoTime() + this.flushIntervalNanos;
+                while (batch.size() < this.batchSize) {
+                    var wait = deadline - System.nanoTime();
+                    if (wait <= 0) break;
+                    var next = this.pending.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    this.pending.drainTo(batch, this.batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                this.pending.addAll(batch);
+                break;
+            }
+
+            for (var write : batch) records.add(write.record);
+            try {
+                this.write(records, true);
+                this.batchSizes.record(batch.size());
+                batch.forEach(x -> x.synced.complete(null));
+            } catch (IOException e) {
+                logger.error("Cannot write the log: {}", e.getMessage());
+                batch.forEach(x -> x.synced.completeExceptionally(e));
+            }
+            batch.clear();
+            records.clear();
+        }
+
+        // Fail the writes left behind
+        var failure = new IOException("Log closed");
+        for (var write = this.pending.poll(); write != null; write = this.pending.poll()) {
+            write.synced.completeExceptionally(failure);
+        }
+    }
+
+    private void runPeriodicSync() {
+        while (!this.closed) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.max(this.flushIntervalNanos, MIN_SYNC_PERIOD_NANOS));
+                this.sync();
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                logger.error("Cannot sync the log: {}", e.getMessage());
+            }
+        }
+    }
+
+    // ==============================
+    // Segments
+    // ==============================
+
+    /**
+     * Start a new segment, before taking a snapshot: every write logged in the previous segments
+     * is applied to the data before the snapshot copies it.
+     *
+     * @return The number of the new segment
+     * @throws IOException if the new segment cannot be opened
+     */
+    public synchronized long rotate() throws IOException {
+        this.sync();
+        this.channel.close();
+        this.segment++;
+        this.channel = this.openSegment(this.segment);
+        return this.segment;
+    }
+
+    /**
+     * Delete the segments covered by a snapshot.
+     *
+     * @param segment The number of the first segment to keep
+     * @throws IOException if a segment cannot be deleted
+     */
+    public void deleteSegmentsBefore(long segment) throws IOException {
+        for (var entry : this.listSegments().headMap(segment).entrySet()) {
+            Files.deleteIfExists(entry.getValue());
+        }
+    }
+
+    /**
+     * Replay the segments found when the log was opened, in order.
+     *
+     * @param replayer The receiver of the records
+     * @return The number of records replayed
+     * @throws IOException if a segment cannot be read
+     */
+    public long replay(Replayer replayer) throws IOException {
+        var count = 0L;
+        for (var path : this.replayable) {
+            if (!Files.exists(path)) continue;
+            try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                while (true) {
+                    var payload = decode(in);
+                    if (payload == null) break;
+                    var args = payload.split(" ");
+                    if (!args[0].equals("D")) {
+                        replayer.stored(new BigInteger(args[1]), args[2], args[0].equals("R"));
+                    } else {
+                        replayer.deleted(new BigInteger(args[1]), Long.parseLong(args[2]));
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (this.closed) return;
+            this.sync();
+            this.closed = true;
+        }
+        if (this.flusher != null) {
+            this.flusher.interrupt();
+            try {
+                this.flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            this.channel.close();
+        }
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        var path = this.directory.resolve(this.name + "." + segment + EXTENSION);
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        var segments = new TreeMap<Long, Path>();
+        try (var paths = Files.list(this.directory)) {
+            paths.forEach(path -> {
+                var fileName = path.getFileName().toString();
+                if (fileName.startsWith(this.name + ".") && fileName.endsWith(EXTENSION)) {
+                    var number = fileName.substring(this.name.length() + 1, fileName.length() - EXTENSION.length());
+                    if (number.chars().allMatch(Character::isDigit) && !number.isEmpty()) {
+                        segments.put(Long.parseLong(number), path);
+                    }
+                }
+            });
+        }
+        return segments;
+    }
+
+    // ==============================
+    // Records
+    // ==============================
+
+    private static byte[] encode(String payload) {
+        var bytes = payload.getBytes(StandardCharsets.UTF_8);
+        var crc = new CRC32();
+        crc.update(bytes);
+        return ByteBuffer.allocate(8 + bytes.length)
+                .putInt(bytes.length)
+                .putInt((int) crc.getValue())
+                .put(bytes)
+                .array();
+    }
+
+    /**
+     * @return The payload of the next record, or null at the end of the segment or at a
+     * truncated or corrupted record
+     */
+    private static String decode(DataInputStream in) throws IOException {
+        try {
+            var length = in.readInt();
+            var expectedCrc = in.readInt();
+            if (length < 0 || length > 64 * 1024 * 1024) return null;
+            var bytes = new byte[length];
+            in.readFully(bytes);
+            var crc = new CRC32();
+            crc.update(bytes);
+            return (int) crc.getValue() == expectedCrc ? new String(bytes, StandardCharsets.UTF_8) : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+}
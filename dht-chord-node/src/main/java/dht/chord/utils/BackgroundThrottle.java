@@ -0,0 +1,165 @@
+package dht.chord.utils;
+
+import dht.chord.metrics.Histogram;
+import dht.chord.metrics.MetricsRegistry;
+import dht.chord.rpc.RPCMessage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limiter for the background data movement (transfers to joining nodes and re-replication),
+ * so that rebalancing does not compete at full speed with the user requests.
+ * <p>
+ * Two token buckets limit the bytes and the operations per second. On top of the configured
+ * limits, the effective rate follows an AIMD policy driven by the foreground latency: every
+ * second, if the mean latency of the PUT, GET and DELETE requests served by the node exceeds the
+ * target, the rate is halved, otherwise it grows back by a tenth of the configured limit.
+ */
+public class BackgroundThrottle {
+    private static final long ADJUST_PERIOD_NANOS = 1_000_000_000L;
+    private static final double MIN_RATE_FRACTION = 1.0 / 64;
+    private static final double RATE_FRACTION_INCREMENT = 0.1;
+
+    private final Clock clock;
+    private final Histogram[] foreground;
+    private final LongAdder bytesMoved;
+    private final LongAdder opsMoved;
+    private final LongAdder throttledMicros;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private long maxBytesPerSecond;
+    private long maxOpsPerSecond;
+    private long foregroundTargetMicros;
+
+    private double rateFraction = 1;
+    private double byteTokens;
+    private double opTokens;
+    private long lastRefill;
+    private long lastAdjust;
+    private long lastForegroundCount;
+    private long lastForegroundSum;
+
+    /**
+     * Create an unlimited throttle. See {@link #setLimits}.
+     *
+     * @param clock   The clock used to refill the buckets and to wait
+     * @param metrics The registry providing the foreground latencies and where the mover.* metrics
+     *                are registered
+     */
+    public BackgroundThrottle(Clock clock, MetricsRegistry metrics) {
+        this.clock = clock;
+        this.foreground = new Histogram[]{
+                metrics.rpcServerLatency(RPCMessage.PUT),
+                metrics.rpcServerLatency(RPCMessage.GET),
+                metrics.rpcServerLatency(RPCMessage.DELETE)
+        };
+        this.bytesMoved = metrics.counter("mover.bytes");
+        this.opsMoved = metrics.counter("mover.ops");
+        this.throttledMicros = metrics.counter("mover.throttled.micros");
+        metrics.gauge("mover.waiting", this.waiting::get);
+        metrics.gauge("mover.backlog.bytes", () -> {
+            synchronized (this) {
+                return (long) Math.max(0, -this.byteTokens);
+            }
+        });
+        metrics.gauge("mover.rate.bytes", () -> {
+            synchronized (this) {
+                return (long) this.effectiveRate(this.maxBytesPerSecond);
+            }
+        });
+        this.lastRefill = clock.nanoTime();
+        this.lastAdjust = this.lastRefill;
+    }
+
+    /**
+     * Set the limits of the background data movement.
+     *
+     * @param maxBytesPerSecond      The maximum number of bytes per second, or 0 for no limit
+     * @param maxOpsPerSecond        The maximum number of operations per second, or 0 for no limit
+     * @param foregroundTargetMicros The mean foreground latency above which the rate is reduced, or
+     *                               0 to keep the rate fixed
+     */
+    public synchronized void setLimits(long maxBytesPerSecond, long maxOpsPerSecond, long foregroundTargetMicros) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.maxOpsPerSecond = maxOpsPerSecond;
+        this.foregroundTargetMicros = foregroundTargetMicros;
+        this.byteTokens = maxBytesPerSecond;
+        this.opTokens = maxOpsPerSecond;
+        this.rateFraction = 1;
+    }
+
+    /**
+     * Wait until a background operation is allowed to move the given amount of data. Operations are
+     * admitted in arrival order: an operation exceeding the available tokens reserves them and
+     * waits for the buckets to refill.
+     *
+     * @param bytes The number of bytes moved by the operation
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            var now = this.clock.nanoTime();
+            this.adjust(now);
+            this.refill(now);
+            if (this.maxBytesPerSecond > 0) this.byteTokens -= bytes;
+            if (this.maxOpsPerSecond > 0) this.opTokens -= 1;
+            waitNanos = Math.max(
+                    deficitNanos(this.byteTokens, this.effectiveRate(this.maxBytesPerSecond)),
+                    deficitNanos(this.opTokens, this.effectiveRate(this.maxOpsPerSecond)));
+        }
+        this.bytesMoved.add(bytes);
+        this.opsMoved.increment();
+        if (waitNanos > 0) {
+            this.waiting.incrementAndGet();
+            try {
+                this.throttledMicros.add(waitNanos / 1000);
+                this.clock.sleepMicros(waitNanos / 1000);
+            } finally {
+                this.waiting.decrementAndGet();
+            }
+        }
+    }
+
+    private void refill(long now) {
+        var elapsed = (now - this.lastRefill) / 1e9;
+        this.lastRefill = now;
+        var byteRate = this.effectiveRate(this.maxBytesPerSecond);
+        var opRate = this.effectiveRate(this.maxOpsPerSecond);
+        this.byteTokens = Math.min(byteRate, this.byteTokens + elapsed * byteRate);
+        this.opTokens = Math.min(opRate, this.opTokens + elapsed * opRate);
+    }
+
+    private void adjust(long now) {
+        if (now - this.lastAdjust < ADJUST_PERIOD_NANOS) {
+            return;
+        }
+        this.lastAdjust = now;
+
+        var count = 0L;
+        var sum = 0L;
+        for (var histogram : this.foreground) {
+            count += histogram.getCount();
+            sum += histogram.getSum();
+        }
+        var windowCount = count - this.lastForegroundCount;
+        var windowSum = sum - this.lastForegroundSum;
+        this.lastForegroundCount = count;
+        this.lastForegroundSum = sum;
+
+        if (this.foregroundTargetMicros > 0 && windowCount > 0 && windowSum / windowCount > this.foregroundTargetMicros) {
+            this.rateFraction = Math.max(MIN_RATE_FRACTION, this.rateFraction / 2);
+        } else {
+            this.rateFraction = Math.min(1, this.rateFraction + RATE_FRACTION_INCREMENT);
+        }
+    }
+
+    private double effectiveRate(long maxRate) {
+        return maxRate <= 0 ? 0 : maxRate * this.rateFraction;
+    }
+
+    private static long deficitNanos(double tokens, double rate) {
+        return tokens >= 0 || rate <= 0 ? 0 : (long) (-tokens / rate * 1e9);
+    }
+}
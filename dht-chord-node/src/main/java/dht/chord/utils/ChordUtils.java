@@ -1,16 +1,11 @@
 package dht.chord.utils;
 
-import org.apache.commons.codec.digest.DigestUtils;
-
 import java.math.BigInteger;
 
 public final class ChordUtils {
 
     public static BigInteger keyToChordID(String key, int m) {
-        var idSpaceSize = (int) Math.pow(2, m);
-        var hash = DigestUtils.sha1Hex(key);
-        var numericValue = new BigInteger(hash, 16);
-        return numericValue.mod(BigInteger.valueOf(idSpaceSize));
+        return KeyHasher.SHA1.hash(key, m);
     }
 
     public static BigInteger hostPortToChordID(String host, int port, int m) {
@@ -0,0 +1,35 @@
+package dht.chord.utils;
+
+/**
+ * Source of time used by the nodes for measuring and waiting, so that a whole ring can run on a
+ * virtual clock inside the simulator.
+ */
+public interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+        }
+    };
+
+    long nanoTime();
+
+    void sleep(long millis) throws InterruptedException;
+
+    default void sleepMicros(long micros) throws InterruptedException {
+        this.sleep(micros / 1000);
+    }
+
+    /**
+     * @return The wall clock time in milliseconds, comparable between nodes up to their clock skew
+     */
+    default long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
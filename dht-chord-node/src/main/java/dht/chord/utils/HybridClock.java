@@ -0,0 +1,45 @@
+package dht.chord.utils;
+
+/**
+ * Hybrid logical clock, giving the versions of the values. A timestamp is the wall clock time in
+ * milliseconds, shifted left by 16 bits, plus a logical counter. Timestamps are strictly
+ * increasing on a node, and a node never issues a timestamp lower than one it has received, so
+ * that a write always gets a higher version than the copies it overwrites, even if the clock of
+ * the previous owner was ahead.
+ */
+public class HybridClock {
+    private static final int LOGICAL_BITS = 16;
+
+    private final Clock clock;
+    private long last;
+
+    /**
+     * @param clock The source of the wall clock time
+     */
+    public HybridClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return A new timestamp, higher than all the timestamps issued or received
+     */
+    public synchronized long now() {
+        this.last = Math.max(this.last + 1, this.clock.currentTimeMillis() << LOGICAL_BITS);
+        return this.last;
+    }
+
+    /**
+     * @param timestamp A timestamp received from another node
+     */
+    public synchronized void update(long timestamp) {
+        this.last = Math.max(this.last, timestamp);
+    }
+
+    /**
+     * @param timestamp A timestamp
+     * @return Its wall clock time, in milliseconds
+     */
+    public static long physicalTimeOf(long timestamp) {
+        return timestamp >>> LOGICAL_BITS;
+    }
+}
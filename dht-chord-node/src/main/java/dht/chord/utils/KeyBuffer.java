@@ -0,0 +1,76 @@
+package dht.chord.utils;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Per-thread scratch space of the key hashers: the UTF-8 bytes of the key being hashed, and the
+ * bytes of the id being built.
+ */
+final class KeyBuffer {
+    private static final ThreadLocal<KeyBuffer> BUFFERS = ThreadLocal.withInitial(KeyBuffer::new);
+
+    byte[] bytes = new byte[64];
+    int length;
+    final byte[] id = new byte[16];
+
+    private KeyBuffer() {
+    }
+
+    /**
+     * @param key A key
+     * @return The buffer of the current thread, holding the UTF-8 bytes of the key
+     */
+    static KeyBuffer of(String key) {
+        var buffer = BUFFERS.get();
+        buffer.encode(key);
+        return buffer;
+    }
+
+    private void encode(String key) {
+        var length = key.length();
+        if (length > this.bytes.length) this.bytes = new byte[Math.max(length, 2 * this.bytes.length)];
+
+        // ASCII keys (UUIDs, numbers, names) are copied as is, the others go through the encoder
+        for (int i = 0; i < length; i++) {
+            var c = key.charAt(i);
+            if (c >= 0x80) {
+                var encoded = key.getBytes(StandardCharsets.UTF_8);
+                if (encoded.length > this.bytes.length) this.bytes = new byte[encoded.length];
+                System.arraycopy(encoded, 0, this.bytes, 0, encoded.length);
+                this.length = encoded.length;
+                return;
+            }
+            this.bytes[i] = (byte) c;
+        }
+        this.length = length;
+    }
+
+    /**
+     * @param high The high 64 bits of a hash
+     * @param low  The low 64 bits of a hash
+     * @param m    The size (in bits) of the id space, at most 128
+     * @return The hash modulo 2^m
+     */
+    BigInteger toId(long high, long low, int m) {
+        if (m < Long.SIZE) return BigInteger.valueOf(low & ((1L << m) - 1));
+        for (int i = 0; i < Long.BYTES; i++) {
+            this.id[i] = (byte) (high >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+            this.id[Long.BYTES + i] = (byte) (low >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+        }
+        return toId(this.id, this.id.length, m);
+    }
+
+    /**
+     * @param hash   A big-endian hash, whose last bytes are masked in place
+     * @param length The length of the hash
+     * @param m      The size (in bits) of the id space, at most 8 * length
+     * @return The hash modulo 2^m, i.e. its m lowest bits
+     */
+    private static BigInteger toId(byte[] hash, int length, int m) {
+        var bytes = (m + Byte.SIZE - 1) / Byte.SIZE;
+        var offset = length - bytes;
+        if (m % Byte.SIZE != 0) hash[offset] &= (1 << (m % Byte.SIZE)) - 1;
+        return new BigInteger(1, hash, offset, bytes);
+    }
+}
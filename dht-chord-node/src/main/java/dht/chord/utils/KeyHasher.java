@@ -0,0 +1,66 @@
+package dht.chord.utils;
+
+import java.math.BigInteger;
+
+/**
+ * Strategy mapping keys to ids of the ring. Every client of a ring must hash the keys the same
+ * way, so the hasher is part of the ring configuration (see GET_CONFIG), next to the size of the
+ * id space. The ids of the nodes are always the SHA-1 of their host:port, so that a client can
+ * compute the id of a seed node without asking it.
+ * <p>
+ * The implementations keep their buffers per thread and only allocate the returned id.
+ */
+public interface KeyHasher {
+
+    /**
+     * SHA-1: the default, uniform even for keys chosen by an adversary.
+     */
+    KeyHasher SHA1 = new Sha1KeyHasher();
+
+    /**
+     * MurmurHash3 (x64, 128 bits): several times faster, for trusted keys only.
+     */
+    KeyHasher MURMUR3 = new Murmur3KeyHasher();
+
+    /**
+     * xxHash64: the fastest, for trusted keys and id spaces of at most 64 bits.
+     */
+    KeyHasher XXHASH = new XxHashKeyHasher();
+
+    KeyHasher DEFAULT = SHA1;
+
+    /**
+     * @param key A key
+     * @param m   The size (in bits) of the id space, at most getBits()
+     * @return The id of the key, the hash of its UTF-8 bytes modulo 2^m
+     */
+    BigInteger hash(String key, int m);
+
+    /**
+     * @return The size (in bits) of the hashes, which is the largest supported id space
+     */
+    int getBits();
+
+    /**
+     * @return The name of the hasher in the ring configuration
+     */
+    String getName();
+
+    /**
+     * @param name The name of a hasher: sha1, murmur3 or xxhash
+     * @return The hasher
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static KeyHasher of(String name) {
+        switch (name.toLowerCase()) {
+            case "sha1":
+                return SHA1;
+            case "murmur3":
+                return MURMUR3;
+            case "xxhash":
+                return XXHASH;
+            default:
+                throw new IllegalArgumentException("Unknown key hasher: " + name);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package dht.chord.utils;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phi-accrual failure detector (Hayashibara et al.). Instead of a yes/no answer after a missed
+ * ping, it keeps the distribution of the intervals between the heartbeats of each peer and
+ * returns the suspicion level phi = -log10(P(no heartbeat for that long)), so that a peer whose
+ * heartbeats are irregular (load spikes, GC pauses) needs a longer silence to be suspected than a
+ * peer which answers like clockwork.
+ * <p>
+ * The heartbeats are the successful responses of the peer to any RPC, so that the maintenance
+ * and data traffic already going to a peer keeps it alive without dedicated pings. Since that
+ * traffic comes in bursts, the mean interval is padded with an acceptable pause, and heartbeats
+ * closer than 100 ms only move the time of the last one, so that a burst of responses does not
+ * shrink the learned interval to nothing.
+ */
+public class PhiAccrualFailureDetector {
+    public static final double THRESHOLD_DEFAULT = 8;
+    private static final int WINDOW_SIZE = 100;
+    private static final double MIN_STD_DEVIATION_MILLIS = 100;
+    private static final double MIN_INTERVAL_MILLIS = 100;
+
+    private final Clock clock;
+    private final double threshold;
+    private final double expectedIntervalMillis;
+    private final double acceptablePauseMillis;
+    private final Map<String, History> histories = new ConcurrentHashMap<>();
+
+    private static final class History {
+        private final double[] intervals = new double[WINDOW_SIZE];
+        private int count;
+        private int next;
+        private double sum;
+        private double squaresSum;
+        private long last;
+
+        private History(long now, double firstIntervalMillis) {
+            this.last = now;
+            // Seed the window with a guess, so that a new peer is suspected neither at once nor never
+            this.add(firstIntervalMillis - firstIntervalMillis / 4);
+            this.add(firstIntervalMillis + firstIntervalMillis / 4);
+        }
+
+        private void add(double interval) {
+            if (this.count == WINDOW_SIZE) {
+                var evicted = this.intervals[this.next];
+                this.sum -= evicted;
+                this.squaresSum -= evicted * evicted;
+            } else {
+                this.count++;
+            }
+            this.intervals[this.next] = interval;
+            this.next = (this.next + 1) % WINDOW_SIZE;
+            this.sum += interval;
+            this.squaresSum += interval * interval;
+        }
+
+        private double mean() {
+            return this.sum / this.count;
+        }
+
+        private double stdDeviation() {
+            var mean = this.mean();
+            return Math.sqrt(Math.max(this.squaresSum / this.count - mean * mean, 0));
+        }
+    }
+
+    /**
+     * @param clock                  The source of time
+     * @param threshold              The phi above which a peer is suspected: 8 means the chance
+     *                               that a suspected peer is in fact alive is about 1e-8
+     * @param expectedIntervalMillis The first guess of the interval between heartbeats, in
+     *                               milliseconds
+     * @param acceptablePauseMillis  The silence (in milliseconds) tolerated on top of the mean
+     *                               interval
+     */
+    public PhiAccrualFailureDetector(Clock clock, double threshold, long expectedIntervalMillis, long acceptablePauseMillis) {
+        this.clock = clock;
+        this.threshold = threshold;
+        this.expectedIntervalMillis = expectedIntervalMillis;
+        this.acceptablePauseMillis = acceptablePauseMillis;
+    }
+
+    /**
+     * Record a heartbeat (a successful response) of a peer, if it is monitored.
+     *
+     * @param endpoint The host:port of the peer
+     */
+    public void heartbeat(String endpoint) {
+        var history = this.histories.get(endpoint);
+        if (history == null) return;
+
+        var now = this.clock.nanoTime();
+        synchronized (history) {
+            var interval = (now - history.last) / 1e6;
+            if (interval >= MIN_INTERVAL_MILLIS) {
+                history.add(interval);
+            }
+            history.last = Math.max(history.last, now);
+        }
+    }
+
+    /**
+     * Start monitoring a peer, as if it had just sent a heartbeat if it is not monitored yet, so
+     * that a peer which never answers is suspected too.
+     *
+     * @param endpoint The host:port of the peer
+     */
+    public void watch(String endpoint) {
+        this.histories.computeIfAbsent(endpoint, e -> new History(this.clock.nanoTime(), this.expectedIntervalMillis));
+    }
+
+    /**
+     * Stop monitoring the peers which are not in the given ones.
+     *
+     * @param endpoints The host:port of the peers still monitored
+     */
+    public void retainAll(Collection<String> endpoints) {
+        this.histories.keySet().retainAll(endpoints);
+    }
+
+    /**
+     * @param endpoint The host:port of the peer
+     */
+    public void remove(String endpoint) {
+        this.histories.remove(endpoint);
+    }
+
+    /**
+     * @param endpoint The host:port of the peer
+     * @return The suspicion level of the peer, or 0 if it is not monitored
+     */
+    public double phi(String endpoint) {
+        var history = this.histories.get(endpoint);
+        if (history == null) return 0;
+
+        double elapsed, mean, stdDeviation;
+        synchronized (history) {
+            elapsed = (this.clock.nanoTime() - history.last) / 1e6;
+            mean = history.mean() + this.acceptablePauseMillis;
+            stdDeviation = Math.max(history.stdDeviation(), MIN_STD_DEVIATION_MILLIS);
+        }
+
+        // Logistic approximation of the normal CDF, accurate to 0.01% (Bowling et al.), which does
+        // not lose precision in the tail as 1 - CDF would
+        var y = (elapsed - mean) / stdDeviation;
+        var e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        var pLater = elapsed > mean ? e / (1 + e) : 1 - 1 / (1 + e);
+        return -Math.log10(Math.max(pLater, Double.MIN_VALUE));
+    }
+
+    /**
+     * @param endpoint The host:port of the peer
+     * @return Whether the suspicion level of the peer is above the threshold
+     */
+    public boolean isSuspected(String endpoint) {
+        return this.phi(endpoint) > this.threshold;
+    }
+
+    /**
+     * @param endpoint The host:port of the peer
+     * @return The time (in milliseconds) since the last heartbeat of the peer, or 0 if it is not
+     * monitored
+     */
+    public long silenceMillis(String endpoint) {
+        var history = this.histories.get(endpoint);
+        if (history == null) return 0;
+        synchronized (history) {
+            return (this.clock.nanoTime() - history.last) / 1_000_000;
+        }
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+}
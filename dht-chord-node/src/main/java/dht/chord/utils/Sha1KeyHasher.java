@@ -0,0 +1,70 @@
+package dht.chord.utils;
+
+import java.math.BigInteger;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 key hasher. The digest is written into a per-thread buffer and reduced from its bytes,
+ * instead of going through a hex string and a BigInteger modulo.
+ * <p>
+ * The ids are the ones the ring has always used: the digest modulo 2^m for m up to 30, and
+ * modulo 2^31 - 1 above (the size of the id space used to be computed as an int, which saturates),
+ * so that the nodes, the snapshots and the clients keep agreeing on the id of every key.
+ */
+final class Sha1KeyHasher implements KeyHasher {
+    private static final int DIGEST_LENGTH = 20;
+
+    private static final class State {
+        private final MessageDigest digest;
+        private final byte[] hash = new byte[DIGEST_LENGTH];
+
+        private State() {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private final ThreadLocal<State> states = ThreadLocal.withInitial(State::new);
+
+    @Override
+    public BigInteger hash(String key, int m) {
+        if (m > DIGEST_LENGTH * Byte.SIZE) throw new IllegalArgumentException("SHA-1 ids have at most 160 bits");
+
+        var buffer = KeyBuffer.of(key);
+        var state = this.states.get();
+        state.digest.update(buffer.bytes, 0, buffer.length);
+        try {
+            state.digest.digest(state.hash, 0, DIGEST_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (m < Integer.SIZE - 1) {
+            var low = 0;
+            for (int i = DIGEST_LENGTH - Integer.BYTES; i < DIGEST_LENGTH; i++) {
+                low = (low << Byte.SIZE) | (state.hash[i] & 0xff);
+            }
+            return BigInteger.valueOf(low & ((1 << m) - 1));
+        }
+        var id = 0L;
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            id = ((id << Byte.SIZE) | (state.hash[i] & 0xff)) % Integer.MAX_VALUE;
+        }
+        return BigInteger.valueOf(id);
+    }
+
+    @Override
+    public int getBits() {
+        return DIGEST_LENGTH * Byte.SIZE;
+    }
+
+    @Override
+    public String getName() {
+        return "sha1";
+    }
+}
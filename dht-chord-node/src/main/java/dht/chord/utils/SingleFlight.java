@@ -0,0 +1,106 @@
+package dht.chord.utils;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalescing of concurrent identical calls: the first caller for a key runs the call, and the
+ * callers arriving while it is in flight wait for it and get the same result (or exception)
+ * instead of issuing their own. A call is only shared while in flight, results are not cached.
+ * <p>
+ * A caller never waits for a call made by its own thread, and waits at most a bounded time for
+ * the others before making its own call: a request forwarded in a loop while the ring is
+ * inconsistent can come back to the node which is waiting for it, and must not deadlock there.
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the results
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final long maxWaitMillis;
+    private final LongAdder shared;
+
+    private static final class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private final Thread thread = Thread.currentThread();
+    }
+
+    /**
+     * A call which may throw a checked exception.
+     *
+     * @param <V> The type of the result
+     * @param <E> The type of the exception
+     */
+    @FunctionalInterface
+    public interface Call<V, E extends Exception> {
+        V call() throws E;
+    }
+
+    /**
+     * @param maxWaitMillis The maximum time (in milliseconds) a caller waits for the call in
+     *                      flight before making its own
+     * @param shared        The counter of the calls which got the result of another one
+     */
+    public SingleFlight(long maxWaitMillis, LongAdder shared) {
+        this.maxWaitMillis = maxWaitMillis;
+        this.shared = shared;
+    }
+
+    /**
+     * Run a call, or wait for the identical call in flight.
+     *
+     * @param key  The key identifying the call
+     * @param call The call
+     * @return The result of the call
+     * @throws E if the call has thrown it
+     */
+    @SuppressWarnings("unchecked")
+    public <E extends Exception> V execute(K key, Call<V, E> call) throws E {
+        var flight = new Flight<V>();
+        var inFlight = this.flights.putIfAbsent(key, flight);
+        if (inFlight != null) {
+            if (inFlight.thread == flight.thread) return call.call();
+            try {
+                var value = inFlight.result.get(this.maxWaitMillis, TimeUnit.MILLISECONDS);
+                this.shared.increment();
+                return value;
+            } catch (TimeoutException e) {
+                return call.call();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                this.shared.increment();
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw (E) e.getCause();
+            }
+        }
+
+        try {
+            var value = call.call();
+            flight.result.complete(value);
+            return value;
+        } catch (Throwable e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Stop sharing the call in flight for a key, so that the callers arriving from now on make a
+     * new call. Used when the result of the call in flight may be outdated, e.g. after a write.
+     *
+     * @param key The key identifying the call
+     */
+    public void forget(K key) {
+        this.flights.remove(key);
+    }
+}
@@ -0,0 +1,124 @@
+package dht.chord.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timer wheel, used to expire keys without scanning the whole store. Time is split in
+ * ticks; the first wheel has one slot per tick, and each following wheel has slots 64 times
+ * larger. A timer is put in the wheel matching how far its deadline is, and moved down one wheel
+ * each time the wheel below completes a turn, so that scheduling and expiring a timer are O(1)
+ * (amortized over the few times it is moved down).
+ * <p>
+ * Timers cannot be cancelled: the caller checks whether an expired key is still due (e.g. it was
+ * not written again in the meantime) before dropping it.
+ *
+ * @param <K> The type of the keys
+ */
+public class TimerWheel<K> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_COUNT = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOT_COUNT - 1;
+    private static final int WHEEL_COUNT = 4;
+
+    private final long tickMillis;
+    private final List<List<ArrayDeque<Timer<K>>>> wheels;
+    private long currentTick;
+    private int size;
+
+    private static final class Timer<K> {
+        private final K key;
+        private final long tick;
+
+        private Timer(K key, long tick) {
+            this.key = key;
+            this.tick = tick;
+        }
+    }
+
+    /**
+     * @param tickMillis  The resolution of the wheel, in milliseconds
+     * @param startMillis The current time, in milliseconds
+     */
+    public TimerWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+        this.wheels = new ArrayList<>(WHEEL_COUNT);
+        for (int i = 0; i < WHEEL_COUNT; i++) {
+            var slots = new ArrayList<ArrayDeque<Timer<K>>>(SLOT_COUNT);
+            for (int j = 0; j < SLOT_COUNT; j++) slots.add(new ArrayDeque<>());
+            this.wheels.add(slots);
+        }
+    }
+
+    /**
+     * @param key            The key
+     * @param deadlineMillis The time (in milliseconds) at which the key expires
+     */
+    public synchronized void schedule(K key, long deadlineMillis) {
+        var tick = (deadlineMillis + this.tickMillis - 1) / this.tickMillis;
+        this.insert(new Timer<>(key, Math.max(tick, this.currentTick + 1)));
+        this.size++;
+    }
+
+    /**
+     * Move the wheel forward to the given time.
+     *
+     * @param nowMillis The current time, in milliseconds
+     * @return The keys whose deadline has passed
+     */
+    public synchronized List<K> advance(long nowMillis) {
+        var expired = new ArrayList<K>();
+        var targetTick = nowMillis / this.tickMillis;
+        while (this.currentTick < targetTick) {
+            this.currentTick++;
+
+            // Move down the timers of the wheels completing a turn, the largest first
+            var wheel = 0;
+            while (wheel + 1 < WHEEL_COUNT && ((this.currentTick >> (SLOT_BITS * (wheel + 1))) << (SLOT_BITS * (wheel + 1))) == this.currentTick) {
+                wheel++;
+            }
+            for (; wheel > 0; wheel--) {
+                var slot = this.slot(wheel, (int) ((this.currentTick >> (SLOT_BITS * wheel)) & SLOT_MASK));
+                var timers = new ArrayList<>(slot);
+                slot.clear();
+                timers.forEach(this::insert);
+            }
+
+            var slot = this.slot(0, (int) (this.currentTick & SLOT_MASK));
+            for (var timer : slot) {
+                expired.add(timer.key);
+            }
+            this.size -= slot.size();
+            slot.clear();
+        }
+        return expired;
+    }
+
+    /**
+     * @return The number of scheduled timers, including the ones of keys which are no longer due
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    private void insert(Timer<K> timer) {
+        var delta = timer.tick - this.currentTick;
+        for (int wheel = 0; wheel < WHEEL_COUNT; wheel++) {
+            if (delta < 1L << (SLOT_BITS * (wheel + 1))) {
+                this.slot(wheel, (int) ((timer.tick >> (SLOT_BITS * wheel)) & SLOT_MASK)).add(timer);
+                return;
+            }
+        }
+
+        // Beyond the range of the wheels: parked in the slot of the last wheel which comes next
+        var wheel = WHEEL_COUNT - 1;
+        var index = (int) (((this.currentTick >> (SLOT_BITS * wheel)) - 1) & SLOT_MASK);
+        this.slot(wheel, index).add(timer);
+    }
+
+    private ArrayDeque<Timer<K>> slot(int wheel, int index) {
+        return this.wheels.get(wheel).get(index);
+    }
+}
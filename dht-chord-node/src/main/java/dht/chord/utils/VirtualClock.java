@@ -0,0 +1,48 @@
+package dht.chord.utils;
+
+/**
+ * Clock whose time only moves when told to. The global time is advanced by the simulator, while
+ * sleeping (e.g. simulated network latency or retry delays) only advances the time seen by the
+ * calling thread until {@link #resetElapsed()} is called. This way the duration of a single
+ * operation is the sum of the latencies along its path, regardless of how many other operations
+ * the simulator runs in the same round.
+ */
+public class VirtualClock implements Clock {
+    private long now;
+    private final ThreadLocal<long[]> elapsed = ThreadLocal.withInitial(() -> new long[1]);
+
+    @Override
+    public long nanoTime() {
+        return this.now + this.elapsed.get()[0];
+    }
+
+    @Override
+    public void sleep(long millis) {
+        this.sleepMicros(millis * 1_000);
+    }
+
+    @Override
+    public void sleepMicros(long micros) {
+        this.elapsed.get()[0] += micros * 1_000;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return this.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * Start a new operation on the calling thread from the current global time.
+     */
+    public void resetElapsed() {
+        this.elapsed.get()[0] = 0;
+    }
+
+    public void advance(long millis) {
+        this.now += millis * 1_000_000;
+    }
+
+    public long millis() {
+        return this.now / 1_000_000;
+    }
+}
@@ -0,0 +1,97 @@
+package dht.chord.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigInteger;
+import java.nio.ByteOrder;
+
+/**
+ * xxHash64 key hasher (seed 0).
+ */
+final class XxHashKeyHasher implements KeyHasher {
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    @Override
+    public BigInteger hash(String key, int m) {
+        if (m > Long.SIZE) throw new IllegalArgumentException("xxHash64 ids have at most 64 bits");
+
+        var buffer = KeyBuffer.of(key);
+        var data = buffer.bytes;
+        var length = buffer.length;
+        var p = 0;
+        long h;
+
+        if (length >= 32) {
+            var v1 = P1 + P2;
+            var v2 = P2;
+            var v3 = 0L;
+            var v4 = -P1;
+            while (p <= length - 32) {
+                v1 = round(v1, (long) LONG.get(data, p));
+                v2 = round(v2, (long) LONG.get(data, p + 8));
+                v3 = round(v3, (long) LONG.get(data, p + 16));
+                v4 = round(v4, (long) LONG.get(data, p + 24));
+                p += 32;
+            }
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = P5;
+        }
+
+        h += length;
+        while (p + 8 <= length) {
+            h ^= round(0, (long) LONG.get(data, p));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+            p += 8;
+        }
+        if (p + 4 <= length) {
+            h ^= ((int) INT.get(data, p) & 0xFFFFFFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            p += 4;
+        }
+        while (p < length) {
+            h ^= (data[p] & 0xff) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+            p++;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+
+        return buffer.toId(0, h, m);
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * P2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * P1;
+    }
+
+    private static long merge(long accumulator, long value) {
+        accumulator ^= round(0, value);
+        return accumulator * P1 + P4;
+    }
+
+    @Override
+    public int getBits() {
+        return Long.SIZE;
+    }
+
+    @Override
+    public String getName() {
+        return "xxhash";
+    }
+}